@@ -0,0 +1,196 @@
+package co.edu.escuelaing.httpserver;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * End-to-end requests over loopback against the nio transport. Every JMH
+ * thread holds one keep-alive connection and sends a request as soon as the
+ * previous response arrived, so the thread count is the number of concurrent
+ * connections. Sample time mode reports the latency percentiles; the
+ * throughput follows from the operation count.
+ * <p>
+ * {@link #main(String[])} runs it with the GC profiler, which adds the bytes
+ * allocated per request ({@code gc.alloc.rate.norm}) to the results.
+ *
+ * @author sergio.bejarano-r
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-DACCESS_LOG=off")
+public class LoopbackBenchmark {
+
+    private static final byte[] REQUEST = ("GET /app/square?n=7 HTTP/1.1\r\nHost: localhost\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The server, shared by every connection of a run.
+     */
+    @State(Scope.Benchmark)
+    public static class Server {
+
+        NioServer server;
+        ExecutorService workers;
+        int port;
+
+        @Setup(Level.Trial)
+        public void start() throws IOException {
+            HttpServer.loadServices();
+            workers = ExecutorStrategy.fromConfig().create();
+            server = new NioServer(0, Runtime.getRuntime().availableProcessors(), workers);
+            server.start();
+            port = server.getPort();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            server.stop();
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * One keep-alive connection per benchmark thread, opened again whenever
+     * the server closes it after KEEP_ALIVE_MAX_REQUESTS.
+     */
+    @State(Scope.Thread)
+    public static class Connection {
+
+        Socket socket;
+        OutputStream out;
+        InputStream in;
+        int port;
+        boolean closing;
+        final byte[] body = new byte[4096];
+
+        @Setup(Level.Trial)
+        public void open(Server server) throws IOException {
+            port = server.port;
+            connect();
+        }
+
+        private void connect() throws IOException {
+            socket = new Socket("localhost", port);
+            socket.setTcpNoDelay(true);
+            out = socket.getOutputStream();
+            in = new BufferedInputStream(socket.getInputStream());
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            socket.close();
+        }
+
+        int request() throws IOException {
+            out.write(REQUEST);
+            out.flush();
+            int length = readHead();
+            int read = 0;
+            while (read < length) {
+                int n = in.read(body, 0, Math.min(body.length, length - read));
+                if (n < 0) {
+                    throw new EOFException("Connection closed in the body");
+                }
+                read += n;
+            }
+            if (closing) {
+                socket.close();
+                connect();
+            }
+            return length;
+        }
+
+        /**
+         * Reads a response head and returns its Content-Length.
+         */
+        private int readHead() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int length = 0;
+            boolean first = true;
+            closing = false;
+            while (true) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new EOFException("Connection closed in the head");
+                }
+                if (b != '\n') {
+                    if (b != '\r') {
+                        line.append((char) b);
+                    }
+                    continue;
+                }
+                if (line.length() == 0) {
+                    return length;
+                }
+                String text = line.toString();
+                if (first && !text.startsWith("HTTP/1.1 200")) {
+                    throw new IOException("Unexpected response: " + text);
+                }
+                first = false;
+                if (text.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                    length = Integer.parseInt(text.substring(15).trim());
+                } else if (text.equalsIgnoreCase("Connection: close")) {
+                    closing = true;
+                }
+                line.setLength(0);
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int connections1(Connection connection) throws IOException {
+        return connection.request();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public int connections16(Connection connection) throws IOException {
+        return connection.request();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public int connections64(Connection connection) throws IOException {
+        return connection.request();
+    }
+
+    /**
+     * Runs the loopback benchmarks with allocation profiling.
+     *
+     * @param args unused
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(LoopbackBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
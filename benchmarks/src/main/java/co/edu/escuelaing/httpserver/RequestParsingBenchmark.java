@@ -0,0 +1,107 @@
+package co.edu.escuelaing.httpserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of request heads: a bare request line, a typical browser request
+ * with a dozen headers, reading query parameters from a parsed request, and
+ * parsing a request with several numeric parameters.
+ *
+ * @author sergio.bejarano-r
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-DACCESS_LOG=off")
+public class RequestParsingBenchmark {
+
+    private static final byte[] REQUEST_LINE = ascii("GET /app/square?n=7 HTTP/1.1\r\n\r\n");
+
+    private static final byte[] PARAMETERS = ascii("GET /app/range?from=10&to=99999&step=3&name=Bench HTTP/1.1\r\n\r\n");
+
+    private static final byte[] BROWSER_REQUEST = ascii("GET /app/greeting?name=Bench HTTP/1.1\r\n"
+            + "Host: localhost:35000\r\n"
+            + "Connection: keep-alive\r\n"
+            + "sec-ch-ua: \"Chromium\";v=\"128\", \"Not;A=Brand\";v=\"24\"\r\n"
+            + "sec-ch-ua-mobile: ?0\r\n"
+            + "sec-ch-ua-platform: \"Linux\"\r\n"
+            + "Upgrade-Insecure-Requests: 1\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko)"
+            + " Chrome/128.0.0.0 Safari/537.36\r\n"
+            + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8\r\n"
+            + "Sec-Fetch-Site: none\r\n"
+            + "Sec-Fetch-Mode: navigate\r\n"
+            + "Sec-Fetch-Dest: document\r\n"
+            + "Accept-Encoding: gzip, deflate, br, zstd\r\n"
+            + "Accept-Language: es-CO,es;q=0.9,en;q=0.8\r\n\r\n");
+
+    private final HttpRequestParser parser = new HttpRequestParser();
+    private HttpRequest query;
+
+    @Setup
+    public void setup() throws Exception {
+        HttpRequestParser queryParser = new HttpRequestParser();
+        byte[] head = ascii("GET /app/search?page=2&sort=desc&name=Bench&lang=es HTTP/1.1\r\n\r\n");
+        queryParser.feed(head, 0, head.length);
+        queryParser.parse();
+        query = queryParser.request();
+    }
+
+    @Benchmark
+    public String requestLine() throws Exception {
+        parser.feed(REQUEST_LINE, 0, REQUEST_LINE.length);
+        parser.parse();
+        String path = parser.request().getPath();
+        parser.next();
+        return path;
+    }
+
+    @Benchmark
+    public String browserHeaders() throws Exception {
+        parser.feed(BROWSER_REQUEST, 0, BROWSER_REQUEST.length);
+        parser.parse();
+        HttpRequest request = parser.request();
+        String host = request.getHeader("Host");
+        boolean keepAlive = HttpServer.isKeepAlive(request);
+        parser.next();
+        return keepAlive ? host : null;
+    }
+
+    @Benchmark
+    public String getValue() {
+        return query.getValue("name");
+    }
+
+    @Benchmark
+    public String getParameter() {
+        return query.getParameter("name");
+    }
+
+    @Benchmark
+    public long typedParameters() throws Exception {
+        parser.feed(PARAMETERS, 0, PARAMETERS.length);
+        parser.parse();
+        HttpRequest request = parser.request();
+        long sum = request.getLongParameter("from", 0) + request.getLongParameter("to", 0)
+                + request.getIntParameter("step", 1);
+        parser.next();
+        return sum;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
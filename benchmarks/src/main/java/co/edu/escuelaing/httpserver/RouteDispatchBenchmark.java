@@ -0,0 +1,60 @@
+package co.edu.escuelaing.httpserver;
+
+import co.edu.escuelaing.microspringboot.annotations.RequestParam;
+import co.edu.escuelaing.microspringboot.examples.GreetingController;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the original reflective dispatch (annotation lookup plus
+ * Method.invoke on every request) with the routes compiled at registration.
+ *
+ * @author sergio.bejarano-r
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteDispatchBenchmark {
+
+    private HttpRequest request;
+    private Method method;
+    private Route route;
+
+    @Setup
+    public void setup() throws Exception {
+        request = new HttpRequest(URI.create("/app/greeting?name=Bench"));
+        method = GreetingController.class.getMethod("greeting", String.class);
+        route = Route.compile("/greeting", method);
+    }
+
+    @Benchmark
+    public Object reflective() throws Exception {
+        RequestParam rp = (RequestParam) method.getParameterAnnotations()[0][0];
+        String[] argValues;
+        if (request.getQuery() == null) {
+            argValues = new String[] { rp.defaultValue() };
+        } else {
+            argValues = new String[] { request.getValue(rp.value()) };
+        }
+        return method.invoke(null, (Object[]) argValues);
+    }
+
+    @Benchmark
+    public Object compiled() throws Exception {
+        return route.invoke(request);
+    }
+}
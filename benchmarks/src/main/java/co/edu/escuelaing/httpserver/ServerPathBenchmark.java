@@ -0,0 +1,97 @@
+package co.edu.escuelaing.httpserver;
+
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The steps between a parsed request and the bytes of its response: route
+ * lookup, controller dispatch, building a response, and serving a cached
+ * static file. Responses are written to a stream that discards them.
+ * <p>
+ * The static file comes from the webroot on disk, so run it with
+ * {@code target/classes} ahead of the benchmark jar on the classpath.
+ *
+ * @author sergio.bejarano-r
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-DACCESS_LOG=off")
+public class ServerPathBenchmark {
+
+    private final OutputStream discard = OutputStream.nullOutputStream();
+    private final RouteMatch match = new RouteMatch();
+    private Router router;
+    private HttpRequest square;
+    private HttpRequest greeting;
+    private HttpRequest index;
+
+    @Setup
+    public void setup() throws Exception {
+        HttpServer.loadServices();
+        router = HttpServer.router;
+        square = new HttpRequest(URI.create("/app/square?n=7"));
+        greeting = new HttpRequest(URI.create("/app/greeting?name=Bench"));
+        index = new HttpRequest(URI.create("/index.html"));
+        if (HttpServer.findStaticFile("/index.html") == null) {
+            throw new IllegalStateException("webroot/index.html is not on the classpath as a file;"
+                    + " put target/classes ahead of the benchmark jar");
+        }
+    }
+
+    @Benchmark
+    public RouteMatch routeStatic() {
+        return router.find("GET", "/app/square", 4, match);
+    }
+
+    @Benchmark
+    public RouteMatch routeVariable() {
+        return router.find("GET", "/app/factors/1234567", 4, match);
+    }
+
+    @Benchmark
+    public RouteMatch routeMiss() {
+        return router.find("GET", "/app/unknown/path", 4, match);
+    }
+
+    @Benchmark
+    public HttpResponse invokeService() {
+        return HttpServer.invokeService(square);
+    }
+
+    @Benchmark
+    public HttpResponse invokeServiceString() {
+        return HttpServer.invokeService(greeting);
+    }
+
+    @Benchmark
+    public String buildResponse() {
+        HttpResponse response = new HttpResponse();
+        response.setHeader("Connection", "keep-alive");
+        response.setBody("El cuadrado de 7 es 49");
+        return response.buildResponse();
+    }
+
+    @Benchmark
+    public int serveStaticFile() throws Exception {
+        return HttpServer.serveStaticFile(index, HttpServer.findStaticFile("/index.html"), discard, true);
+    }
+
+    @Benchmark
+    public void handleRequest() throws Exception {
+        HttpServer.handleRequest(square, discard, true);
+    }
+}
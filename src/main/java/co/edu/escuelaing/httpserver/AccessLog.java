@@ -0,0 +1,267 @@
+package co.edu.escuelaing.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Access log with one line per request. Worker threads only copy the fields
+ * of the request into a preallocated slot of a bounded lock-free ring buffer;
+ * a background thread formats the waiting records in batches and writes each
+ * batch with a single write and flush. When the ring is full a record is
+ * either dropped and counted, or the worker waits for a free slot, as set by
+ * ACCESS_LOG_OVERFLOW.
+ * <p>
+ * A line reads {@code 2026-01-01T00:00:00.123Z GET "/app/square" 200 512 340us}:
+ * time, method, path, status, bytes sent (- when unknown) and latency.
+ *
+ * @author sergio.bejarano-r
+ */
+final class AccessLog {
+
+    private static final long DRAIN_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long BLOCKED_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final Writer out;
+    private final Record[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final boolean block;
+    private final int sampleEvery;
+    private final StringBuilder batch = new StringBuilder(16 * 1024);
+    private long head;
+    private volatile boolean running = true;
+    private Thread drainer;
+
+    /**
+     * Creates a log. Nothing is written until {@link #start()} is called or
+     * the records are drained explicitly.
+     *
+     * @param out         the destination of the lines
+     * @param capacity    the number of records the ring holds, rounded up to a
+     *                    power of two
+     * @param block       true to wait for room when the ring is full, false to
+     *                    drop the record
+     * @param sampleEvery log one request out of this many
+     */
+    AccessLog(Writer out, int capacity, boolean block, int sampleEvery) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.out = out;
+        this.slots = new Record[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Record();
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.block = block;
+        this.sampleEvery = Math.max(1, sampleEvery);
+    }
+
+    /**
+     * Creates the log described by ACCESS_LOG (stdout, off or a file path),
+     * ACCESS_LOG_BUFFER, ACCESS_LOG_OVERFLOW (drop or block) and
+     * ACCESS_LOG_SAMPLE, and starts its writer thread.
+     *
+     * @return the log, or null if access logging is off
+     */
+    static AccessLog fromConfig() {
+        String target = ServerConfig.getString("ACCESS_LOG", "stdout");
+        if (target.isEmpty() || "off".equalsIgnoreCase(target)) {
+            return null;
+        }
+        Writer out;
+        if ("stdout".equalsIgnoreCase(target)) {
+            out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        } else {
+            try {
+                out = Files.newBufferedWriter(Paths.get(target), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                System.err.println("Could not open the access log " + target + ", using stdout: " + e.getMessage());
+                out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+            }
+        }
+        String overflow = ServerConfig.getString("ACCESS_LOG_OVERFLOW", "drop");
+        if (!"drop".equalsIgnoreCase(overflow) && !"block".equalsIgnoreCase(overflow)) {
+            System.err.println("Invalid ACCESS_LOG_OVERFLOW setting, using default drop");
+        }
+        AccessLog log = new AccessLog(out, ServerConfig.getInt("ACCESS_LOG_BUFFER", 8192),
+                "block".equalsIgnoreCase(overflow), ServerConfig.getInt("ACCESS_LOG_SAMPLE", 1));
+        log.start();
+        return log;
+    }
+
+    /**
+     * Starts the thread that writes the records.
+     */
+    void start() {
+        drainer = new Thread(this::run, "access-log");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Records a served request.
+     *
+     * @param method       the request method
+     * @param path         the decoded request path
+     * @param status       the status code sent
+     * @param bytes        the bytes sent, or -1 if unknown
+     * @param latencyNanos the time taken to serve the request
+     */
+    void log(String method, String path, int status, long bytes, long latencyNanos) {
+        if (sampleEvery > 1 && ThreadLocalRandom.current().nextInt(sampleEvery) != 0) {
+            return;
+        }
+        long pos = claim();
+        if (pos < 0) {
+            ServerMetrics.accessLogDropped();
+            return;
+        }
+        int index = (int) (pos & mask);
+        Record r = slots[index];
+        r.time = System.currentTimeMillis();
+        r.method = method;
+        r.path = path;
+        r.status = status;
+        r.bytes = bytes;
+        r.latencyNanos = latencyNanos;
+        sequences.lazySet(index, pos + 1);
+    }
+
+    /**
+     * Claims the next free slot.
+     *
+     * @return its position, or -1 if the ring is full and records are dropped
+     */
+    private long claim() {
+        long pos = tail.get();
+        while (true) {
+            long available = sequences.get((int) (pos & mask)) - pos;
+            if (available == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    return pos;
+                }
+                pos = tail.get();
+            } else if (available < 0) {
+                if (!block || !running) {
+                    return -1;
+                }
+                LockSupport.parkNanos(BLOCKED_WAIT_NANOS);
+                pos = tail.get();
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Formats the records waiting in the ring and writes them with a single
+     * write. Only called by one thread at a time.
+     *
+     * @return the number of records written
+     */
+    int drain() throws IOException {
+        int n = 0;
+        batch.setLength(0);
+        while (true) {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+            Record r = slots[index];
+            format(r, batch);
+            r.method = null;
+            r.path = null;
+            sequences.lazySet(index, head + slots.length);
+            head++;
+            n++;
+        }
+        if (n > 0) {
+            out.append(batch);
+            out.flush();
+        }
+        return n;
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                if (drain() == 0) {
+                    LockSupport.parkNanos(DRAIN_INTERVAL_NANOS);
+                }
+            } catch (IOException e) {
+                System.err.println("Access log write failed: " + e.getMessage());
+                LockSupport.parkNanos(DRAIN_INTERVAL_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Stops the writer thread and writes the records still waiting.
+     */
+    void close() {
+        running = false;
+        if (drainer != null) {
+            LockSupport.unpark(drainer);
+            try {
+                drainer.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            drain();
+        } catch (IOException e) {
+            System.err.println("Access log write failed: " + e.getMessage());
+        }
+    }
+
+    static void format(Record r, StringBuilder sb) {
+        sb.append(Instant.ofEpochMilli(r.time)).append(' ').append(r.method).append(" \"");
+        String path = r.path;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20 || c == 0x7f) {
+                // Decoded control characters could forge log lines
+                sb.append(String.format("\\x%02x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append("\" ").append(r.status).append(' ');
+        if (r.bytes < 0) {
+            sb.append('-');
+        } else {
+            sb.append(r.bytes);
+        }
+        sb.append(' ').append(r.latencyNanos / 1000).append("us\n");
+    }
+
+    /**
+     * A slot of the ring, reused for every record that passes through it.
+     */
+    static final class Record {
+
+        long time;
+        String method;
+        String path;
+        int status;
+        long bytes;
+        long latencyNanos;
+    }
+}
@@ -0,0 +1,266 @@
+package co.edu.escuelaing.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission control in front of the worker pool. Work is shed with a fast
+ * {@code 503 Service Unavailable} and a {@code Retry-After} header, instead
+ * of queueing without bound, when:
+ * <ul>
+ * <li>MAX_CONNECTIONS connections are already open;</li>
+ * <li>the tasks admitted and not yet finished (connections on the blocking
+ * transport, requests on the nio one) reach the concurrency limit, which
+ * bounds the worker queue whatever the executor;</li>
+ * <li>a task waited in the queue longer than ADMISSION_QUEUE_TIMEOUT_MS, so
+ * its client has probably given up.</li>
+ * </ul>
+ * The concurrency limit adapts to the measured queue wait, AIMD style: it
+ * grows by one every {@code limit} tasks that start within
+ * ADMISSION_TARGET_WAIT_MS, and shrinks by a tenth, at most once per target
+ * interval, when tasks wait longer. It stays between ADMISSION_MIN_LIMIT,
+ * by default the threads of the worker pool, and ADMISSION_MAX_LIMIT.
+ *
+ * @author sergio.bejarano-r
+ */
+final class AdmissionControl {
+
+    /**
+     * Fixed-point scale of the concurrency limit, so it can grow by a
+     * fraction of a task with a plain compare-and-set.
+     */
+    private static final long SCALE = 1 << 16;
+
+    private final int maxConnections;
+    private volatile long minLimit;
+    private boolean minFromPool;
+    private final long maxLimit;
+    private final long targetWaitNanos;
+    private final long queueTimeoutNanos;
+    private final byte[] overloadedHead;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong scaledLimit;
+    private final AtomicLong lastDecrease = new AtomicLong(System.nanoTime());
+
+    private final LongAdder shedConnections = new LongAdder();
+    private final LongAdder shedLimit = new LongAdder();
+    private final LongAdder shedStale = new LongAdder();
+
+    /**
+     * Creates an admission controller.
+     *
+     * @param maxConnections    the maximum number of open connections
+     * @param minLimit          the lowest concurrency limit
+     * @param maxLimit          the highest concurrency limit, also the initial
+     *                          one
+     * @param targetWaitMillis  the queue wait above which the limit shrinks
+     * @param queueTimeoutMillis the queue wait above which a task is shed
+     * @param retryAfterSeconds the value of the Retry-After header
+     */
+    AdmissionControl(int maxConnections, int minLimit, int maxLimit, long targetWaitMillis,
+            long queueTimeoutMillis, int retryAfterSeconds) {
+        this.maxConnections = Math.max(1, maxConnections);
+        this.maxLimit = Math.max(1, maxLimit);
+        this.minLimit = Math.max(1, Math.min(minLimit, this.maxLimit));
+        this.targetWaitNanos = TimeUnit.MILLISECONDS.toNanos(targetWaitMillis);
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+        this.scaledLimit = new AtomicLong(this.maxLimit * SCALE);
+        this.overloadedHead = ("HTTP/1.1 503 Service Unavailable\r\n"
+                + "Retry-After: " + retryAfterSeconds + "\r\n"
+                + "Content-Length: 0\r\n"
+                + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Creates the controller described by MAX_CONNECTIONS,
+     * ADMISSION_MIN_LIMIT, ADMISSION_MAX_LIMIT, ADMISSION_TARGET_WAIT_MS,
+     * ADMISSION_QUEUE_TIMEOUT_MS and RETRY_AFTER_SECONDS. Without
+     * ADMISSION_MIN_LIMIT the lowest limit is set by
+     * {@link #setPoolSize(int)} once the server has created its worker pool.
+     *
+     * @return the admission controller
+     */
+    static AdmissionControl fromConfig() {
+        int minLimit = ServerConfig.getInt("ADMISSION_MIN_LIMIT", 0);
+        AdmissionControl control = new AdmissionControl(ServerConfig.getInt("MAX_CONNECTIONS", 10_000),
+                minLimit, ServerConfig.getInt("ADMISSION_MAX_LIMIT", 1000),
+                ServerConfig.getLong("ADMISSION_TARGET_WAIT_MS", 50),
+                ServerConfig.getLong("ADMISSION_QUEUE_TIMEOUT_MS", 1000),
+                ServerConfig.getInt("RETRY_AFTER_SECONDS", 1));
+        control.minFromPool = minLimit <= 0;
+        return control;
+    }
+
+    /**
+     * Sets the lowest concurrency limit to the threads of the worker pool,
+     * unless ADMISSION_MIN_LIMIT sets it, so the limit never shrinks below
+     * the work the pool runs at once while its threads sit idle.
+     *
+     * @param threads the number of threads of the worker pool
+     */
+    void setPoolSize(int threads) {
+        if (minFromPool) {
+            minLimit = Math.max(1, Math.min(threads, maxLimit));
+            scaledLimit.accumulateAndGet(minLimit * SCALE, Math::max);
+        }
+    }
+
+    /**
+     * Counts a new connection.
+     *
+     * @return false if MAX_CONNECTIONS are open, in which case the connection
+     *         is not counted and should be answered with 503
+     */
+    boolean openConnection() {
+        if (connections.incrementAndGet() > maxConnections) {
+            connections.decrementAndGet();
+            shedConnections.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Counts a closed connection that {@link #openConnection()} accepted.
+     */
+    void closeConnection() {
+        connections.decrementAndGet();
+    }
+
+    /**
+     * Admits a task into the worker queue.
+     *
+     * @return the admission time, to pass to {@link #begin(long)}, or -1 if
+     *         the concurrency limit is reached and the task should be
+     *         answered with 503
+     */
+    long admit() {
+        if (outstanding.incrementAndGet() > getLimit()) {
+            outstanding.decrementAndGet();
+            shedLimit.increment();
+            return -1;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Called when an admitted task starts running. Its queue wait adjusts the
+     * concurrency limit.
+     *
+     * @param admittedAt the time returned by {@link #admit()}
+     * @return false if the task waited too long and should be answered with
+     *         503; {@link #done()} must be called either way
+     */
+    boolean begin(long admittedAt) {
+        long now = System.nanoTime();
+        long wait = now - admittedAt;
+        adapt(wait, now);
+        if (wait > queueTimeoutNanos) {
+            shedStale.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Releases the slot of a finished task.
+     */
+    void done() {
+        outstanding.decrementAndGet();
+    }
+
+    void adapt(long waitNanos, long now) {
+        if (waitNanos <= targetWaitNanos) {
+            long scaled;
+            do {
+                scaled = scaledLimit.get();
+                if (scaled >= maxLimit * SCALE) {
+                    return;
+                }
+            } while (!scaledLimit.compareAndSet(scaled,
+                    Math.min(maxLimit * SCALE, scaled + (SCALE * SCALE + scaled - 1) / scaled)));
+            return;
+        }
+        long last = lastDecrease.get();
+        if (now - last < targetWaitNanos || !lastDecrease.compareAndSet(last, now)) {
+            // One decrease per interval: a burst of slow tasks reports the
+            // same congestion
+            return;
+        }
+        long scaled;
+        do {
+            scaled = scaledLimit.get();
+        } while (!scaledLimit.compareAndSet(scaled, Math.max(minLimit * SCALE, scaled * 9 / 10)));
+    }
+
+    /**
+     * Writes the 503 response that sheds a connection or request.
+     *
+     * @param out the connection output
+     */
+    void writeOverloaded(OutputStream out) throws IOException {
+        ServerMetrics.status(503);
+        ResponseEncoder.write(overloadedHead, null, 0, 0, out);
+    }
+
+    /**
+     * Encodes the 503 response that sheds a connection or request.
+     *
+     * @return the response bytes
+     */
+    ByteBuffer overloaded() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        try {
+            writeOverloaded(out);
+        } catch (IOException e) {
+            // Cannot happen with an in-memory stream
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    /**
+     * Gets the current concurrency limit.
+     *
+     * @return the limit
+     */
+    int getLimit() {
+        return (int) (scaledLimit.get() / SCALE);
+    }
+
+    /**
+     * Gets the number of tasks admitted and not finished.
+     *
+     * @return the outstanding task count
+     */
+    int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * Renders the limit, the outstanding tasks and the shed counters.
+     *
+     * @param out the exposition being built
+     */
+    void writePrometheus(StringBuilder out) {
+        out.append("# HELP http_admission_limit Adaptive limit of tasks admitted into the worker pool.\n")
+                .append("# TYPE http_admission_limit gauge\n")
+                .append("http_admission_limit ").append(getLimit()).append('\n')
+                .append("# HELP http_admission_outstanding Tasks admitted and not finished.\n")
+                .append("# TYPE http_admission_outstanding gauge\n")
+                .append("http_admission_outstanding ").append(getOutstanding()).append('\n')
+                .append("# HELP http_shed_total Connections and requests answered with 503, by reason.\n")
+                .append("# TYPE http_shed_total counter\n")
+                .append("http_shed_total{reason=\"connections\"} ").append(shedConnections.sum()).append('\n')
+                .append("http_shed_total{reason=\"limit\"} ").append(shedLimit.sum()).append('\n')
+                .append("http_shed_total{reason=\"stale\"} ").append(shedStale.sum()).append('\n');
+    }
+}
@@ -0,0 +1,275 @@
+package co.edu.escuelaing.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Incremental decoder of a request body framed by Content-Length or by the
+ * chunked transfer coding. Bytes are fed as they arrive, in pieces of any
+ * size, so it backs both the blocking and the non-blocking transports. The
+ * decoded bytes are collected in memory up to BODY_MEMORY_BYTES and written
+ * to a temporary file beyond that; bodies over MAX_BODY_BYTES are refused
+ * with 413 as soon as their size is known. An event loop checks
+ * {@link #writesToDisk(long)} and leaves the file work to a worker.
+ *
+ * @author sergio.bejarano-r
+ */
+final class BodyDecoder {
+
+    /**
+     * Largest request body accepted, in bytes, after removing the chunked
+     * framing.
+     */
+    static final long MAX_BODY_BYTES = ServerConfig.getLong("MAX_BODY_BYTES", 10L * 1024 * 1024);
+
+    /**
+     * Largest request body kept in memory; larger ones go to a temporary file.
+     */
+    static final int BODY_MEMORY_BYTES = ServerConfig.getInt("BODY_MEMORY_BYTES", 64 * 1024);
+
+    private static final int LENGTH = 0;
+    private static final int CHUNK_SIZE = 1;
+    private static final int CHUNK_EXTENSION = 2;
+    private static final int CHUNK_SIZE_LF = 3;
+    private static final int CHUNK_DATA = 4;
+    private static final int CHUNK_DATA_CR = 5;
+    private static final int CHUNK_DATA_LF = 6;
+    private static final int TRAILER_LINE_START = 7;
+    private static final int TRAILER_LINE = 8;
+    private static final int DONE = 9;
+
+    private final long maxBytes;
+    private final int memoryBytes;
+    private int state;
+    private long remaining;
+    private int sizeDigits;
+
+    private byte[] memory = new byte[0];
+    private long length;
+    private Path file;
+    private OutputStream fileOut;
+
+    /**
+     * Creates a decoder limited by MAX_BODY_BYTES and BODY_MEMORY_BYTES.
+     *
+     * @param contentLength the declared length, ignored when chunked
+     * @param chunked       whether the body uses the chunked transfer coding
+     * @throws HttpParseException with status 413 if the declared length is
+     *                            over the limit
+     */
+    BodyDecoder(long contentLength, boolean chunked) throws HttpParseException {
+        this(contentLength, chunked, MAX_BODY_BYTES, BODY_MEMORY_BYTES);
+    }
+
+    /**
+     * Creates a decoder.
+     *
+     * @param contentLength the declared length, ignored when chunked
+     * @param chunked       whether the body uses the chunked transfer coding
+     * @param maxBytes      the largest body accepted
+     * @param memoryBytes   the largest body kept in memory
+     * @throws HttpParseException with status 413 if the declared length is
+     *                            over the limit
+     */
+    BodyDecoder(long contentLength, boolean chunked, long maxBytes, int memoryBytes) throws HttpParseException {
+        this.maxBytes = maxBytes;
+        this.memoryBytes = memoryBytes;
+        if (chunked) {
+            state = CHUNK_SIZE;
+        } else {
+            checkLimit(contentLength);
+            state = contentLength == 0 ? DONE : LENGTH;
+            remaining = contentLength;
+            if (contentLength <= memoryBytes) {
+                memory = new byte[(int) contentLength];
+            }
+        }
+    }
+
+    /**
+     * Decodes the bytes of the body found in a buffer.
+     *
+     * @param b   the buffer
+     * @param off the first byte to decode
+     * @param len the number of bytes available
+     * @return the number of bytes that belong to the body; the rest start the
+     *         next request
+     * @throws HttpParseException with status 400 for broken chunked framing or
+     *                            413 for a body over the limit
+     * @throws IOException        if the temporary file cannot be written
+     */
+    int feed(byte[] b, int off, int len) throws IOException {
+        int i = off;
+        int end = off + len;
+        while (i < end && state != DONE) {
+            if (state == LENGTH || state == CHUNK_DATA) {
+                int n = (int) Math.min(remaining, end - i);
+                append(b, i, n);
+                i += n;
+                remaining -= n;
+                if (remaining == 0) {
+                    state = state == LENGTH ? DONE : CHUNK_DATA_CR;
+                }
+                continue;
+            }
+            byte c = b[i++];
+            switch (state) {
+                case CHUNK_SIZE:
+                    int digit = Character.digit(c, 16);
+                    if (digit >= 0) {
+                        if (++sizeDigits > 15) {
+                            throw new HttpParseException(413, "Payload Too Large");
+                        }
+                        remaining = remaining * 16 + digit;
+                    } else if (sizeDigits == 0) {
+                        throw new HttpParseException(400, "Bad Request");
+                    } else if (c == ';' || c == ' ' || c == '\t') {
+                        state = CHUNK_EXTENSION;
+                    } else if (c == '\r') {
+                        state = CHUNK_SIZE_LF;
+                    } else if (c == '\n') {
+                        endSizeLine();
+                    } else {
+                        throw new HttpParseException(400, "Bad Request");
+                    }
+                    break;
+                case CHUNK_EXTENSION:
+                    // Chunk extensions are read and ignored
+                    if (c == '\n') {
+                        endSizeLine();
+                    }
+                    break;
+                case CHUNK_SIZE_LF:
+                    if (c != '\n') {
+                        throw new HttpParseException(400, "Bad Request");
+                    }
+                    endSizeLine();
+                    break;
+                case CHUNK_DATA_CR:
+                    // A bare LF after the data of a chunk is tolerated
+                    if (c == '\r') {
+                        state = CHUNK_DATA_LF;
+                    } else if (c == '\n') {
+                        state = CHUNK_SIZE;
+                    } else {
+                        throw new HttpParseException(400, "Bad Request");
+                    }
+                    break;
+                case CHUNK_DATA_LF:
+                    if (c != '\n') {
+                        throw new HttpParseException(400, "Bad Request");
+                    }
+                    state = CHUNK_SIZE;
+                    break;
+                case TRAILER_LINE_START:
+                    if (c == '\n') {
+                        state = DONE;
+                    } else if (c != '\r') {
+                        state = TRAILER_LINE;
+                    }
+                    break;
+                default:
+                    // Trailer fields are read and ignored
+                    if (c == '\n') {
+                        state = TRAILER_LINE_START;
+                    }
+                    break;
+            }
+        }
+        return i - off;
+    }
+
+    /**
+     * Tells whether feeding more bytes may touch the temporary file, work an
+     * event loop leaves to another thread.
+     *
+     * @param more the number of bytes about to be fed, framing included
+     * @return true if the body is, or would then be, spilled to disk
+     */
+    boolean writesToDisk(long more) {
+        return fileOut != null || length + more > memoryBytes;
+    }
+
+    /**
+     * Tells whether the whole body has been decoded.
+     *
+     * @return true once the last byte, or the last chunk, was fed
+     */
+    boolean isComplete() {
+        return state == DONE;
+    }
+
+    /**
+     * Hands the decoded body over. The decoder must be complete.
+     *
+     * @return the body, in memory or in a temporary file
+     * @throws IOException if the temporary file cannot be closed
+     */
+    HttpRequestBody finish() throws IOException {
+        if (fileOut != null) {
+            fileOut.close();
+            fileOut = null;
+            Path spilled = file;
+            file = null;
+            return new HttpRequestBody(spilled, length);
+        }
+        return length == 0 ? HttpRequestBody.EMPTY : new HttpRequestBody(memory, (int) length);
+    }
+
+    /**
+     * Drops a body that will not be used, deleting its temporary file.
+     */
+    void discard() {
+        if (fileOut != null) {
+            try {
+                fileOut.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            fileOut = null;
+        }
+        if (file != null) {
+            new HttpRequestBody(file, length).release();
+            file = null;
+        }
+    }
+
+    private void endSizeLine() throws HttpParseException {
+        sizeDigits = 0;
+        if (remaining == 0) {
+            state = TRAILER_LINE_START;
+        } else {
+            checkLimit(length + remaining);
+            state = CHUNK_DATA;
+        }
+    }
+
+    private void checkLimit(long total) throws HttpParseException {
+        if (total > maxBytes) {
+            throw new HttpParseException(413, "Payload Too Large");
+        }
+    }
+
+    private void append(byte[] b, int off, int len) throws IOException {
+        if (fileOut == null && length + len > memoryBytes) {
+            file = Files.createTempFile("request-body-", ".tmp");
+            fileOut = Files.newOutputStream(file);
+            fileOut.write(memory, 0, (int) length);
+            memory = null;
+        }
+        if (fileOut != null) {
+            fileOut.write(b, off, len);
+        } else {
+            if (length + len > memory.length) {
+                long size = Math.min(memoryBytes, Math.max(length + len, memory.length * 2L + 256));
+                byte[] bigger = new byte[(int) size];
+                System.arraycopy(memory, 0, bigger, 0, (int) length);
+                memory = bigger;
+            }
+            System.arraycopy(b, off, memory, (int) length, len);
+        }
+        length += len;
+    }
+}
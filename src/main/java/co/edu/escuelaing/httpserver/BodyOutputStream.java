@@ -0,0 +1,67 @@
+package co.edu.escuelaing.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Sink handed to a {@link StreamingBody}. Writes are collected in a fixed
+ * buffer; when it fills, or the body flushes, its contents go out as one
+ * write followed by a flush, so they reach the socket and the producer is
+ * held back while the client is not reading. Closing it only flushes: the
+ * server ends the body.
+ *
+ * @author sergio.bejarano-r
+ */
+final class BodyOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final byte[] buf;
+    private int count;
+
+    /**
+     * Creates a sink.
+     *
+     * @param out        the framed connection output
+     * @param bufferSize the buffer size in bytes
+     */
+    BodyOutputStream(OutputStream out, int bufferSize) {
+        this.out = out;
+        this.buf = new byte[bufferSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buf.length) {
+            flush();
+        }
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len > buf.length - count) {
+            flush();
+        }
+        if (len >= buf.length) {
+            out.write(b, off, len);
+            out.flush();
+            return;
+        }
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (count > 0) {
+            out.write(buf, 0, count);
+            count = 0;
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+}
@@ -0,0 +1,71 @@
+package co.edu.escuelaing.httpserver;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of fixed-size byte buffers used to encode and queue responses, so
+ * serving a request does not allocate a fresh buffer each time. A buffer
+ * must not be touched after it is released.
+ *
+ * @author sergio.bejarano-r
+ */
+final class BufferPool {
+
+    /**
+     * Capacity of every pooled buffer.
+     */
+    static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Largest number of idle buffers kept.
+     */
+    static final int MAX_POOLED = ServerConfig.getInt("BUFFER_POOL_SIZE", 256);
+
+    private static final ConcurrentLinkedQueue<ByteBuffer> POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger IDLE = new AtomicInteger();
+
+    private BufferPool() {
+    }
+
+    /**
+     * Takes a cleared buffer from the pool, or allocates one if it is empty.
+     *
+     * @return a buffer of BUFFER_SIZE bytes backed by an array
+     */
+    static ByteBuffer acquire() {
+        ByteBuffer buffer = POOL.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocate(BUFFER_SIZE);
+        }
+        IDLE.decrementAndGet();
+        return buffer.clear();
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers that did not come from the pool,
+     * or that exceed MAX_POOLED, are left to the garbage collector.
+     *
+     * @param buffer the buffer
+     */
+    static void release(ByteBuffer buffer) {
+        if (buffer.capacity() != BUFFER_SIZE || !buffer.hasArray() || buffer.isReadOnly()) {
+            return;
+        }
+        if (IDLE.incrementAndGet() > MAX_POOLED) {
+            IDLE.decrementAndGet();
+            return;
+        }
+        POOL.offer(buffer);
+    }
+
+    /**
+     * Gets the number of idle buffers.
+     *
+     * @return the pool size
+     */
+    static int idle() {
+        return IDLE.get();
+    }
+}
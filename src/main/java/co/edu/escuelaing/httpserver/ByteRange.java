@@ -0,0 +1,80 @@
+package co.edu.escuelaing.httpserver;
+
+/**
+ * A single byte range of a Range request header, resolved against the length
+ * of the representation. Only one range is supported; requests for several
+ * ranges are answered with the full content, as RFC 9110 allows.
+ *
+ * @author sergio.bejarano-r
+ */
+final class ByteRange {
+
+    /**
+     * A syntactically valid range that starts beyond the end of the content.
+     */
+    static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+    final long start;
+    final long end;
+
+    private ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Gets the number of bytes in the range.
+     *
+     * @return the range length
+     */
+    long length() {
+        return end - start + 1;
+    }
+
+    /**
+     * Parses a Range header.
+     *
+     * @param header the header value, such as bytes=0-499
+     * @param length the length of the content
+     * @return the range, UNSATISFIABLE, or null if the header must be ignored
+     */
+    static ByteRange parse(String header, long length) {
+        if (header == null) {
+            return null;
+        }
+        String value = header.trim();
+        if (!value.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+        String spec = value.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0 || spec.indexOf(',') >= 0) {
+            return null;
+        }
+        String first = spec.substring(0, dash).trim();
+        String last = spec.substring(dash + 1).trim();
+        try {
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix < 0) {
+                    return null;
+                }
+                if (suffix == 0 || length == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new ByteRange(Math.max(0, length - suffix), length - 1);
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (start < 0 || end < start) {
+                return null;
+            }
+            if (start >= length) {
+                return UNSATISFIABLE;
+            }
+            return new ByteRange(start, Math.min(end, length - 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package co.edu.escuelaing.httpserver;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a body with the chunked transfer coding, so a response can be sent
+ * before its length is known. Every write becomes one chunk; closing the
+ * stream writes the last chunk but leaves the connection open.
+ *
+ * @author sergio.bejarano-r
+ */
+final class ChunkedOutputStream extends FilterOutputStream {
+
+    private static final byte[] CRLF = { '\r', '\n' };
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private boolean closed;
+
+    /**
+     * Creates a chunked stream.
+     *
+     * @param out the connection output
+     */
+    ChunkedOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return;
+        }
+        out.write(Integer.toHexString(len).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+        out.write(b, off, len);
+        out.write(CRLF);
+    }
+
+    /**
+     * Writes the last chunk. The underlying stream is flushed, not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            out.write(LAST_CHUNK);
+            out.flush();
+        }
+    }
+}
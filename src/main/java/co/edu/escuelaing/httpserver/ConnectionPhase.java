@@ -0,0 +1,62 @@
+package co.edu.escuelaing.httpserver;
+
+import java.util.Locale;
+
+/**
+ * What a connection is waiting for, each with its own time limit. A
+ * connection that exceeds the limit of its phase is closed.
+ *
+ * @author sergio.bejarano-r
+ */
+enum ConnectionPhase {
+
+    /**
+     * Between requests of a persistent connection, until the first byte of
+     * the next request. KEEP_ALIVE_TIMEOUT_MS.
+     */
+    IDLE("KEEP_ALIVE_TIMEOUT_MS", 5000),
+
+    /**
+     * From the first byte of a request, or the accept of a new connection,
+     * until its head is complete. The limit is not extended while bytes
+     * trickle in, so a client cannot hold the connection by sending a header
+     * line every few seconds. HEADER_TIMEOUT_MS.
+     */
+    HEADER("HEADER_TIMEOUT_MS", 10000),
+
+    /**
+     * Reading a request body; the limit restarts whenever bytes arrive.
+     * BODY_TIMEOUT_MS.
+     */
+    BODY("BODY_TIMEOUT_MS", 30000),
+
+    /**
+     * Writing a response the client is not reading; the limit restarts
+     * whenever the socket takes bytes. WRITE_TIMEOUT_MS.
+     */
+    WRITE("WRITE_TIMEOUT_MS", 30000);
+
+    private final long timeoutMillis;
+
+    ConnectionPhase(String setting, long defaultMillis) {
+        this.timeoutMillis = Math.max(1, ServerConfig.getLong(setting, defaultMillis));
+    }
+
+    /**
+     * Gets the time limit of the phase.
+     *
+     * @return the limit in milliseconds
+     */
+    long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Gets the name used in metrics.
+     *
+     * @return the lower-case name
+     */
+    String label() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,142 @@
+package co.edu.escuelaing.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content-coding negotiation and compression with the JDK's
+ * {@code java.util.zip}. The supported codings are gzip and deflate (zlib
+ * format, as HTTP defines it).
+ *
+ * @author sergio.bejarano-r
+ */
+final class ContentEncoding {
+
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private ContentEncoding() {
+    }
+
+    /**
+     * Chooses a coding from the Accept-Encoding header of a request. The
+     * coding with the highest quality wins and gzip is preferred on ties;
+     * codings with q=0 are refused.
+     *
+     * @param request the parsed request
+     * @return GZIP, DEFLATE, or null to send the content as is
+     */
+    static String negotiate(HttpRequest request) {
+        String header = request.getHeader("Accept-Encoding");
+        if (header == null) {
+            return null;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String item : header.split(",")) {
+            int semicolon = item.indexOf(';');
+            String coding = (semicolon < 0 ? item : item.substring(0, semicolon)).trim();
+            double q = semicolon < 0 ? 1 : quality(item.substring(semicolon + 1));
+            if (coding.equalsIgnoreCase(GZIP) || coding.equalsIgnoreCase("x-gzip")) {
+                gzip = Math.max(gzip, q);
+            } else if (coding.equalsIgnoreCase(DEFLATE)) {
+                deflate = Math.max(deflate, q);
+            } else if (coding.equals("*")) {
+                any = Math.max(any, q);
+            }
+        }
+        if (gzip < 0) {
+            gzip = Math.max(any, 0);
+        }
+        if (deflate < 0) {
+            deflate = Math.max(any, 0);
+        }
+        if (gzip <= 0 && deflate <= 0) {
+            return null;
+        }
+        return gzip >= deflate ? GZIP : DEFLATE;
+    }
+
+    private static double quality(String params) {
+        for (String param : params.split(";")) {
+            String p = param.trim();
+            if (p.regionMatches(true, 0, "q=", 0, 2)) {
+                try {
+                    return Double.parseDouble(p.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Tells whether a content type is worth compressing. Images other than
+     * SVG are already compressed.
+     *
+     * @param contentType the content type, possibly with parameters
+     * @return true for text, JavaScript, JSON, XML and SVG
+     */
+    static boolean isCompressible(String contentType) {
+        return contentType.startsWith("text/")
+                || contentType.startsWith("application/javascript")
+                || contentType.startsWith("application/json")
+                || contentType.startsWith("application/xml")
+                || contentType.startsWith("image/svg+xml");
+    }
+
+    /**
+     * Wraps a stream so everything written to it is compressed. Closing the
+     * returned stream finishes the compressed data and closes the wrapped
+     * stream.
+     *
+     * @param out      the stream receiving the compressed bytes
+     * @param encoding GZIP or DEFLATE
+     * @return the compressing stream
+     * @throws IOException if the gzip header cannot be written
+     */
+    static OutputStream wrap(OutputStream out, String encoding) throws IOException {
+        if (GZIP.equals(encoding)) {
+            return new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+        if (DEFLATE.equals(encoding)) {
+            return new DeflaterOutputStream(out, new Deflater(), BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        def.end();
+                    }
+                }
+            };
+        }
+        throw new IllegalArgumentException("Unsupported content coding: " + encoding);
+    }
+
+    /**
+     * Compresses a whole body.
+     *
+     * @param data     the bytes to compress
+     * @param encoding GZIP or DEFLATE
+     * @return the compressed bytes
+     */
+    static byte[] encode(byte[] data, String encoding) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 3));
+        try (OutputStream z = wrap(out, encoding)) {
+            z.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
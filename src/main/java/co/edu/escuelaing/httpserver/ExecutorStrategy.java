@@ -0,0 +1,129 @@
+package co.edu.escuelaing.httpserver;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Strategies for the pool that runs client connections (blocking transport)
+ * or requests (NIO transport). The strategy is selected with the EXECUTOR
+ * setting:
+ * <ul>
+ * <li>{@code fixed}: WORKER_THREADS platform threads with an unbounded
+ * queue, the original behavior.</li>
+ * <li>{@code elastic}: up to MAX_WORKER_THREADS platform threads that are
+ * created on demand and retired after WORKER_KEEP_ALIVE_SECONDS idle, in front
+ * of a queue bounded by WORKER_QUEUE_SIZE. Tasks beyond that are
+ * rejected.</li>
+ * <li>{@code virtual}: one virtual thread per task. Requires a JDK with
+ * virtual threads; older runtimes fall back to {@code elastic}.</li>
+ * </ul>
+ *
+ * @author sergio.bejarano-r
+ */
+public enum ExecutorStrategy {
+
+    FIXED {
+        @Override
+        public ExecutorService create() {
+            return Executors.newFixedThreadPool(threads());
+        }
+
+        @Override
+        public int threads() {
+            return ServerConfig.getInt("WORKER_THREADS", 10);
+        }
+    },
+
+    ELASTIC {
+        @Override
+        public ExecutorService create() {
+            int maxThreads = threads();
+            int queueSize = Math.max(1, ServerConfig.getInt("WORKER_QUEUE_SIZE", 1000));
+            long keepAlive = ServerConfig.getLong("WORKER_KEEP_ALIVE_SECONDS", 60);
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, keepAlive, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueSize), new NamedThreadFactory("worker-"),
+                    new ThreadPoolExecutor.AbortPolicy());
+            // Core threads time out too, so the pool grows up to maxThreads
+            // before queueing and shrinks back to zero when idle.
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+
+        @Override
+        public int threads() {
+            return Math.max(1, ServerConfig.getInt("MAX_WORKER_THREADS", 200));
+        }
+    },
+
+    VIRTUAL {
+        @Override
+        public ExecutorService create() {
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Virtual threads are not supported by this JDK, using the elastic executor");
+                return ELASTIC.create();
+            }
+        }
+
+        @Override
+        public int threads() {
+            // Virtual threads are not pooled; the cores bound the work
+            return Runtime.getRuntime().availableProcessors();
+        }
+    };
+
+    /**
+     * Creates a new executor following this strategy.
+     *
+     * @return the executor
+     */
+    public abstract ExecutorService create();
+
+    /**
+     * Gets the number of tasks the executor of this strategy runs at once.
+     *
+     * @return the number of worker threads
+     */
+    public abstract int threads();
+
+    /**
+     * Reads the strategy from the EXECUTOR setting.
+     *
+     * @return the configured strategy, FIXED by default
+     */
+    public static ExecutorStrategy fromConfig() {
+        String name = ServerConfig.getString("EXECUTOR", "fixed");
+        try {
+            return valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid EXECUTOR setting, using default fixed");
+            return FIXED;
+        }
+    }
+
+    /**
+     * Names the platform threads created by the elastic pool.
+     */
+    private static final class NamedThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, prefix + count.incrementAndGet());
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package co.edu.escuelaing.httpserver;
+
+import java.io.IOException;
+
+/**
+ * Signals a request that cannot be parsed. Carries the status code the
+ * server should answer with before closing the connection.
+ *
+ * @author sergio.bejarano-r
+ */
+public class HttpParseException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final String statusMessage;
+
+    /**
+     * Creates a parse error.
+     *
+     * @param statusCode    HTTP status code to answer with
+     * @param statusMessage HTTP status message to answer with
+     */
+    public HttpParseException(int statusCode, String statusMessage) {
+        super(statusCode + " " + statusMessage);
+        this.statusCode = statusCode;
+        this.statusMessage = statusMessage;
+    }
+
+    /**
+     * Gets the HTTP status code for this error.
+     *
+     * @return the status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Gets the HTTP status message for this error.
+     *
+     * @return the status message
+     */
+    public String getStatusMessage() {
+        return statusMessage;
+    }
+}
@@ -1,17 +1,245 @@
 package co.edu.escuelaing.httpserver;
 
+import java.io.ByteArrayOutputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
+ * A parsed HTTP request. Instances created by {@link HttpRequestParser} are
+ * views over the parser buffer: the method, path, query and header values are
+ * only decoded into Strings when they are asked for, and the view is valid
+ * until the parser moves on to the next request.
  *
  * @author sergio.bejarano-r
  */
 public class HttpRequest {
 
-    URI requri = null;
+    private static final byte[] GET = ascii("GET");
+    private static final byte[] POST = ascii("POST");
+    private static final byte[] HTTP_1_1 = ascii("HTTP/1.1");
+    private static final byte[] HTTP_1_0 = ascii("HTTP/1.0");
+
+    /**
+     * Ints per entry of the parameter index: name start and end, value start
+     * and end, and flags telling whether the name or value has escapes or
+     * non-ASCII bytes.
+     */
+    private static final int PARAM_FIELDS = 5;
+    private static final int NAME_ESCAPED = 1;
+    private static final int VALUE_ESCAPED = 2;
+
+    private byte[] buf;
+    private int base;
+    private int methodEnd;
+    private int targetStart;
+    private int targetEnd;
+    private int queryStart;
+    private int versionStart;
+    private int versionEnd;
+    private int[] headers;
+    private int headerCount;
+    private long contentLength;
+    private HttpRequestBody body = HttpRequestBody.EMPTY;
+
+    private final RouteMatch routeMatch = new RouteMatch();
+
+    private String method;
+    private String path;
+    private String query;
+    private boolean queryDecoded;
+    private int[] params = new int[4 * PARAM_FIELDS];
+    private int paramCount = -1;
+
+    HttpRequest() {
+    }
 
     HttpRequest(URI requri) {
-        this.requri = requri;
+        String target = requri.getRawPath() == null ? "/" : requri.getRawPath();
+        if (requri.getRawQuery() != null) {
+            target += "?" + requri.getRawQuery();
+        }
+        HttpRequestParser parser = new HttpRequestParser();
+        byte[] head = ("GET " + target + " HTTP/1.1\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        try {
+            parser.feed(head, 0, head.length);
+            parser.parse();
+        } catch (HttpParseException e) {
+            throw new IllegalArgumentException("Invalid request URI: " + requri, e);
+        }
+        HttpRequest parsed = parser.request();
+        reset(parsed.buf, parsed.base, parsed.methodEnd, parsed.targetStart, parsed.targetEnd, parsed.queryStart,
+                parsed.versionStart, parsed.versionEnd, parsed.headers, parsed.headerCount, parsed.contentLength);
+    }
+
+    /**
+     * Points this view at a new request. Offsets are relative to base.
+     */
+    void reset(byte[] buf, int base, int methodEnd, int targetStart, int targetEnd, int queryStart,
+            int versionStart, int versionEnd, int[] headers, int headerCount, long contentLength) {
+        this.buf = buf;
+        this.base = base;
+        this.methodEnd = methodEnd;
+        this.targetStart = targetStart;
+        this.targetEnd = targetEnd;
+        this.queryStart = queryStart;
+        this.versionStart = versionStart;
+        this.versionEnd = versionEnd;
+        this.headers = headers;
+        this.headerCount = headerCount;
+        this.contentLength = contentLength;
+        this.body = HttpRequestBody.EMPTY;
+        this.method = null;
+        this.path = null;
+        this.query = null;
+        this.queryDecoded = false;
+        this.paramCount = -1;
+    }
+
+    /**
+     * Gets the request method, such as GET.
+     *
+     * @return the method
+     */
+    public String getMethod() {
+        if (method == null) {
+            method = equalsIgnoreCase(buf, base, base + methodEnd, GET) ? "GET"
+                    : equalsIgnoreCase(buf, base, base + methodEnd, POST) ? "POST"
+                    : new String(buf, base, methodEnd, StandardCharsets.US_ASCII);
+        }
+        return method;
+    }
+
+    /**
+     * Gets the percent-decoded path of the request target.
+     *
+     * @return the path, without the query string
+     */
+    public String getPath() {
+        if (path == null) {
+            int from = base + targetStart;
+            int to = queryStart < 0 ? base + targetEnd : base + queryStart;
+            from = skipAuthority(from, to);
+            path = from == to ? "/" : decode(buf, from, to);
+        }
+        return path;
+    }
+
+    /**
+     * Gets the percent-decoded query string.
+     *
+     * @return the query, or null if the target has none
+     */
+    public String getQuery() {
+        if (!queryDecoded) {
+            query = queryStart < 0 ? null : decode(buf, base + queryStart + 1, base + targetEnd);
+            queryDecoded = true;
+        }
+        return query;
+    }
+
+    /**
+     * Gets the protocol version of the request line.
+     *
+     * @return the version, such as HTTP/1.1
+     */
+    public String getVersion() {
+        int from = base + versionStart;
+        int to = base + versionEnd;
+        if (equalsIgnoreCase(buf, from, to, HTTP_1_1)) {
+            return "HTTP/1.1";
+        }
+        if (from == to || equalsIgnoreCase(buf, from, to, HTTP_1_0)) {
+            return "HTTP/1.0";
+        }
+        return new String(buf, from, to - from, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Gets the number of header fields.
+     *
+     * @return the header count
+     */
+    public int getHeaderCount() {
+        return headerCount;
+    }
+
+    /**
+     * Gets the name of a header field, in the case sent by the client.
+     *
+     * @param index the header position
+     * @return the header name
+     */
+    public String getHeaderName(int index) {
+        int h = index * 4;
+        return new String(buf, base + headers[h], headers[h + 1] - headers[h], StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Gets the value of a header field.
+     *
+     * @param index the header position
+     * @return the header value
+     */
+    public String getHeaderValue(int index) {
+        int h = index * 4;
+        return new String(buf, base + headers[h + 2], headers[h + 3] - headers[h + 2], StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Gets the value of the first header with the given name, ignoring case.
+     *
+     * @param name the header name
+     * @return the header value, or null if absent
+     */
+    public String getHeader(String name) {
+        int index = indexOfHeader(name);
+        return index < 0 ? null : getHeaderValue(index);
+    }
+
+    /**
+     * Tells whether a header has the given value, ignoring case, without
+     * decoding it.
+     *
+     * @param name  the header name
+     * @param value the expected value
+     * @return true if the header is present with that value
+     */
+    public boolean hasHeaderValue(String name, String value) {
+        int index = indexOfHeader(name);
+        if (index < 0) {
+            return false;
+        }
+        int h = index * 4;
+        return equalsIgnoreCase(buf, base + headers[h + 2], base + headers[h + 3], value);
+    }
+
+    /**
+     * Gets the declared length of the request body.
+     *
+     * @return the Content-Length value, or 0 if absent
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Gets the body of the request. The server reads it completely before the
+     * request is handled, and deletes it once the response is written.
+     *
+     * @return the body, empty if the request has none
+     */
+    public HttpRequestBody getBody() {
+        return body;
+    }
+
+    /**
+     * Attaches the body read by the transport.
+     *
+     * @param body the decoded body
+     */
+    void setBody(HttpRequestBody body) {
+        this.body = body;
     }
 
     /**
@@ -21,9 +249,350 @@ public class HttpRequest {
      * @return the value of the query parameter, or null if not found
      */
     public String getValue(String paramName) {
+        return getParameter(paramName);
+    }
+
+    /**
+     * Gets the value of the first query parameter with the given name.
+     * Parameter names and values are percent-decoded, and + stands for a
+     * space; a parameter without = has an empty value.
+     *
+     * @param name the parameter name
+     * @return the decoded value, or null if absent
+     */
+    public String getParameter(String name) {
+        int index = indexOfParameter(name);
+        return index < 0 ? null : getParameterValue(index);
+    }
+
+    /**
+     * Gets the values of every query parameter with the given name, in order.
+     *
+     * @param name the parameter name
+     * @return the decoded values, empty if absent
+     */
+    public String[] getParameterValues(String name) {
+        int count = getParameterCount();
+        int matches = 0;
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            if (parameterNameEquals(i, name)) {
+                values[matches++] = getParameterValue(i);
+            }
+        }
+        return matches == count ? values : Arrays.copyOf(values, matches);
+    }
+
+    /**
+     * Gets the number of query parameters, counting repeated names once per
+     * occurrence.
+     *
+     * @return the parameter count
+     */
+    public int getParameterCount() {
+        if (paramCount < 0) {
+            indexParameters();
+        }
+        return paramCount;
+    }
+
+    /**
+     * Gets the decoded name of a query parameter.
+     *
+     * @param index the parameter position
+     * @return the parameter name
+     */
+    public String getParameterName(int index) {
+        int p = checkParameter(index);
+        return decode(buf, params[p], params[p + 1], true);
+    }
+
+    /**
+     * Gets the decoded value of a query parameter.
+     *
+     * @param index the parameter position
+     * @return the parameter value
+     */
+    public String getParameterValue(int index) {
+        int p = checkParameter(index);
+        return decode(buf, params[p + 2], params[p + 3], true);
+    }
+
+    /**
+     * Gets a query parameter as an int. Plain digits are read straight from
+     * the request bytes without creating a String.
+     *
+     * @param name         the parameter name
+     * @param defaultValue the value returned when the parameter is absent
+     * @return the value
+     * @throws NumberFormatException if the value is not an int
+     */
+    public int getIntParameter(String name, int defaultValue) {
+        int index = indexOfParameter(name);
+        return index < 0 ? defaultValue : parseInt(index);
+    }
+
+    /**
+     * Gets a query parameter as a long. Plain digits are read straight from
+     * the request bytes without creating a String.
+     *
+     * @param name         the parameter name
+     * @param defaultValue the value returned when the parameter is absent
+     * @return the value
+     * @throws NumberFormatException if the value is not a long
+     */
+    public long getLongParameter(String name, long defaultValue) {
+        int index = indexOfParameter(name);
+        return index < 0 ? defaultValue : parseLong(index);
+    }
+
+    /**
+     * Finds the first query parameter with the given name.
+     *
+     * @return its position, or -1 if absent
+     */
+    int indexOfParameter(String name) {
+        int count = getParameterCount();
+        for (int i = 0; i < count; i++) {
+            if (parameterNameEquals(i, name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    int parseInt(int index) {
+        long value = parseLong(index);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Value out of int range: " + value);
+        }
+        return (int) value;
+    }
+
+    long parseLong(int index) {
+        int p = checkParameter(index);
+        if ((params[p + 4] & VALUE_ESCAPED) != 0) {
+            return Long.parseLong(getParameterValue(index).trim());
+        }
+        int from = params[p + 2];
+        int to = params[p + 3];
+        boolean negative = from < to && buf[from] == '-';
+        int i = negative ? from + 1 : from;
+        if (i == to) {
+            throw new NumberFormatException("Not a number: " + getParameterValue(index));
+        }
+        // Accumulate negatively, like Long.parseLong, so MIN_VALUE fits
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long result = 0;
+        for (; i < to; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9 || result < limit / 10) {
+                throw new NumberFormatException("Not a long: " + getParameterValue(index));
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw new NumberFormatException("Not a long: " + getParameterValue(index));
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * Splits the raw query on &amp; and = in one pass, recording the bounds
+     * of every name and value and whether they need decoding.
+     */
+    private void indexParameters() {
+        int count = 0;
+        if (queryStart >= 0) {
+            int end = base + targetEnd;
+            int i = base + queryStart + 1;
+            while (i < end) {
+                int nameStart = i;
+                int nameEnd = -1;
+                int flags = 0;
+                for (; i < end && buf[i] != '&'; i++) {
+                    byte b = buf[i];
+                    if (b == '=' && nameEnd < 0) {
+                        nameEnd = i;
+                    } else if (b == '%' || b == '+' || b < 0) {
+                        flags |= nameEnd < 0 ? NAME_ESCAPED : VALUE_ESCAPED;
+                    }
+                }
+                if (i > nameStart) {
+                    if ((count + 1) * PARAM_FIELDS > params.length) {
+                        params = Arrays.copyOf(params, params.length * 2);
+                    }
+                    int p = count++ * PARAM_FIELDS;
+                    params[p] = nameStart;
+                    params[p + 1] = nameEnd < 0 ? i : nameEnd;
+                    params[p + 2] = nameEnd < 0 ? i : nameEnd + 1;
+                    params[p + 3] = i;
+                    params[p + 4] = flags;
+                }
+                i++;
+            }
+        }
+        paramCount = count;
+    }
+
+    private int checkParameter(int index) {
+        if (index < 0 || index >= getParameterCount()) {
+            throw new IndexOutOfBoundsException("Parameter " + index + " of " + paramCount);
+        }
+        return index * PARAM_FIELDS;
+    }
+
+    private boolean parameterNameEquals(int index, String name) {
+        int p = index * PARAM_FIELDS;
+        int from = params[p];
+        int to = params[p + 1];
+        if ((params[p + 4] & NAME_ESCAPED) != 0) {
+            return decode(buf, from, to, true).equals(name);
+        }
+        // Names without escapes are plain ASCII
+        if (to - from != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (buf[from + i] != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the value of a path variable of the matched route, such as n in
+     * /factors/{n}.
+     *
+     * @param name the variable name
+     * @return the value, or null if the route has no such variable
+     */
+    public String getPathVariable(String name) {
+        return routeMatch.getVariable(name);
+    }
+
+    /**
+     * Gets the match holder reused for every request on this connection.
+     */
+    RouteMatch routeMatch() {
+        return routeMatch;
+    }
+
+    private int indexOfHeader(String name) {
+        for (int i = 0; i < headerCount; i++) {
+            int h = i * 4;
+            if (equalsIgnoreCase(buf, base + headers[h], base + headers[h + 1], name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Skips the scheme and authority of an absolute-form target such as
+     * http://host/path.
+     */
+    private int skipAuthority(int from, int to) {
+        if (to - from < 8 || buf[from] == '/') {
+            return from;
+        }
+        for (int i = from; i + 2 < to; i++) {
+            if (buf[i] == ':' && buf[i + 1] == '/' && buf[i + 2] == '/') {
+                for (int j = i + 3; j < to; j++) {
+                    if (buf[j] == '/') {
+                        return j;
+                    }
+                }
+                return to;
+            }
+        }
+        return from;
+    }
+
+    static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static boolean equalsIgnoreCase(byte[] buf, int from, int to, byte[] expected) {
+        if (to - from != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (toLower(buf[from + i]) != toLower(expected[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean equalsIgnoreCase(byte[] buf, int from, int to, String expected) {
+        if (to - from != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (toLower(buf[from + i]) != toLower((byte) expected.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int toLower(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + 32 : b;
+    }
+
+    /**
+     * Percent-decodes bytes as UTF-8. Malformed escapes are kept literally.
+     */
+    static String decode(byte[] buf, int from, int to) {
+        return decode(buf, from, to, false);
+    }
+
+    /**
+     * Percent-decodes bytes as UTF-8, optionally reading + as a space as in
+     * query components. Malformed escapes are kept literally.
+     */
+    static String decode(byte[] buf, int from, int to, boolean plusAsSpace) {
+        int escape = -1;
+        for (int i = from; i < to; i++) {
+            if (buf[i] == '%' || plusAsSpace && buf[i] == '+') {
+                escape = i;
+                break;
+            }
+        }
+        if (escape < 0) {
+            return new String(buf, from, to - from, StandardCharsets.UTF_8);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(to - from);
+        out.write(buf, from, escape - from);
+        for (int i = escape; i < to; i++) {
+            int hi;
+            int lo;
+            if (buf[i] == '%' && i + 2 < to && (hi = hexValue(buf[i + 1])) >= 0 && (lo = hexValue(buf[i + 2])) >= 0) {
+                out.write(hi << 4 | lo);
+                i += 2;
+            } else if (plusAsSpace && buf[i] == '+') {
+                out.write(' ');
+            } else {
+                out.write(buf[i]);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
 
-        String paramValue = requri.getQuery().split("=")[1];
-        return paramValue;
+    private static int hexValue(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        return -1;
     }
 
 }
@@ -0,0 +1,146 @@
+package co.edu.escuelaing.httpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The body of a request, received completely before the handler runs. Small
+ * bodies are kept in memory; bodies larger than BODY_MEMORY_BYTES are spilled
+ * to a temporary file, which is deleted once the response is written, so a
+ * large upload never sits on the heap unless the handler asks for it as bytes
+ * or as a String.
+ *
+ * @author sergio.bejarano-r
+ */
+public final class HttpRequestBody {
+
+    /**
+     * The body of a request that has none.
+     */
+    static final HttpRequestBody EMPTY = new HttpRequestBody(new byte[0], 0);
+
+    private final byte[] data;
+    private final Path file;
+    private final long length;
+    private List<InputStream> opened;
+
+    /**
+     * Creates a body kept in memory.
+     *
+     * @param data   the buffer holding the body
+     * @param length the number of bytes of the buffer used
+     */
+    HttpRequestBody(byte[] data, int length) {
+        this.data = data;
+        this.file = null;
+        this.length = length;
+    }
+
+    /**
+     * Creates a body spilled to a file.
+     *
+     * @param file   the temporary file, owned by the body from now on
+     * @param length the file length
+     */
+    HttpRequestBody(Path file, long length) {
+        this.data = null;
+        this.file = file;
+        this.length = length;
+    }
+
+    /**
+     * Gets the length of the body, after removing any chunked framing.
+     *
+     * @return the length in bytes
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Tells whether the body was spilled to a temporary file.
+     *
+     * @return true if the body is on disk
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Opens a stream over the body. This is the way to read a large body
+     * without loading it into the heap. Streams left open by the handler are
+     * closed with the body.
+     *
+     * @return a new stream
+     * @throws IOException if the temporary file cannot be opened
+     */
+    public synchronized InputStream getInputStream() throws IOException {
+        if (file == null) {
+            return new ByteArrayInputStream(data, 0, (int) length);
+        }
+        InputStream in = Files.newInputStream(file);
+        if (opened == null) {
+            opened = new ArrayList<>(1);
+        }
+        opened.add(in);
+        return in;
+    }
+
+    /**
+     * Gets the body as bytes, reading it from disk if it was spilled.
+     *
+     * @return a copy of the body
+     * @throws IOException if the temporary file cannot be read
+     */
+    public byte[] getBytes() throws IOException {
+        if (file == null) {
+            byte[] copy = new byte[(int) length];
+            System.arraycopy(data, 0, copy, 0, copy.length);
+            return copy;
+        }
+        return Files.readAllBytes(file);
+    }
+
+    /**
+     * Gets the body as UTF-8 text, reading it from disk if it was spilled.
+     *
+     * @return the decoded body
+     * @throws IOException if the temporary file cannot be read
+     */
+    public String getString() throws IOException {
+        if (file == null) {
+            return new String(data, 0, (int) length, StandardCharsets.UTF_8);
+        }
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Deletes the temporary file of a spilled body. Called by the server once
+     * the response is written.
+     */
+    synchronized void release() {
+        if (opened != null) {
+            for (InputStream in : opened) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+            opened = null;
+        }
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                System.err.println("Could not delete " + file + ": " + e.getMessage());
+            }
+        }
+    }
+}
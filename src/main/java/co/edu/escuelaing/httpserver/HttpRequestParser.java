@@ -0,0 +1,459 @@
+package co.edu.escuelaing.httpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Incremental, byte-oriented HTTP/1.x request parser. Bytes are read into a
+ * buffer owned by the parser and reused for every request on the connection;
+ * the parser only records offsets of the request line and header fields, so no
+ * String is created while parsing. Data may arrive in any number of pieces:
+ * {@link #parse()} resumes where the previous call stopped, which lets the same
+ * parser back both the blocking and the non-blocking transports.
+ * <p>
+ * Typical use:
+ *
+ * <pre>
+ * while (!parser.parse()) {
+ *     if (parser.fill(in) &lt; 0) { ... connection closed ... }
+ * }
+ * HttpRequest request = parser.request();
+ * ...
+ * parser.next();
+ * </pre>
+ *
+ * The returned {@link HttpRequest} is a view over the parser buffer and stays
+ * valid until {@link #next()} or the next fill. The transports read a request
+ * body, if any, with a {@link BodyDecoder} fed by {@link #feedBody}; a body
+ * that is not read is skipped by {@link #next()}, which only works for bodies
+ * framed by Content-Length.
+ *
+ * @author sergio.bejarano-r
+ */
+public class HttpRequestParser {
+
+    /**
+     * Largest request head (request line plus headers) accepted, in bytes.
+     */
+    static final int MAX_HEADER_SIZE = ServerConfig.getInt("MAX_HEADER_SIZE", 16 * 1024);
+
+    private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+    private static final int MAX_HEADERS = 100;
+    private static final byte[] CONTENT_LENGTH = HttpRequest.ascii("Content-Length");
+    private static final byte[] TRANSFER_ENCODING = HttpRequest.ascii("Transfer-Encoding");
+    private static final byte[] CHUNKED = HttpRequest.ascii("chunked");
+
+    private final int maxHeaderSize;
+    private final HttpRequest request = new HttpRequest();
+    private byte[] buf;
+    private ByteBuffer channelView;
+
+    /* Unconsumed data lives in buf[start, limit). */
+    private int start;
+    private int limit;
+    private long pendingSkip;
+
+    /* Offsets below are relative to start. */
+    private int scan;
+    private int lineStart;
+    private boolean requestLineSeen;
+    private boolean complete;
+    private int headerEnd;
+    private int methodEnd;
+    private int targetStart;
+    private int targetEnd;
+    private int queryStart;
+    private int versionStart;
+    private int versionEnd;
+    private int headerCount;
+    private int[] headers = new int[16 * 4];
+    private long contentLength;
+    private boolean lengthSeen;
+    private boolean chunked;
+    private boolean readingBody;
+
+    /**
+     * Creates a parser limited to MAX_HEADER_SIZE bytes of request head.
+     */
+    public HttpRequestParser() {
+        this(MAX_HEADER_SIZE);
+    }
+
+    /**
+     * Creates a parser.
+     *
+     * @param maxHeaderSize largest request head accepted, in bytes
+     */
+    public HttpRequestParser(int maxHeaderSize) {
+        this.maxHeaderSize = maxHeaderSize;
+        this.buf = new byte[Math.min(INITIAL_BUFFER_SIZE, maxHeaderSize)];
+    }
+
+    /**
+     * Reads available bytes from a stream into the parser buffer.
+     *
+     * @param in the stream to read from
+     * @return the number of bytes read, or -1 at end of stream
+     */
+    public int fill(InputStream in) throws IOException {
+        ensureRoom();
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n > 0) {
+            limit += n;
+        }
+        return n;
+    }
+
+    /**
+     * Reads available bytes from a channel into the parser buffer. Works with
+     * non-blocking channels, in which case it may read nothing.
+     *
+     * @param channel the channel to read from
+     * @return the number of bytes read, or -1 at end of stream
+     */
+    public int fill(ReadableByteChannel channel) throws IOException {
+        ensureRoom();
+        if (channelView == null || channelView.array() != buf) {
+            channelView = ByteBuffer.wrap(buf);
+        }
+        channelView.limit(buf.length).position(limit);
+        int n = channel.read(channelView);
+        if (n > 0) {
+            limit += n;
+        }
+        return n;
+    }
+
+    /**
+     * Copies bytes into the parser buffer, for callers that already hold them.
+     *
+     * @param data   the bytes to add
+     * @param offset the first byte to copy
+     * @param length the number of bytes to copy
+     */
+    public void feed(byte[] data, int offset, int length) throws HttpParseException {
+        while (length > 0) {
+            ensureRoom();
+            int n = Math.min(length, buf.length - limit);
+            System.arraycopy(data, offset, buf, limit, n);
+            limit += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Parses as much of the current request head as has been received.
+     *
+     * @return true once the request line and all headers are available
+     * @throws HttpParseException if the request is malformed or too large
+     */
+    public boolean parse() throws HttpParseException {
+        if (complete) {
+            return true;
+        }
+        discardPendingBody();
+        for (int i = start + scan; i < limit; i++) {
+            if (buf[i] != '\n') {
+                continue;
+            }
+            int lineEnd = i > start + lineStart && buf[i - 1] == '\r' ? i - 1 : i;
+            int ls = start + lineStart;
+            lineStart = i + 1 - start;
+            if (!requestLineSeen) {
+                if (lineEnd > ls) {
+                    parseRequestLine(ls, lineEnd);
+                    requestLineSeen = true;
+                }
+            } else if (lineEnd == ls) {
+                complete = true;
+                headerEnd = lineStart;
+                scan = lineStart;
+                if (chunked && lengthSeen) {
+                    // Framing that two parties could read differently is
+                    // how requests are smuggled past a proxy
+                    throw new HttpParseException(400, "Bad Request");
+                }
+                request.reset(buf, start, methodEnd, targetStart, targetEnd, queryStart, versionStart, versionEnd,
+                        headers, headerCount, contentLength);
+                return true;
+            } else {
+                parseHeader(ls, lineEnd);
+            }
+        }
+        scan = limit - start;
+        if (limit - start >= maxHeaderSize) {
+            throw new HttpParseException(431, "Request Header Fields Too Large");
+        }
+        return false;
+    }
+
+    /**
+     * Gets the request parsed by the last successful {@link #parse()}.
+     *
+     * @return the request view
+     */
+    public HttpRequest request() {
+        if (!complete) {
+            throw new IllegalStateException("The request head has not been parsed yet");
+        }
+        return request;
+    }
+
+    /**
+     * Moves past the current request, discarding its body, so the next
+     * pipelined request can be parsed.
+     */
+    public void next() {
+        if (!complete) {
+            return;
+        }
+        int bodyStart = start + headerEnd;
+        int bodyInBuffer = (int) Math.min(contentLength, limit - bodyStart);
+        start = bodyStart + bodyInBuffer;
+        pendingSkip = contentLength - bodyInBuffer;
+        if (start == limit) {
+            start = 0;
+            limit = 0;
+        }
+        scan = 0;
+        lineStart = 0;
+        requestLineSeen = false;
+        complete = false;
+        headerEnd = 0;
+        headerCount = 0;
+        contentLength = 0;
+        lengthSeen = false;
+        chunked = false;
+        readingBody = false;
+        queryStart = -1;
+    }
+
+    /**
+     * Tells whether the current request has a body to read.
+     *
+     * @return true if it declares a Content-Length above zero or uses the
+     *         chunked transfer coding, and the body has not been read yet
+     */
+    boolean hasBody() {
+        return complete && (contentLength > 0 || chunked);
+    }
+
+    /**
+     * Creates the decoder for the body of the current request.
+     *
+     * @return the decoder, to be passed to {@link #feedBody(BodyDecoder)}
+     * @throws HttpParseException with status 413 if the declared length is
+     *                            over MAX_BODY_BYTES
+     */
+    BodyDecoder bodyDecoder() throws HttpParseException {
+        readingBody = true;
+        return new BodyDecoder(contentLength, chunked);
+    }
+
+    /**
+     * Gets the number of buffered bytes past the head of the current request,
+     * which may include the start of the next one.
+     *
+     * @return the bytes a call to {@link #feedBody(BodyDecoder)} would offer
+     */
+    int bufferedBodyBytes() {
+        return limit - start - headerEnd;
+    }
+
+    /**
+     * Hands the buffered body bytes of the current request to its decoder.
+     * The consumed bytes are dropped from the buffer, so a body of any size
+     * passes through it while the request head stays in place; bytes of a
+     * following request are kept.
+     *
+     * @param decoder the decoder of the current request
+     * @return true once the whole body was decoded
+     * @throws IOException if the body is malformed, too large or cannot be
+     *                     spilled to disk
+     */
+    boolean feedBody(BodyDecoder decoder) throws IOException {
+        int from = start + headerEnd;
+        int used = decoder.feed(buf, from, limit - from);
+        if (used > 0) {
+            System.arraycopy(buf, from + used, buf, from, limit - from - used);
+            limit -= used;
+        }
+        if (!decoder.isComplete()) {
+            return false;
+        }
+        contentLength = 0;
+        chunked = false;
+        readingBody = false;
+        return true;
+    }
+
+    /**
+     * Tells whether bytes of a following request are already buffered.
+     *
+     * @return true if unparsed data is available without reading
+     */
+    public boolean hasBufferedData() {
+        return limit - start > pendingSkip || (complete && limit - start > headerEnd + contentLength);
+    }
+
+    /**
+     * Tells whether the buffer can take more input without being moved or
+     * grown, which a complete request being served does not allow.
+     *
+     * @return true if {@link #fill(ReadableByteChannel)} has room to read into
+     */
+    boolean hasRoom() {
+        return limit < buf.length;
+    }
+
+    /**
+     * Tells whether body bytes of the previous request are still expected
+     * before the next request starts.
+     *
+     * @return true while the rest of a body is being skipped
+     */
+    boolean isSkippingBody() {
+        return pendingSkip > 0;
+    }
+
+    private void parseRequestLine(int from, int to) throws HttpParseException {
+        int sp1 = indexOf(' ', from, to);
+        if (sp1 <= from) {
+            throw new HttpParseException(400, "Bad Request");
+        }
+        int sp2 = indexOf(' ', sp1 + 1, to);
+        int tEnd = sp2 < 0 ? to : sp2;
+        if (tEnd <= sp1 + 1) {
+            throw new HttpParseException(400, "Bad Request");
+        }
+        methodEnd = sp1 - start;
+        targetStart = sp1 + 1 - start;
+        targetEnd = tEnd - start;
+        int q = indexOf('?', sp1 + 1, tEnd);
+        queryStart = q < 0 ? -1 : q - start;
+        if (sp2 < 0) {
+            versionStart = targetEnd;
+            versionEnd = targetEnd;
+        } else {
+            versionStart = sp2 + 1 - start;
+            versionEnd = to - start;
+        }
+    }
+
+    private void parseHeader(int from, int to) throws HttpParseException {
+        int colon = indexOf(':', from, to);
+        if (colon <= from) {
+            throw new HttpParseException(400, "Bad Request");
+        }
+        if (headerCount == MAX_HEADERS) {
+            throw new HttpParseException(431, "Request Header Fields Too Large");
+        }
+        int valueStart = colon + 1;
+        while (valueStart < to && (buf[valueStart] == ' ' || buf[valueStart] == '\t')) {
+            valueStart++;
+        }
+        int valueEnd = to;
+        while (valueEnd > valueStart && (buf[valueEnd - 1] == ' ' || buf[valueEnd - 1] == '\t')) {
+            valueEnd--;
+        }
+        if (headers.length < (headerCount + 1) * 4) {
+            int[] bigger = new int[headers.length * 2];
+            System.arraycopy(headers, 0, bigger, 0, headers.length);
+            headers = bigger;
+        }
+        int h = headerCount * 4;
+        headers[h] = from - start;
+        headers[h + 1] = colon - start;
+        headers[h + 2] = valueStart - start;
+        headers[h + 3] = valueEnd - start;
+        headerCount++;
+        if (HttpRequest.equalsIgnoreCase(buf, from, colon, CONTENT_LENGTH)) {
+            if (lengthSeen) {
+                throw new HttpParseException(400, "Bad Request");
+            }
+            lengthSeen = true;
+            contentLength = parseContentLength(valueStart, valueEnd);
+        } else if (HttpRequest.equalsIgnoreCase(buf, from, colon, TRANSFER_ENCODING)) {
+            // chunked is the only coding supported, so it must be the only one sent, and only once
+            if (chunked || !HttpRequest.equalsIgnoreCase(buf, valueStart, valueEnd, CHUNKED)) {
+                throw new HttpParseException(501, "Not Implemented");
+            }
+            chunked = true;
+        }
+    }
+
+    private long parseContentLength(int from, int to) throws HttpParseException {
+        if (from == to || to - from > 18) {
+            throw new HttpParseException(400, "Bad Request");
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new HttpParseException(400, "Bad Request");
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void discardPendingBody() {
+        if (pendingSkip == 0) {
+            return;
+        }
+        int n = (int) Math.min(pendingSkip, limit - start);
+        start += n;
+        pendingSkip -= n;
+        if (start == limit) {
+            start = 0;
+            limit = 0;
+        }
+    }
+
+    /**
+     * Makes room for more input by moving unconsumed bytes to the front of the
+     * buffer or growing it up to the maximum head size.
+     */
+    private void ensureRoom() throws HttpParseException {
+        if (limit < buf.length) {
+            return;
+        }
+        if (complete) {
+            // The current request is still being served and its view points
+            // into this buffer, so it cannot be moved yet. A head filling the
+            // whole buffer leaves no room for its body, which needs a bigger
+            // one; the view keeps the old buffer.
+            if (!readingBody) {
+                throw new HttpParseException(431, "Request Header Fields Too Large");
+            }
+            byte[] bigger = new byte[buf.length + INITIAL_BUFFER_SIZE];
+            System.arraycopy(buf, 0, bigger, 0, limit);
+            buf = bigger;
+            return;
+        }
+        if (start > 0) {
+            System.arraycopy(buf, start, buf, 0, limit - start);
+            limit -= start;
+            start = 0;
+            return;
+        }
+        if (buf.length >= maxHeaderSize) {
+            throw new HttpParseException(431, "Request Header Fields Too Large");
+        }
+        byte[] bigger = new byte[Math.min(maxHeaderSize, buf.length * 2)];
+        System.arraycopy(buf, 0, bigger, 0, limit);
+        buf = bigger;
+    }
+}
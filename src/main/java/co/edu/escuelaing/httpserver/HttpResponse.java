@@ -1,12 +1,17 @@
 package co.edu.escuelaing.httpserver;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 /**
  * Represents an HTTP response that will be sent back to the client.
- * Contains status, headers, and body.
- * 
+ * Contains status, headers, and body. Headers are kept in insertion order in
+ * two small arrays, Content-Length as a number, and the body as its UTF-8
+ * bytes, encoded once.
+ *
  * @author sergio.bejarano-r
  */
 public class HttpResponse {
@@ -14,14 +19,23 @@ public class HttpResponse {
     private int statusCode = 200;
     private String statusMessage = "OK";
     private String body = "";
-    private final Map<String, String> headers = new HashMap<>();
+    private byte[] bodyBytes = EMPTY;
+    private StreamingBody streamingBody;
+    private CompletableFuture<?> pending;
+    private String[] names = new String[8];
+    private String[] values = new String[8];
+    private int headerCount;
+    private long contentLength = -1;
+
+    private static final byte[] EMPTY = new byte[0];
+    private static final String CONTENT_LENGTH = "Content-Length";
 
     /*
      * Initializes default headers.
      */
     public HttpResponse() {
-        headers.put("Content-Type", "text/plain; charset=UTF-8");
-        headers.put("Connection", "close");
+        setHeader("Content-Type", "text/plain; charset=UTF-8");
+        setHeader("Connection", "close");
     }
 
     /**
@@ -42,7 +56,87 @@ public class HttpResponse {
      */
     public void setBody(String body) {
         this.body = body;
-        headers.put("Content-Length", String.valueOf(body.getBytes().length));
+        this.bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        this.streamingBody = null;
+        this.contentLength = bodyBytes.length;
+    }
+
+    /**
+     * Gets the body of the response.
+     *
+     * @return response body
+     */
+    public String getBody() {
+        return body;
+    }
+
+    /**
+     * Gets the body of the response encoded as UTF-8.
+     *
+     * @return the body bytes; callers must not modify them
+     */
+    public byte[] getBodyBytes() {
+        return bodyBytes;
+    }
+
+    /**
+     * Sets a body that is produced while it is sent. Its length is unknown,
+     * so no Content-Length is sent.
+     *
+     * @param body writes the body to the connection
+     */
+    public void setBody(StreamingBody body) {
+        this.streamingBody = body;
+        this.body = "";
+        this.bodyBytes = EMPTY;
+        this.contentLength = -1;
+    }
+
+    /**
+     * Sets a body made of lines that are produced while it is sent: every
+     * element of the stream becomes one line, sent as soon as it is yielded.
+     * The stream is closed when the body ends or fails.
+     *
+     * @param lines the body lines
+     */
+    public void setStream(Stream<?> lines) {
+        setBody(out -> {
+            try (lines) {
+                Iterator<?> it = lines.iterator();
+                while (it.hasNext()) {
+                    out.write((it.next() + "\n").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets the streamed body.
+     *
+     * @return the body writer, or null if the body is a string
+     */
+    public StreamingBody getStreamingBody() {
+        return streamingBody;
+    }
+
+    /**
+     * Sets the result of an asynchronous service, which decides the body once
+     * it completes.
+     *
+     * @param result the result, or null once it has been applied
+     */
+    void setPending(CompletableFuture<?> result) {
+        this.pending = result;
+    }
+
+    /**
+     * Gets the result of an asynchronous service not applied yet.
+     *
+     * @return the result, or null if the response is complete
+     */
+    CompletableFuture<?> getPending() {
+        return pending;
     }
 
     /**
@@ -52,18 +146,116 @@ public class HttpResponse {
      * @param value header value
      */
     public void setHeader(String key, String value) {
-        headers.put(key, value);
+        if (CONTENT_LENGTH.equalsIgnoreCase(key)) {
+            contentLength = Long.parseLong(value.trim());
+            return;
+        }
+        int i = indexOf(key);
+        if (i >= 0) {
+            values[i] = value;
+            return;
+        }
+        if (headerCount == names.length) {
+            names = Arrays.copyOf(names, headerCount * 2);
+            values = Arrays.copyOf(values, headerCount * 2);
+        }
+        names[headerCount] = key;
+        values[headerCount++] = value;
+    }
+
+    /**
+     * Gets a header of the response.
+     *
+     * @param key header name
+     * @return the value, or null if the header is not set
+     */
+    public String getHeader(String key) {
+        if (CONTENT_LENGTH.equalsIgnoreCase(key)) {
+            return contentLength < 0 ? null : String.valueOf(contentLength);
+        }
+        int i = indexOf(key);
+        return i < 0 ? null : values[i];
+    }
+
+    /**
+     * Removes a header from the response.
+     *
+     * @param key header name
+     */
+    public void removeHeader(String key) {
+        if (CONTENT_LENGTH.equalsIgnoreCase(key)) {
+            contentLength = -1;
+            return;
+        }
+        int i = indexOf(key);
+        if (i >= 0) {
+            headerCount--;
+            System.arraycopy(names, i + 1, names, i, headerCount - i);
+            System.arraycopy(values, i + 1, values, i, headerCount - i);
+            names[headerCount] = null;
+            values[headerCount] = null;
+        }
+    }
+
+    private int indexOf(String key) {
+        for (int i = 0; i < headerCount; i++) {
+            if (names[i].equalsIgnoreCase(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the status code.
+     *
+     * @return the status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Gets the status message.
+     *
+     * @return the reason phrase
+     */
+    public String getStatusMessage() {
+        return statusMessage;
+    }
+
+    /**
+     * Gets the Content-Length.
+     *
+     * @return the body length in bytes, or -1 if it is not set
+     */
+    long getContentLength() {
+        return contentLength;
+    }
+
+    int headerCount() {
+        return headerCount;
+    }
+
+    String headerName(int i) {
+        return names[i];
+    }
+
+    String headerValue(int i) {
+        return values[i];
+    }
+
+    /**
+     * Builds the status line and headers, ending with the blank line.
+     */
+    public String buildHead() {
+        return new String(ResponseEncoder.encodeHead(this), StandardCharsets.ISO_8859_1);
     }
 
     /**
      * Builds the full HTTP response as a String.
      */
     public String buildResponse() {
-        StringBuilder response = new StringBuilder();
-        response.append("HTTP/1.1 ").append(statusCode).append(" ").append(statusMessage).append("\r\n");
-        headers.forEach((k, v) -> response.append(k).append(": ").append(v).append("\r\n"));
-        response.append("\r\n");
-        response.append(body);
-        return response.toString();
+        return buildHead() + body;
     }
 }
@@ -1,17 +1,32 @@
 package co.edu.escuelaing.httpserver;
 
 import co.edu.escuelaing.microspringboot.annotations.GetMapping;
-import co.edu.escuelaing.microspringboot.annotations.RequestParam;
+import co.edu.escuelaing.microspringboot.annotations.PostMapping;
 import co.edu.escuelaing.microspringboot.annotations.RestController;
 import java.net.*;
 import java.io.*;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
 
 /**
  *
@@ -19,17 +34,160 @@ import java.util.concurrent.TimeUnit;
  */
 public class HttpServer {
 
-    public static Map<String, Method> services = new HashMap();
+    /**
+     * Read-only snapshot of the mapped service methods, keyed by path pattern
+     * for GET and by "POST " and the pattern for POST.
+     *
+     * @deprecated only filled when services are found by scanning; routes
+     *             from the generated index are registered without reflection,
+     *             so in a normal build this map is empty. Use the routes of
+     *             the router instead.
+     */
+    @Deprecated
+    public static volatile Map<String, Method> services = Collections.emptyMap();
+
+    /**
+     * Compiled routes. Built once by loadServices and replaced as a whole, so
+     * lookups from worker threads need no locking.
+     */
+    static volatile Router router = Router.builder().build();
+
+    /**
+     * Length of a tick of the connection timer wheels, in milliseconds.
+     */
+    static final long TIMER_TICK = Math.max(1, ServerConfig.getLong("TIMER_TICK_MS", 100));
+
+    /**
+     * Deadlines of the connections of the blocking transport, expired by a
+     * single daemon thread.
+     */
+    static final TimerWheel TIMEOUTS = new TimerWheel(TIMER_TICK, 512);
+
+    /**
+     * Maximum number of requests served on a single connection.
+     */
+    static final int KEEP_ALIVE_MAX_REQUESTS = ServerConfig.getInt("KEEP_ALIVE_MAX_REQUESTS", 100);
+
+    /**
+     * Cache of the files under webroot.
+     */
+    static final StaticFileCache STATIC_FILES = new StaticFileCache("webroot",
+            ServerConfig.getLong("STATIC_CACHE_MAX_BYTES", 16L * 1024 * 1024),
+            ServerConfig.getLong("STATIC_CACHE_MAX_FILE_BYTES", 1024L * 1024),
+            ServerConfig.getLong("STATIC_CACHE_CHECK_INTERVAL_MS", 1000));
+
+    /**
+     * Smallest service response body that is compressed.
+     */
+    static final int COMPRESSION_MIN_BYTES = ServerConfig.getInt("COMPRESSION_MIN_BYTES", 1024);
+
+    /**
+     * Smallest service response body that is compressed while it is written,
+     * with chunked framing.
+     */
+    static final int COMPRESSION_STREAM_BYTES = ServerConfig.getInt("COMPRESSION_STREAM_BYTES", 64 * 1024);
+
+    /**
+     * Interim response sent before reading a body the client holds back until
+     * it is told to go on.
+     */
+    static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] NOT_FOUND_BODY = "<h1>404 Not Found</h1>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NOT_FOUND_KEEP_ALIVE = notFoundHead("keep-alive");
+    private static final byte[] NOT_FOUND_CLOSE = notFoundHead("close");
+
+    /**
+     * Buffer of a streaming body; every time it fills, a chunk is sent.
+     */
+    static final int STREAM_BUFFER_BYTES = ServerConfig.getInt("STREAM_BUFFER_BYTES", 8 * 1024);
+
+    /**
+     * Whether /metrics answers with the server metrics.
+     */
+    static final boolean METRICS_ENABLED = ServerConfig.getBoolean("METRICS_ENABLED", true);
+
+    private static final String METRICS_PATH = "/metrics";
 
     /**
-     * Loads services annotated with @RestController and @GetMapping.
+     * Log of the served requests, or null if ACCESS_LOG is off.
+     */
+    static final AccessLog ACCESS_LOG = AccessLog.fromConfig();
+
+    /**
+     * Whether the header lines of every request are printed, for debugging.
+     */
+    static final boolean LOG_HEADERS = ServerConfig.getBoolean("LOG_HEADERS", false);
+
+    /**
+     * Sheds connections and requests with 503 when the server is overloaded.
+     */
+    static final AdmissionControl ADMISSION = AdmissionControl.fromConfig();
+
+    /**
+     * Time a service returning a CompletableFuture may take to complete, in
+     * milliseconds, unless its method sets its own with @AsyncTimeout.
+     */
+    static final long ASYNC_TIMEOUT = ServerConfig.getLong("ASYNC_TIMEOUT_MS", 30000);
+
+    /**
+     * Loads services annotated with {@code @RestController} and
+     * {@code @GetMapping} or {@code @PostMapping}. Routes come from the
+     * registries generated at compile time; the examples package is only
+     * scanned when none is on the classpath.
      */
     public static void loadServices() {
+        Map<String, Method> found = new HashMap<>();
+        Router.Builder builder = Router.builder();
+        boolean indexed = false;
+        try {
+            for (RouteRegistry registry : ServiceLoader.load(RouteRegistry.class, HttpServer.class.getClassLoader())) {
+                registry.register(builder);
+                indexed = true;
+            }
+        } catch (ServiceConfigurationError | IllegalArgumentException ex) {
+            System.getLogger(HttpServer.class.getName()).log(System.Logger.Level.ERROR, (String) null, ex);
+        }
+        if (!indexed) {
+            scanServices(builder, found);
+        }
+        services = Collections.unmodifiableMap(found);
+        router = builder.build();
+    }
+
+    /**
+     * Gets the result caches of the routes annotated with @Cacheable, whose
+     * hit and miss counters describe how well they work.
+     *
+     * @return the caches, in registration order
+     */
+    public static List<ResultCache> getResultCaches() {
+        List<ResultCache> caches = new ArrayList<>();
+        for (Route route : router.getRoutes()) {
+            if (route.getCache() != null) {
+                caches.add(route.getCache());
+            }
+        }
+        return caches;
+    }
+
+    /**
+     * Finds services by scanning the examples package, for builds where the
+     * route index processor did not run.
+     *
+     * @param builder the router being built
+     * @param found   receives the mapped methods
+     */
+    private static void scanServices(Router.Builder builder, Map<String, Method> found) {
         try {
             String baseDir = "co/edu/escuelaing/microspringboot/examples";
-            File dir = new File(HttpServer.class.getClassLoader().getResource(baseDir).toURI());
-            File[] files = dir.listFiles((d, name) -> name.endsWith(".class"));
-            if (files != null) {
+            Enumeration<URL> roots = HttpServer.class.getClassLoader().getResources(baseDir);
+            while (roots.hasMoreElements()) {
+                File dir = new File(roots.nextElement().toURI());
+                File[] files = dir.listFiles((d, name) -> name.endsWith(".class"));
+                if (files == null) {
+                    continue;
+                }
                 for (File file : files) {
                     String className = "co.edu.escuelaing.microspringboot.examples."
                             + file.getName().replace(".class", "");
@@ -39,7 +197,13 @@ public class HttpServer {
                         for (Method m : methods) {
                             if (m.isAnnotationPresent(GetMapping.class)) {
                                 String mapping = m.getAnnotation(GetMapping.class).value();
-                                services.put(mapping, m);
+                                found.put(mapping, m);
+                                registerRoute(builder, "GET", mapping, m);
+                            }
+                            if (m.isAnnotationPresent(PostMapping.class)) {
+                                String mapping = m.getAnnotation(PostMapping.class).value();
+                                found.put("POST " + mapping, m);
+                                registerRoute(builder, "POST", mapping, m);
                             }
                         }
                     }
@@ -50,6 +214,22 @@ public class HttpServer {
         }
     }
 
+    /**
+     * Compiles a service method and registers it as a route.
+     *
+     * @param builder    the router being built
+     * @param httpMethod the HTTP method, GET or POST
+     * @param mapping    the mapped path pattern
+     * @param m          the service method
+     */
+    private static void registerRoute(Router.Builder builder, String httpMethod, String mapping, Method m) {
+        try {
+            builder.add(httpMethod, mapping, Route.compile(mapping, m));
+        } catch (IllegalArgumentException ex) {
+            System.err.println("Skipping " + mapping + ": " + ex.getMessage());
+        }
+    }
+
     /**
      * Starts the HTTP server.
      */
@@ -63,22 +243,30 @@ public class HttpServer {
     public static void runServer(int port) throws IOException, URISyntaxException {
         loadServices();
 
-        final ServerSocket serverSocket;
+        if ("nio".equalsIgnoreCase(ServerConfig.getString("TRANSPORT", "blocking"))) {
+            runNioServer(port);
+            return;
+        }
+
+        int acceptors = Listeners.acceptors();
+        final ServerSocketChannel[] listeners;
         try {
-            serverSocket = new ServerSocket(port);
+            // Channel-backed sockets let static files be sent with
+            // FileChannel.transferTo instead of being copied into the heap.
+            listeners = Listeners.open(port, acceptors);
         } catch (IOException e) {
             System.err.println("Could not listen on port: " + port);
             return;
         }
-        ExecutorService threadPool = Executors.newFixedThreadPool(10);
+        ExecutorStrategy strategy = ExecutorStrategy.fromConfig();
+        ExecutorService threadPool = strategy.create();
+        ADMISSION.setPoolSize(strategy.threads());
+        ServerMetrics.watch(threadPool);
+        TIMEOUTS.start("connection-timeouts");
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("\nShutdown hook triggered. Stopping server...");
             running = false;
-            try {
-                serverSocket.close();
-            } catch (IOException e) {
-                // Ignore
-            }
+            Listeners.close(listeners);
             threadPool.shutdown();
             try {
                 if (!threadPool.awaitTermination(10, TimeUnit.SECONDS)) {
@@ -87,17 +275,24 @@ public class HttpServer {
             } catch (InterruptedException e) {
                 threadPool.shutdownNow();
             }
+            closeAccessLog();
             System.out.println("Server stopped gracefully.");
         }));
-        System.out.println("Server started on port " + port + ". Press Ctrl+C to stop.");
-        while (running) {
+        System.out.println("Server started on port " + port + " with " + acceptors + " acceptors"
+                + (Listeners.isShared(listeners, acceptors) ? " on a shared socket" : "") + " using the "
+                + strategy.name().toLowerCase() + " executor. Press Ctrl+C to stop.");
+        Thread[] threads = new Thread[acceptors];
+        for (int i = 0; i < acceptors; i++) {
+            ServerSocketChannel listener = listeners[i % listeners.length];
+            threads[i] = new Thread(() -> acceptLoop(listener, threadPool), "acceptor-" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
             try {
-                final Socket clientSocket = serverSocket.accept();
-                threadPool.submit(() -> handleClient(clientSocket));
-            } catch (IOException e) {
-                if (running) {
-                    System.err.println("Accept failed: " + e.getMessage());
-                }
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             }
         }
         threadPool.shutdown();
@@ -111,40 +306,105 @@ public class HttpServer {
     }
 
     /**
-     * Handles a client connection.
+     * Accepts connections from a listening socket and hands them to the
+     * worker pool until the server stops. Several acceptors may share a
+     * socket.
      *
-     * @param clientSocket the client socket
+     * @param listener   the listening socket
+     * @param threadPool the worker pool
      */
-    private static void handleClient(Socket clientSocket) {
-        try (
-                InputStream inStream = clientSocket.getInputStream();
-                OutputStream rawOut = clientSocket.getOutputStream();
-                PrintWriter out = new PrintWriter(rawOut, true);
-                BufferedReader in = new BufferedReader(new InputStreamReader(inStream));) {
-            String inputLine;
-            boolean firstline = true;
-            URI requri = null;
-
-            while ((inputLine = in.readLine()) != null) {
-                if (firstline) {
-                    requri = new URI(inputLine.split(" ")[1]);
-                    System.out.println("Path: " + requri.getPath());
-                    firstline = false;
+    private static void acceptLoop(ServerSocketChannel listener, ExecutorService threadPool) {
+        while (running) {
+            try {
+                final Socket clientSocket = listener.accept().socket();
+                if (!ADMISSION.openConnection()) {
+                    shed(clientSocket);
+                    continue;
+                }
+                final long admittedAt = ADMISSION.admit();
+                if (admittedAt < 0) {
+                    ADMISSION.closeConnection();
+                    shed(clientSocket);
+                    continue;
                 }
-                System.out.println("Received: " + inputLine);
-                if (!in.ready()) {
-                    break;
+                try {
+                    threadPool.submit(() -> handleClient(clientSocket, admittedAt));
+                } catch (RejectedExecutionException e) {
+                    ADMISSION.done();
+                    ADMISSION.closeConnection();
+                    shed(clientSocket);
+                }
+            } catch (IOException e) {
+                if (!listener.isOpen()) {
+                    return;
+                }
+                if (running) {
+                    System.err.println("Accept failed: " + e.getMessage());
                 }
             }
+        }
+    }
 
-            if (requri != null && requri.getPath().startsWith("/app")) {
-                String response = invokeService(requri);
-                out.println(response);
-            } else if (requri != null) {
-                serveStaticFile(requri.getPath(), rawOut);
+    /**
+     * Runs the HTTP server on the non-blocking transport. The number of event
+     * loops is read from EVENT_LOOPS (one per core by default) and the worker
+     * pool follows the EXECUTOR strategy.
+     *
+     * @param port the port number
+     */
+    private static void runNioServer(int port) {
+        int eventLoops = ServerConfig.getInt("EVENT_LOOPS", Runtime.getRuntime().availableProcessors());
+        ExecutorStrategy strategy = ExecutorStrategy.fromConfig();
+        ExecutorService workers = strategy.create();
+        ADMISSION.setPoolSize(strategy.threads());
+        ServerMetrics.watch(workers);
+        NioServer server = new NioServer(port, eventLoops, Listeners.acceptors(), workers);
+        try {
+            server.start();
+        } catch (IOException e) {
+            System.err.println("Could not listen on port: " + port);
+            workers.shutdown();
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("\nShutdown hook triggered. Stopping server...");
+            running = false;
+            server.stop();
+            workers.shutdown();
+            try {
+                if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+                    workers.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                workers.shutdownNow();
             }
-        } catch (Exception e) {
-            System.err.println("Error handling client: " + e.getMessage());
+            closeAccessLog();
+            System.out.println("Server stopped gracefully.");
+        }));
+        System.out.println("Server started on port " + port + " with " + server.getEventLoopCount()
+                + " event loops using the " + strategy.name().toLowerCase() + " executor. Press Ctrl+C to stop.");
+        try {
+            server.awaitTermination();
+        } catch (InterruptedException e) {
+            server.stop();
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdown();
+    }
+
+    /**
+     * Answers a connection that cannot be admitted with 503 and closes it,
+     * from the accepting thread. The response is small enough to fit in the
+     * socket buffer, so the write does not block.
+     *
+     * @param clientSocket the client socket
+     */
+    private static void shed(Socket clientSocket) {
+        try (OutputStream out = clientSocket.getOutputStream()) {
+            ADMISSION.writeOverloaded(out);
+            clientSocket.shutdownOutput();
+        } catch (IOException e) {
+            // The client is gone already
         } finally {
             try {
                 clientSocket.close();
@@ -155,128 +415,623 @@ public class HttpServer {
     }
 
     /**
-     * Invokes the appropriate service method based on the request URI.
+     * Handles a client connection. The connection is kept open for further
+     * requests (including pipelined ones) until the client asks to close it
+     * or reaches KEEP_ALIVE_MAX_REQUESTS. A connection that waited in the
+     * worker queue longer than ADMISSION_QUEUE_TIMEOUT_MS gets 503 for its
+     * first request instead.
+     * <p>
+     * Reads and writes run under the deadline of their {@link ConnectionPhase};
+     * when it passes, the timer thread closes the socket, which ends the
+     * blocked read or write and frees the worker thread.
+     *
+     * @param clientSocket the client socket
+     * @param admittedAt   the time the connection was admitted
+     */
+    private static void handleClient(Socket clientSocket, long admittedAt) {
+        boolean stale = !ADMISSION.begin(admittedAt);
+        ServerMetrics.connectionOpened();
+        TimerWheel.Timeout timeout = new TimerWheel.Timeout(() -> closeQuietly(clientSocket));
+        TIMEOUTS.schedule(timeout, ConnectionPhase.HEADER);
+        try (
+                InputStream in = clientSocket.getInputStream();
+                ResponseStream rawOut = ResponseStream.blocking(clientSocket, TIMEOUTS, timeout);) {
+            HttpRequestParser parser = new HttpRequestParser();
+            int served = 0;
+
+            try {
+                while (true) {
+                    long parseNanos = 0;
+                    while (true) {
+                        long start = System.nanoTime();
+                        boolean parsed = parser.parse();
+                        parseNanos += System.nanoTime() - start;
+                        if (parsed) {
+                            break;
+                        }
+                        if (timeout.getPhase() == ConnectionPhase.BODY && !parser.isSkippingBody()) {
+                            TIMEOUTS.schedule(timeout, parser.hasBufferedData() ? ConnectionPhase.HEADER
+                                    : ConnectionPhase.IDLE);
+                        }
+                        int n = parser.fill(in);
+                        if (n < 0) {
+                            rawOut.flush();
+                            return;
+                        }
+                        ServerMetrics.bytesIn(n);
+                        if (timeout.getPhase() == ConnectionPhase.BODY) {
+                            // The limit of a body restarts with every read
+                            TIMEOUTS.schedule(timeout, ConnectionPhase.BODY);
+                        } else if (timeout.getPhase() == ConnectionPhase.IDLE) {
+                            TIMEOUTS.schedule(timeout, ConnectionPhase.HEADER);
+                        }
+                    }
+                    TIMEOUTS.cancel(timeout);
+                    ServerMetrics.parsed(parseNanos);
+                    HttpRequest request = parser.request();
+                    if (LOG_HEADERS) {
+                        logHeaders(request);
+                    }
+                    if (stale) {
+                        ADMISSION.writeOverloaded(rawOut);
+                        break;
+                    }
+
+                    if (parser.hasBody()) {
+                        readBody(parser, in, rawOut, timeout);
+                    }
+
+                    served++;
+                    boolean keepAlive = running && served < KEEP_ALIVE_MAX_REQUESTS && isKeepAlive(request);
+                    try {
+                        handleRequest(request, rawOut, keepAlive);
+                    } finally {
+                        request.getBody().release();
+                    }
+                    if (!keepAlive || rawOut.closeAfterResponse) {
+                        break;
+                    }
+                    parser.next();
+                    if (!parser.hasBufferedData()) {
+                        // Pipelined requests already buffered are answered
+                        // before flushing, so their responses share a write.
+                        rawOut.flush();
+                    }
+                    TIMEOUTS.schedule(timeout, parser.isSkippingBody() ? ConnectionPhase.BODY
+                            : parser.hasBufferedData() ? ConnectionPhase.HEADER : ConnectionPhase.IDLE);
+                }
+            } catch (HttpParseException e) {
+                sendError(rawOut, e.getStatusCode(), e.getStatusMessage());
+            }
+            rawOut.flush();
+        } catch (Exception e) {
+            if (!timeout.hasExpired()) {
+                System.err.println("Error handling client: " + e.getMessage());
+            }
+        } finally {
+            TIMEOUTS.cancel(timeout);
+            ADMISSION.done();
+            ADMISSION.closeConnection();
+            ServerMetrics.connectionClosed();
+            closeQuietly(clientSocket);
+        }
+    }
+
+    /**
+     * Reads the body of the current request under the BODY deadline, which
+     * restarts with every read, and attaches it to the request. A client
+     * that sent Expect: 100-continue is told to go on first.
      *
-     * @param requri the request URI
-     * @return the HTTP response as a string
+     * @param parser  the parser holding the request head
+     * @param in      the socket input
+     * @param rawOut  the socket output
+     * @param timeout the deadline of the connection
+     * @throws HttpParseException if the body is malformed or too large
+     * @throws IOException        if the connection ends before the body does
      */
-    private static String invokeService(URI requri) {
-        String header = "HTTP/1.1 200 OK\n\r"
-                + "content-type: text/html\n\r"
-                + "\n\r";
+    private static void readBody(HttpRequestParser parser, InputStream in, OutputStream rawOut,
+            TimerWheel.Timeout timeout) throws IOException {
+        HttpRequest request = parser.request();
+        BodyDecoder decoder = parser.bodyDecoder();
         try {
-            HttpRequest req = new HttpRequest(requri);
-            HttpResponse res = new HttpResponse();
-            String servicePath = requri.getPath().substring(4);
-            Method m = services.get(servicePath);
-            String[] argValues = null;
-            RequestParam rp = (RequestParam) m.getParameterAnnotations()[0][0];
-            if (requri.getQuery() == null) {
-                argValues = new String[] { rp.defaultValue() };
-            } else {
-                String queryParamName = rp.value();
-                argValues = new String[] { req.getValue(queryParamName) };
+            if (!parser.feedBody(decoder)) {
+                if (request.hasHeaderValue("Expect", "100-continue")) {
+                    rawOut.write(CONTINUE);
+                    rawOut.flush();
+                }
+                do {
+                    TIMEOUTS.schedule(timeout, ConnectionPhase.BODY);
+                    int n = parser.fill(in);
+                    if (n < 0) {
+                        throw new EOFException("Connection closed before the end of the request body");
+                    }
+                    ServerMetrics.bytesIn(n);
+                } while (!parser.feedBody(decoder));
+                TIMEOUTS.cancel(timeout);
             }
-            return header + m.invoke(null, argValues);
+            request.setBody(decoder.finish());
+        } catch (IOException e) {
+            decoder.discard();
+            throw e;
+        }
+    }
 
-        } catch (IllegalAccessException ex) {
-            System.getLogger(HttpServer.class.getName()).log(System.Logger.Level.ERROR, (String) null, ex);
-        } catch (InvocationTargetException ex) {
-            System.getLogger(HttpServer.class.getName()).log(System.Logger.Level.ERROR, (String) null, ex);
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    /**
+     * Writes the records still waiting in the access log.
+     */
+    private static void closeAccessLog() {
+        if (ACCESS_LOG != null) {
+            ACCESS_LOG.close();
         }
-        return header + "Error!";
     }
 
     /**
-     * Serves a static file to the client.
+     * Prints the request path and header lines, when LOG_HEADERS is set.
      *
-     * @param path   the file path
-     * @param rawOut the output stream to write the response
+     * @param request the parsed request
      */
-    private static void serveStaticFile(String path, OutputStream rawOut) throws IOException {
-        if (path.equals("/")) {
-            path = "/index.html";
+    static void logHeaders(HttpRequest request) {
+        System.out.println("Path: " + request.getPath());
+        for (int i = 0; i < request.getHeaderCount(); i++) {
+            System.out.println("Received: " + request.getHeaderName(i) + ": " + request.getHeaderValue(i));
         }
+    }
 
+    /**
+     * Decides whether a connection can be reused after a request.
+     *
+     * @param request the parsed request
+     * @return true if the connection should stay open
+     */
+    static boolean isKeepAlive(HttpRequest request) {
+        String version = request.getVersion();
+        if ("HTTP/1.1".equals(version)) {
+            return !request.hasHeaderValue("Connection", "close");
+        }
+        return "HTTP/1.0".equals(version) && request.hasHeaderValue("Connection", "keep-alive");
+    }
+
+    /**
+     * Writes the response for a parsed request. Paths under /app are routed to
+     * the registered services, /metrics answers with the server metrics and
+     * everything else is served from the webroot. Every response is framed
+     * with Content-Length so the connection can be reused; the caller is
+     * responsible for flushing.
+     * <p>
+     * The time spent finding and running the handler and the time spent
+     * writing the response are recorded in the metrics of the route, and in a
+     * {@link RequestEvent} when a flight recording asks for it. The request is
+     * then handed to the access log.
+     *
+     * @param request   the parsed request
+     * @param rawOut    the output stream to write the response
+     * @param keepAlive whether the connection stays open after this response
+     */
+    static void handleRequest(HttpRequest request, OutputStream rawOut, boolean keepAlive) throws IOException {
+        handleRequest(request, rawOut, keepAlive, null);
+    }
+
+    /**
+     * Handles a request like {@link #handleRequest(HttpRequest, OutputStream, boolean)},
+     * except that a service returning a CompletableFuture does not hold the
+     * calling thread: its response is written by the executor once the future
+     * completes. Without an executor the calling thread waits for it.
+     * <p>
+     * The future must complete within the timeout of its route, or
+     * ASYNC_TIMEOUT_MS, or the client gets 503. Cancelling the returned future,
+     * as the transport does when the client disconnects, cancels the one of
+     * the service.
+     *
+     * @param request   the parsed request
+     * @param rawOut    the output stream to write the response
+     * @param keepAlive whether the connection stays open after this response
+     * @param executor  the executor that writes deferred responses, or null
+     * @return a future completed once a deferred response is written, or null
+     *         if the response was written before returning
+     */
+    static CompletableFuture<Void> handleRequest(HttpRequest request, OutputStream rawOut, boolean keepAlive,
+            Executor executor) throws IOException {
+        RequestEvent event = new RequestEvent();
+        event.begin();
+        long start = System.nanoTime();
+        long dispatched = start;
+        long sentBefore = rawOut instanceof ResponseStream ? ((ResponseStream) rawOut).written : -1;
+        RouteMetrics metrics = ServerMetrics.STATIC;
+        int status = 500;
+        String path = request.getPath();
+        boolean deferred = false;
         try {
-            URL fileURL = HttpServer.class.getClassLoader().getResource("webroot" + path);
-            if (fileURL == null) {
-                send404(rawOut);
-                return;
+            if (path.equals("/app") || path.startsWith("/app/")) {
+                HttpResponse response = invokeService(request);
+                RouteMatch match = request.routeMatch();
+                metrics = match.getStatus() == RouteMatch.FOUND ? match.getRoute().getMetrics()
+                        : ServerMetrics.UNMATCHED;
+                CompletableFuture<?> pending = response.getPending();
+                if (pending != null) {
+                    long timeout = match.getRoute().getTimeoutMillis();
+                    pending.orTimeout(timeout > 0 ? timeout : ASYNC_TIMEOUT, TimeUnit.MILLISECONDS);
+                    if (executor != null) {
+                        deferred = true;
+                        return writeLater(request, response, rawOut, keepAlive, executor, event, metrics, start,
+                                sentBefore);
+                    }
+                    try {
+                        complete(response, pending.get(), null);
+                    } catch (ExecutionException e) {
+                        complete(response, null, e.getCause());
+                    } catch (InterruptedException e) {
+                        pending.cancel(true);
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the service");
+                    }
+                }
+                dispatched = System.nanoTime();
+                status = response.getStatusCode();
+                response.setHeader("Connection", keepAlive ? "keep-alive" : "close");
+                writeResponse(request, response, rawOut);
+            } else if (METRICS_ENABLED && path.equals(METRICS_PATH)) {
+                HttpResponse response = new HttpResponse();
+                response.setHeader("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                response.setBody(ServerMetrics.scrape(router.getRoutes(), getResultCaches()));
+                dispatched = System.nanoTime();
+                metrics = ServerMetrics.SCRAPE;
+                status = response.getStatusCode();
+                response.setHeader("Connection", keepAlive ? "keep-alive" : "close");
+                writeResponse(request, response, rawOut);
+            } else {
+                StaticFileCache.Entry entry = findStaticFile(path);
+                dispatched = System.nanoTime();
+                status = serveStaticFile(request, entry, rawOut, keepAlive);
+            }
+        } finally {
+            // A deferred response is recorded once it is written
+            if (!deferred) {
+                record(request, rawOut, event, metrics, status, start, dispatched, sentBefore);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the response of a service once its future completes, on the
+     * given executor.
+     *
+     * @return a future completed once the response is written; cancelling it
+     *         stops waiting for the service, whose own future is left alone,
+     *         and it still completes only after the response is written, with
+     *         503, so the output is free
+     */
+    private static CompletableFuture<Void> writeLater(HttpRequest request, HttpResponse response, OutputStream rawOut,
+            boolean keepAlive, Executor executor, RequestEvent event, RouteMetrics metrics, long start,
+            long sentBefore) {
+        CompletableFuture<?> pending = response.getPending();
+        CompletableFuture<Void> written = new CompletableFuture<>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                return pending.cancel(mayInterruptIfRunning);
+            }
+        };
+        pending.whenCompleteAsync((value, error) -> {
+            long dispatched = System.nanoTime();
+            complete(response, value, error);
+            int status = response.getStatusCode();
+            try {
+                response.setHeader("Connection", keepAlive ? "keep-alive" : "close");
+                writeResponse(request, response, rawOut);
+                written.complete(null);
+            } catch (IOException | RuntimeException e) {
+                written.completeExceptionally(e);
+            } finally {
+                record(request, rawOut, event, metrics, status, start, dispatched, sentBefore);
+            }
+        }, executor);
+        return written;
+    }
+
+    /**
+     * Records a served request in the metrics of its route, in a
+     * {@link RequestEvent} when a flight recording asks for it, and in the
+     * access log.
+     */
+    private static void record(HttpRequest request, OutputStream rawOut, RequestEvent event, RouteMetrics metrics,
+            int status, long start, long dispatched, long sentBefore) {
+        long end = System.nanoTime();
+        String path = request.getPath();
+        metrics.dispatch.record(dispatched - start);
+        metrics.write.record(end - dispatched);
+        ServerMetrics.status(status);
+        event.end();
+        if (event.shouldCommit()) {
+            event.route = metrics.getName();
+            event.path = path;
+            event.status = status;
+            event.dispatchTime = dispatched - start;
+            event.writeTime = end - dispatched;
+            event.commit();
+        }
+        if (ACCESS_LOG != null) {
+            long sent = sentBefore < 0 ? -1 : ((ResponseStream) rawOut).written - sentBefore;
+            ACCESS_LOG.log(request.getMethod(), path, status, sent, end - start);
+        }
+    }
+
+    /**
+     * Writes a service response, compressing bodies of at least
+     * COMPRESSION_MIN_BYTES when the client accepts gzip or deflate. Bodies of
+     * at least COMPRESSION_STREAM_BYTES are compressed while they are written,
+     * with chunked framing, instead of being compressed into a buffer first.
+     *
+     * @param request  the parsed request
+     * @param response the response to send
+     * @param rawOut   the output stream to write the response
+     */
+    static void writeResponse(HttpRequest request, HttpResponse response, OutputStream rawOut) throws IOException {
+        if (response.getStreamingBody() != null) {
+            writeStreamingBody(request, response, rawOut);
+            return;
+        }
+        byte[] body = response.getBodyBytes();
+        if (body.length < COMPRESSION_MIN_BYTES) {
+            ResponseEncoder.write(response, body, 0, body.length, rawOut);
+            return;
+        }
+        response.setHeader("Vary", "Accept-Encoding");
+        String encoding = ContentEncoding.negotiate(request);
+        if (encoding == null) {
+            ResponseEncoder.write(response, body, 0, body.length, rawOut);
+            return;
+        }
+        response.setHeader("Content-Encoding", encoding);
+        if (body.length >= COMPRESSION_STREAM_BYTES && "HTTP/1.1".equals(request.getVersion())) {
+            response.removeHeader("Content-Length");
+            response.setHeader("Transfer-Encoding", "chunked");
+            ResponseEncoder.write(response, null, 0, 0, rawOut);
+            try (OutputStream out = ContentEncoding.wrap(new ChunkedOutputStream(rawOut), encoding)) {
+                out.write(body);
             }
+            return;
+        }
+        byte[] compressed = ContentEncoding.encode(body, encoding);
+        response.setHeader("Content-Length", String.valueOf(compressed.length));
+        ResponseEncoder.write(response, compressed, 0, compressed.length, rawOut);
+    }
 
-            File file = new File(fileURL.toURI());
-            if (!file.exists() || file.isDirectory()) {
-                send404(rawOut);
-                return;
+    /**
+     * Writes a response whose body is produced while it is sent. The head is
+     * flushed first; the body then goes out through a buffer of
+     * STREAM_BUFFER_BYTES, with chunked framing on HTTP/1.1, and every time
+     * the buffer fills or the body flushes, the data reaches the socket.
+     * HTTP/1.0 has no chunked coding, so the body ends when the connection
+     * closes, even if the client asked to keep it; the transport is told
+     * through {@link ResponseStream#closeAfterResponse}.
+     *
+     * @param request  the parsed request
+     * @param response the response with a streaming body
+     * @param rawOut   the output stream to write the response
+     * @throws IOException if the body fails after the head was sent, so the
+     *                     caller drops the connection and the client sees an
+     *                     incomplete response
+     */
+    private static void writeStreamingBody(HttpRequest request, HttpResponse response, OutputStream rawOut)
+            throws IOException {
+        StreamingBody body = response.getStreamingBody();
+        boolean chunked = "HTTP/1.1".equals(request.getVersion());
+        if (chunked) {
+            response.setHeader("Transfer-Encoding", "chunked");
+        } else {
+            response.setHeader("Connection", "close");
+            if (rawOut instanceof ResponseStream) {
+                ((ResponseStream) rawOut).closeAfterResponse = true;
             }
+        }
+        ResponseEncoder.write(response, null, 0, 0, rawOut);
+        rawOut.flush();
+        ChunkedOutputStream framing = chunked ? new ChunkedOutputStream(rawOut) : null;
+        BodyOutputStream sink = new BodyOutputStream(chunked ? framing : rawOut, STREAM_BUFFER_BYTES);
+        try {
+            body.writeTo(sink);
+        } catch (RuntimeException e) {
+            throw new IOException("Streaming body failed", e);
+        }
+        sink.flush();
+        if (chunked) {
+            framing.close();
+        }
+    }
 
-            String mimeType = guessContentType(path);
-            byte[] data = readFileBytes(file);
+    /**
+     * Invokes the appropriate service method based on the request URI. When
+     * the service returns a {@link CompletionStage}, the response is left
+     * pending on it; see {@link HttpResponse#getPending()}.
+     *
+     * @param req the parsed request
+     * @return the HTTP response
+     */
+    static HttpResponse invokeService(HttpRequest req) {
+        HttpResponse res = new HttpResponse();
+        res.setHeader("Content-Type", "text/html; charset=UTF-8");
+        RouteMatch match = router.find(req.getMethod(), req.getPath(), 4, req.routeMatch());
+        if (match.getStatus() == RouteMatch.NOT_FOUND) {
+            res.setStatus(404, "Not Found");
+            res.setBody("<h1>404 Not Found</h1>");
+            return res;
+        }
+        if (match.getStatus() == RouteMatch.METHOD_NOT_ALLOWED) {
+            res.setStatus(405, "Method Not Allowed");
+            res.setHeader("Allow", match.getAllow());
+            res.setBody("<h1>405 Method Not Allowed</h1>");
+            return res;
+        }
+        try {
+            Object result = match.getRoute().invoke(req);
+            if (result instanceof CompletionStage) {
+                // A copy, so this request's timeout or cancellation does not fail a future shared with others
+                res.setPending(((CompletionStage<?>) result).toCompletableFuture().copy());
+            } else {
+                setResult(res, result);
+            }
+            return res;
+        } catch (Exception ex) {
+            complete(res, null, ex);
+            return res;
+        }
+    }
 
-            String header = "HTTP/1.1 200 OK\r\n"
-                    + "Content-Type: " + mimeType + "\r\n"
-                    + "Content-Length: " + data.length + "\r\n"
-                    + "\r\n";
+    /**
+     * Completes a response with the outcome of its service. A service that
+     * did not finish in time, or was cancelled, gets 503.
+     *
+     * @param res    the response
+     * @param result the value returned by the service
+     * @param error  the failure of the service, or null if it returned
+     */
+    static void complete(HttpResponse res, Object result, Throwable error) {
+        res.setPending(null);
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error == null) {
+            setResult(res, result);
+        } else if (error instanceof TimeoutException || error instanceof CancellationException) {
+            res.setStatus(503, "Service Unavailable");
+            res.setBody("Service Unavailable");
+        } else if (error instanceof HttpParseException) {
+            HttpParseException ex = (HttpParseException) error;
+            res.setStatus(ex.getStatusCode(), ex.getStatusMessage());
+            res.setBody(ex.getStatusMessage());
+        } else {
+            System.getLogger(HttpServer.class.getName()).log(System.Logger.Level.ERROR, (String) null, error);
+            res.setStatus(500, "Internal Server Error");
+            res.setBody("Error!");
+        }
+    }
 
-            rawOut.write(header.getBytes());
-            rawOut.write(data);
-            rawOut.flush();
+    private static void setResult(HttpResponse res, Object result) {
+        if (result instanceof StreamingBody) {
+            res.setBody((StreamingBody) result);
+        } else if (result instanceof Stream) {
+            res.setHeader("Content-Type", "text/plain; charset=UTF-8");
+            res.setStream((Stream<?>) result);
+        } else {
+            res.setBody(String.valueOf(result));
+        }
+    }
 
-        } catch (Exception e) {
-            send404(rawOut);
+    /**
+     * Serves a static file to the client from the webroot cache, answering
+     * conditional requests for an unchanged file with 304 Not Modified and a
+     * single Range with 206 Partial Content. Text files are sent with their
+     * cached gzip or deflate variant when the client accepts one, except for
+     * range requests, which always address the uncompressed file. Files too
+     * large to be cached are streamed from disk without being loaded into the
+     * heap.
+     *
+     * @param request   the parsed request
+     * @param entry     the cached file, or null if there is none
+     * @param rawOut    the output stream to write the response
+     * @param keepAlive whether the connection stays open after this response
+     * @return the status code sent
+     */
+    static int serveStaticFile(HttpRequest request, StaticFileCache.Entry entry, OutputStream rawOut,
+            boolean keepAlive) throws IOException {
+        if (entry == null) {
+            send404(rawOut, keepAlive);
+            return 404;
+        }
+        String rangeHeader = request.getHeader("Range");
+        StaticFileCache.Variant variant = rangeHeader == null ? entry.variant(ContentEncoding.negotiate(request))
+                : null;
+        if (variant != null) {
+            if (entry.isNotModified(request, variant.etag)) {
+                ResponseEncoder.write(variant.notModifiedHead(keepAlive), null, 0, 0, rawOut);
+                return 304;
+            }
+            byte[] body = variant.body();
+            ResponseEncoder.write(variant.head(keepAlive), body, 0, body.length, rawOut);
+            return 200;
         }
+        if (entry.isNotModified(request)) {
+            ResponseEncoder.write(entry.notModifiedHead(keepAlive), null, 0, 0, rawOut);
+            return 304;
+        }
+        ByteRange range = ByteRange.parse(rangeHeader, entry.length);
+        if (range != null && !entry.isRangeValid(request)) {
+            range = null;
+        }
+        if (range == ByteRange.UNSATISFIABLE) {
+            ResponseEncoder.write(entry.unsatisfiableHead(keepAlive), null, 0, 0, rawOut);
+            return 416;
+        }
+        long start = range == null ? 0 : range.start;
+        long count = range == null ? entry.length : range.length();
+        byte[] head = range == null ? entry.head(keepAlive) : entry.partialHead(range, keepAlive);
+        byte[] body = entry.body();
+        if (body != null) {
+            ResponseEncoder.write(head, body, (int) start, (int) count, rawOut);
+        } else {
+            ResponseEncoder.write(head, null, 0, 0, rawOut);
+            ResponseStream.transfer(rawOut, entry.file.toPath(), start, count);
+        }
+        return range == null ? 200 : 206;
     }
 
     /**
-     * Sends a 404 Not Found response.
+     * Looks a path up in the webroot cache.
      *
-     * @param rawOut the output stream to write the response
+     * @param path the request path; / stands for /index.html
+     * @return the cached file, or null if there is none
      */
-    private static void send404(OutputStream rawOut) throws IOException {
-        String notFound = "HTTP/1.1 404 Not Found\r\n"
-                + "Content-Type: text/html\r\n\r\n"
-                + "<h1>404 Not Found</h1>";
-        rawOut.write(notFound.getBytes());
-        rawOut.flush();
+    static StaticFileCache.Entry findStaticFile(String path) {
+        if (path.equals("/")) {
+            path = "/index.html";
+        }
+        try {
+            return STATIC_FILES.get(path);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static byte[] notFoundHead(String connection) {
+        return ("HTTP/1.1 404 Not Found\r\n"
+                + "Content-Type: text/html\r\n"
+                + "Content-Length: " + NOT_FOUND_BODY.length + "\r\n"
+                + "Connection: " + connection + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
     }
 
     /**
-     * Reads the bytes of a file.
+     * Sends a 404 Not Found response.
      *
-     * @param file the file to read
-     * @return the file contents as a byte array
-     */
-    private static byte[] readFileBytes(File file) throws IOException {
-        FileInputStream fis = new FileInputStream(file);
-        byte[] data = fis.readAllBytes();
-        fis.close();
-        return data;
+     * @param rawOut    the output stream to write the response
+     * @param keepAlive whether the connection stays open after this response
+     */
+    private static void send404(OutputStream rawOut, boolean keepAlive) throws IOException {
+        ResponseEncoder.write(keepAlive ? NOT_FOUND_KEEP_ALIVE : NOT_FOUND_CLOSE, NOT_FOUND_BODY, 0,
+                NOT_FOUND_BODY.length, rawOut);
     }
 
     /**
-     * Guesses the content type based on the file extension.
+     * Sends an error response and asks the client to close the connection.
      *
-     * @param path the file path
-     * @return the guessed content type
-     */
-    private static String guessContentType(String path) {
-        if (path.endsWith(".html") || path.endsWith(".htm")) {
-            return "text/html";
-        } else if (path.endsWith(".css")) {
-            return "text/css";
-        } else if (path.endsWith(".js")) {
-            return "application/javascript";
-        } else if (path.endsWith(".png")) {
-            return "image/png";
-        } else if (path.endsWith(".jpg") || path.endsWith(".jpeg")) {
-            return "image/jpeg";
-        } else if (path.endsWith(".gif")) {
-            return "image/gif";
-        } else if (path.endsWith(".ico")) {
-            return "image/x-icon";
-        }
-        return "application/octet-stream";
+     * @param rawOut        the output stream to write the response
+     * @param statusCode    HTTP status code
+     * @param statusMessage HTTP status message
+     */
+    static void sendError(OutputStream rawOut, int statusCode, String statusMessage) throws IOException {
+        ServerMetrics.status(statusCode);
+        HttpResponse error = new HttpResponse();
+        error.setStatus(statusCode, statusMessage);
+        error.removeHeader("Content-Type");
+        error.setHeader("Content-Length", "0");
+        ResponseEncoder.write(error, null, 0, 0, rawOut);
     }
 
     /**
@@ -331,7 +1086,7 @@ public class HttpServer {
                 + "</script>\n"
                 + " \n"
                 + "<h1>Form with POST</h1>\n"
-                + "<form action=\"/hellopost\">\n"
+                + "<form action=\"/app/hellopost\">\n"
                 + "<label for=\"postname\">Name:</label><br>\n"
                 + "<input type=\"text\" id=\"postname\" name=\"name\" value=\"John\"><br><br>\n"
                 + "<input type=\"button\" value=\"Submit\" onclick=\"loadPostMsg(postname)\">\n"
@@ -341,9 +1096,9 @@ public class HttpServer {
                 + " \n"
                 + "<script>\n"
                 + "function loadPostMsg(name){\n"
-                + "let url = \"/hellopost?name=\" + name.value;\n"
+                + "let url = \"/app/hellopost\";\n"
                 + " \n"
-                + "fetch (url, {method: 'POST'})\n"
+                + "fetch (url, {method: 'POST', body: name.value})\n"
                 + ".then(x => x.text())\n"
                 + ".then(y => document.getElementById(\"postrespmsg\").innerHTML = y);\n"
                 + "}\n"
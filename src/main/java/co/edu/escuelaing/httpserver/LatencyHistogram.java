@@ -0,0 +1,175 @@
+package co.edu.escuelaing.httpserver;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear latency histogram in the style of HdrHistogram. Every power of
+ * two of microseconds is split into SUB_BUCKETS equal buckets, so a recorded
+ * value is known within 25% at any scale, from one microsecond to hours,
+ * with a fixed number of buckets. Buckets are striped {@link LongAdder}s, so
+ * threads recording at the same time on different cores do not contend.
+ *
+ * @author sergio.bejarano-r
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 2;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /**
+     * Largest power of two of microseconds tracked; longer values are
+     * counted in the last bucket.
+     */
+    private static final int MAX_OCTAVE = 36;
+
+    /**
+     * Largest power of two of microseconds exported as a Prometheus bucket
+     * bound, about 67 seconds.
+     */
+    static final int EXPORTED_OCTAVES = 26;
+
+    private static final int BUCKETS = (MAX_OCTAVE - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder sumNanos = new LongAdder();
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts[index(nanos / 1000)].increment();
+        sumNanos.add(nanos);
+    }
+
+    static int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int octave = 63 - Long.numberOfLeadingZeros(micros);
+        if (octave > MAX_OCTAVE) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (octave - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (octave - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Gets the exclusive upper bound of a bucket.
+     *
+     * @param index the bucket index
+     * @return the bound in microseconds
+     */
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index + 1;
+        }
+        int octave = index / SUB_BUCKETS - 1 + SUB_BITS;
+        int sub = index % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub + 1) << (octave - SUB_BITS);
+    }
+
+    /**
+     * Gets the number of recorded values.
+     *
+     * @return the count
+     */
+    long count() {
+        long total = 0;
+        for (LongAdder c : counts) {
+            total += c.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Gets the sum of the recorded values.
+     *
+     * @return the sum in nanoseconds
+     */
+    long sumNanos() {
+        return sumNanos.sum();
+    }
+
+    /**
+     * Estimates a percentile as the upper bound of the bucket that reaches it.
+     *
+     * @param fraction the percentile, between 0 and 1
+     * @return the estimate in microseconds, or 0 if nothing was recorded
+     */
+    long percentile(double fraction) {
+        long[] snapshot = snapshot();
+        long total = 0;
+        for (long c : snapshot) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(snapshot.length - 1);
+    }
+
+    /**
+     * Appends the histogram in Prometheus text format, with one bucket per
+     * power of two of microseconds.
+     *
+     * @param out    the exposition being built
+     * @param name   the metric name, without suffix
+     * @param labels the labels, such as {@code route="/square"}, or empty
+     */
+    void writePrometheus(StringBuilder out, String name, String labels) {
+        long[] snapshot = snapshot();
+        String separator = labels.isEmpty() ? "" : ",";
+        long cumulative = 0;
+        int next = 0;
+        for (int octave = 0; octave <= EXPORTED_OCTAVES; octave++) {
+            int end = index(1L << octave);
+            while (next < end) {
+                cumulative += snapshot[next++];
+            }
+            out.append(name).append("_bucket{").append(labels).append(separator).append("le=\"")
+                    .append((1L << octave) / 1e6).append("\"} ").append(cumulative).append('\n');
+        }
+        while (next < snapshot.length) {
+            cumulative += snapshot[next++];
+        }
+        out.append(name).append("_bucket{").append(labels).append(separator).append("le=\"+Inf\"} ")
+                .append(cumulative).append('\n');
+        out.append(name).append("_sum");
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(sumNanos() / 1e9).append('\n');
+        out.append(name).append("_count");
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(cumulative).append('\n');
+    }
+
+    private long[] snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts[i].sum();
+        }
+        return snapshot;
+    }
+}
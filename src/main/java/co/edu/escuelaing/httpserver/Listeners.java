@@ -0,0 +1,97 @@
+package co.edu.escuelaing.httpserver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * Opens the listening sockets of the server. With several acceptors, each gets
+ * its own socket bound to the same port with SO_REUSEPORT, so the kernel
+ * spreads new connections across them and no acceptor waits on a shared
+ * accept queue. Where the option is not supported a single socket is opened
+ * and the acceptors share it.
+ *
+ * @author sergio.bejarano-r
+ */
+final class Listeners {
+
+    private Listeners() {
+    }
+
+    /**
+     * Gets the number of acceptors to run, from ACCEPTORS (one per core, up
+     * to four, by default).
+     *
+     * @return the acceptor count
+     */
+    static int acceptors() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, ServerConfig.getInt("ACCEPTORS", Math.min(4, cores)));
+    }
+
+    /**
+     * Opens the listening sockets, in blocking mode.
+     *
+     * @param port      the port, 0 for any free port
+     * @param acceptors the number of acceptors that will use them
+     * @return one socket per acceptor with SO_REUSEPORT, otherwise a single
+     *         shared socket
+     * @throws IOException if the port cannot be bound
+     */
+    static ServerSocketChannel[] open(int port, int acceptors) throws IOException {
+        ServerSocketChannel first = ServerSocketChannel.open();
+        boolean reusePort = acceptors > 1
+                && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        if (!reusePort) {
+            first.bind(new InetSocketAddress(port));
+            return new ServerSocketChannel[] { first };
+        }
+        ServerSocketChannel[] channels = new ServerSocketChannel[acceptors];
+        try {
+            first.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            first.bind(new InetSocketAddress(port));
+            channels[0] = first;
+            // With port 0 the others join the port the first one got
+            int bound = ((InetSocketAddress) first.getLocalAddress()).getPort();
+            for (int i = 1; i < acceptors; i++) {
+                channels[i] = ServerSocketChannel.open();
+                channels[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                channels[i].bind(new InetSocketAddress(bound));
+            }
+            return channels;
+        } catch (IOException | RuntimeException e) {
+            close(channels);
+            first.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Tells whether the sockets are shared by the acceptors.
+     *
+     * @param channels  the sockets returned by {@link #open(int, int)}
+     * @param acceptors the number of acceptors
+     * @return true if there are fewer sockets than acceptors
+     */
+    static boolean isShared(ServerSocketChannel[] channels, int acceptors) {
+        return channels.length < acceptors;
+    }
+
+    /**
+     * Closes the listening sockets, ignoring failures.
+     *
+     * @param channels the sockets, some of which may be null
+     */
+    static void close(ServerSocketChannel[] channels) {
+        for (ServerSocketChannel channel : channels) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+}
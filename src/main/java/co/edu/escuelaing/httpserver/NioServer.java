@@ -0,0 +1,937 @@
+package co.edu.escuelaing.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Non-blocking transport for the HTTP server. A fixed number of event loops,
+ * each owning its own {@link Selector}, accept connections, read and parse
+ * requests and write responses. Only the request processing itself (static
+ * files and controller invocation) runs on the worker pool, so idle or slow
+ * connections cost a selection key and a small buffer instead of a thread.
+ * A controller returning a CompletableFuture gives its worker back as well;
+ * the response is written when the future completes.
+ *
+ * @author sergio.bejarano-r
+ */
+public class NioServer {
+
+    /**
+     * Bytes a streamed response may hand to its event loop before the worker
+     * producing it waits for the socket to take them.
+     */
+    private static final int STREAM_HIGH_WATER_BYTES = 64 * 1024;
+
+    private final int port;
+    private final int acceptors;
+    private final ExecutorService workers;
+    private final EventLoop[] loops;
+    private ServerSocketChannel[] listeners = new ServerSocketChannel[0];
+    private volatile boolean running = true;
+
+    /**
+     * Creates a non-blocking server with a single acceptor.
+     *
+     * @param port       the port number
+     * @param eventLoops the number of event loop threads
+     * @param workers    the pool that processes parsed requests
+     */
+    public NioServer(int port, int eventLoops, ExecutorService workers) {
+        this(port, eventLoops, 1, workers);
+    }
+
+    /**
+     * Creates a non-blocking server.
+     *
+     * @param port       the port number
+     * @param eventLoops the number of event loop threads
+     * @param acceptors  the number of event loops that accept connections,
+     *                   each on its own SO_REUSEPORT socket where supported
+     * @param workers    the pool that processes parsed requests
+     */
+    public NioServer(int port, int eventLoops, int acceptors, ExecutorService workers) {
+        this.port = port;
+        this.workers = workers;
+        this.loops = new EventLoop[Math.max(1, eventLoops)];
+        this.acceptors = Math.max(1, Math.min(acceptors, loops.length));
+    }
+
+    /**
+     * Binds the listening sockets and starts the event loop threads. Each
+     * acceptor registers its socket, or the shared one, on its own loop.
+     */
+    public void start() throws IOException {
+        listeners = Listeners.open(port, acceptors);
+        for (ServerSocketChannel listener : listeners) {
+            listener.configureBlocking(false);
+        }
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(i);
+        }
+        for (int i = 0; i < acceptors; i++) {
+            EventLoop loop = loops[i];
+            ServerSocketChannel listener = listeners[i % listeners.length];
+            loop.execute(() -> loop.registerAcceptor(listener));
+        }
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+    }
+
+    /**
+     * Waits until every event loop has stopped.
+     */
+    public void awaitTermination() throws InterruptedException {
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.thread.join();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections and closes the event loops.
+     */
+    public void stop() {
+        running = false;
+        Listeners.close(listeners);
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.selector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * Gets the port the server is listening on, useful when it was started on
+     * port 0.
+     *
+     * @return the bound port
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) listeners[0].getLocalAddress()).getPort();
+    }
+
+    /**
+     * Gets the number of event loops.
+     *
+     * @return the event loop count
+     */
+    public int getEventLoopCount() {
+        return loops.length;
+    }
+
+    /**
+     * Processes a parsed request on a worker thread, writing the response as a
+     * sequence of byte buffers and file regions. A response waiting for an
+     * asynchronous service is written later by the worker pool.
+     *
+     * @param request   the parsed request
+     * @param out       the response output
+     * @param keepAlive whether the connection stays open after the response
+     * @return a future completed once the response is written, exceptionally
+     *         if it could not be completed
+     */
+    private CompletableFuture<Void> process(HttpRequest request, QueuedResponse out, boolean keepAlive) {
+        try {
+            CompletableFuture<Void> written = HttpServer.handleRequest(request, out, keepAlive, workers);
+            return written != null ? written : CompletableFuture.completedFuture(null);
+        } catch (Exception e) {
+            System.err.println("Error handling client: " + e.getMessage());
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Answers a request that waited too long in the worker queue with 503.
+     *
+     * @param out the response output
+     * @return a failed future, so the connection is closed after the response
+     */
+    private static CompletableFuture<Void> shedStale(QueuedResponse out) {
+        try {
+            HttpServer.ADMISSION.writeOverloaded(out);
+        } catch (IOException e) {
+            // Cannot happen before the response is flushed
+        }
+        return CompletableFuture.failedFuture(new IOException("Overloaded"));
+    }
+
+    /**
+     * Answers a connection over MAX_CONNECTIONS with 503 and closes it. The
+     * response is small enough to fit in the socket buffer.
+     *
+     * @param client the accepted channel
+     */
+    private static void shed(SocketChannel client) {
+        try {
+            client.write(HttpServer.ADMISSION.overloaded());
+            client.shutdownOutput();
+        } catch (IOException e) {
+            // The client is gone already
+        }
+        close(client);
+    }
+
+    /**
+     * Single-threaded selector loop. Every channel registered on a loop is only
+     * touched by that loop's thread; other threads hand work over with
+     * {@link #execute(Runnable)}.
+     */
+    private final class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+        private final TimerWheel wheel = new TimerWheel(HttpServer.TIMER_TICK, 512);
+        private int nextLoop;
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.nextLoop = index;
+            this.thread = new Thread(this, "nio-loop-" + index);
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void registerAcceptor(ServerSocketChannel channel) {
+            try {
+                channel.register(selector, SelectionKey.OP_ACCEPT);
+            } catch (IOException e) {
+                System.err.println("Could not register acceptor: " + e.getMessage());
+            }
+        }
+
+        void register(SocketChannel channel) {
+            try {
+                channel.configureBlocking(false);
+                Connection conn = new Connection(channel, wheel);
+                conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+                ServerMetrics.connectionOpened();
+                wheel.schedule(conn.timeout, ConnectionPhase.HEADER);
+            } catch (IOException e) {
+                HttpServer.ADMISSION.closeConnection();
+                close(channel);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(HttpServer.TIMER_TICK);
+                    runTasks();
+                    wheel.expire(TimerWheel.now());
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept((ServerSocketChannel) key.channel());
+                            continue;
+                        }
+                        Connection conn = (Connection) key.attachment();
+                        if (key.isReadable()) {
+                            read(conn);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(conn);
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (running) {
+                    System.err.println("Event loop failed: " + e.getMessage());
+                }
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).close();
+                    } else {
+                        close(key.channel());
+                    }
+                }
+                close(selector);
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        private void accept(ServerSocketChannel channel) {
+            SocketChannel client;
+            try {
+                while ((client = channel.accept()) != null) {
+                    if (!HttpServer.ADMISSION.openConnection()) {
+                        shed(client);
+                        continue;
+                    }
+                    EventLoop target = loops[nextLoop];
+                    nextLoop = (nextLoop + 1) % loops.length;
+                    if (target == this) {
+                        register(client);
+                    } else {
+                        final SocketChannel accepted = client;
+                        target.execute(() -> target.register(accepted));
+                    }
+                }
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Accept failed: " + e.getMessage());
+                }
+            }
+        }
+
+        private void read(Connection conn) {
+            try {
+                if (conn.pending != null) {
+                    awaitDisconnect(conn);
+                    return;
+                }
+                int n = conn.parser.fill(conn.channel);
+                if (n < 0) {
+                    conn.close();
+                    return;
+                }
+                ServerMetrics.bytesIn(n);
+                ConnectionPhase phase = conn.timeout.getPhase();
+                if (phase == ConnectionPhase.BODY) {
+                    // The limit of a body restarts with every read
+                    wheel.schedule(conn.timeout, ConnectionPhase.BODY);
+                } else if (phase == ConnectionPhase.IDLE) {
+                    wheel.schedule(conn.timeout, ConnectionPhase.HEADER);
+                }
+                if (conn.decoder == null) {
+                    dispatch(conn);
+                } else if (readBody(conn)) {
+                    wheel.cancel(conn.timeout);
+                    dispatchRequest(conn, conn.parser.request());
+                }
+            } catch (HttpParseException e) {
+                reject(conn, e);
+            } catch (Exception e) {
+                System.err.println("Error handling client: " + e.getMessage());
+                conn.close();
+            }
+        }
+
+        /**
+         * Parses the next request in the input buffer and, once its head and
+         * body are complete, dispatches it. A body still on its way is read by
+         * later calls to {@link #read(Connection)}.
+         */
+        private void dispatch(Connection conn) {
+            HttpRequest request;
+            try {
+                long start = System.nanoTime();
+                boolean parsed = conn.parser.parse();
+                conn.parseNanos += System.nanoTime() - start;
+                if (!parsed) {
+                    if (conn.timeout.getPhase() == ConnectionPhase.BODY && !conn.parser.isSkippingBody()) {
+                        wheel.schedule(conn.timeout, conn.parser.hasBufferedData() ? ConnectionPhase.HEADER
+                                : ConnectionPhase.IDLE);
+                    }
+                    return;
+                }
+                wheel.cancel(conn.timeout);
+                ServerMetrics.parsed(conn.parseNanos);
+                conn.parseNanos = 0;
+                request = conn.parser.request();
+                if (conn.parser.hasBody()) {
+                    conn.decoder = conn.parser.bodyDecoder();
+                    if (!readBody(conn)) {
+                        if (request.hasHeaderValue("Expect", "100-continue")) {
+                            // Nothing else is queued, so the socket takes it
+                            conn.channel.write(ByteBuffer.wrap(HttpServer.CONTINUE));
+                        }
+                        if (!conn.spilling) {
+                            wheel.schedule(conn.timeout, ConnectionPhase.BODY);
+                        }
+                        return;
+                    }
+                }
+            } catch (HttpParseException e) {
+                reject(conn, e);
+                return;
+            } catch (IOException e) {
+                System.err.println("Error handling client: " + e.getMessage());
+                conn.close();
+                return;
+            }
+            dispatchRequest(conn, request);
+        }
+
+        /**
+         * Hands the buffered bytes of a request body to its decoder, attaching
+         * the body to the request once it is complete. Bytes that would go to
+         * the temporary file are left to {@link #spill(Connection)}, so a slow
+         * disk does not stall the other connections of the loop.
+         *
+         * @return true if the whole body has been read
+         */
+        private boolean readBody(Connection conn) throws IOException {
+            if (conn.decoder.writesToDisk(conn.parser.bufferedBodyBytes())) {
+                spill(conn);
+                return false;
+            }
+            if (!conn.parser.feedBody(conn.decoder)) {
+                return false;
+            }
+            conn.parser.request().setBody(conn.decoder.finish());
+            conn.decoder = null;
+            return true;
+        }
+
+        /**
+         * Feeds the buffered body bytes to the decoder on the worker pool,
+         * which writes them to the temporary file. Reading and the body
+         * timeout are suspended meanwhile, so the parser buffer and the
+         * decoder belong to the worker until it hands them back.
+         */
+        private void spill(Connection conn) {
+            conn.key.interestOps(0);
+            wheel.cancel(conn.timeout);
+            conn.spilling = true;
+            try {
+                workers.execute(() -> {
+                    HttpRequestBody body = null;
+                    IOException failure = null;
+                    try {
+                        if (conn.parser.feedBody(conn.decoder)) {
+                            body = conn.decoder.finish();
+                        }
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                    HttpRequestBody read = body;
+                    IOException error = failure;
+                    execute(() -> spilled(conn, read, error));
+                });
+            } catch (RejectedExecutionException e) {
+                conn.spilling = false;
+                conn.discardBody();
+                overloaded(conn);
+            }
+        }
+
+        /**
+         * Takes a connection back from {@link #spill(Connection)}, dispatching
+         * the request once its body is complete or reading on otherwise.
+         *
+         * @param body  the complete body, or null if more is expected
+         * @param error the failure of the decoder or of the file, or null
+         */
+        private void spilled(Connection conn, HttpRequestBody body, IOException error) {
+            conn.spilling = false;
+            if (conn.closed) {
+                if (body != null) {
+                    body.release();
+                }
+                conn.discardBody();
+                return;
+            }
+            if (error instanceof HttpParseException) {
+                reject(conn, (HttpParseException) error);
+            } else if (error != null) {
+                System.err.println("Error handling client: " + error.getMessage());
+                conn.close();
+            } else if (body != null) {
+                conn.decoder = null;
+                HttpRequest request = conn.parser.request();
+                request.setBody(body);
+                dispatchRequest(conn, request);
+            } else {
+                conn.key.interestOps(SelectionKey.OP_READ);
+                wheel.schedule(conn.timeout, ConnectionPhase.BODY);
+            }
+        }
+
+        /**
+         * Hands a complete request to the worker pool. Reading is suspended
+         * until its response is written so pipelined requests are answered in
+         * order and the request view stays valid while the worker uses it.
+         */
+        private void dispatchRequest(Connection conn, HttpRequest request) {
+            if (HttpServer.LOG_HEADERS) {
+                HttpServer.logHeaders(request);
+            }
+
+            conn.requests++;
+            conn.keepAlive = running && conn.requests < HttpServer.KEEP_ALIVE_MAX_REQUESTS
+                    && HttpServer.isKeepAlive(request);
+            conn.key.interestOps(0);
+            final long admittedAt = HttpServer.ADMISSION.admit();
+            if (admittedAt < 0) {
+                request.getBody().release();
+                overloaded(conn);
+                return;
+            }
+            final boolean keepAlive = conn.keepAlive;
+            QueuedResponse out = new QueuedResponse(this, conn);
+            try {
+                workers.execute(() -> {
+                    CompletableFuture<Void> written;
+                    try {
+                        written = HttpServer.ADMISSION.begin(admittedAt) ? process(request, out, keepAlive)
+                                : shedStale(out);
+                    } finally {
+                        HttpServer.ADMISSION.done();
+                    }
+                    if (written.isDone()) {
+                        finish(conn, request, out, written);
+                    } else {
+                        execute(() -> awaitResponse(conn, written));
+                        written.whenComplete((ignored, error) -> finish(conn, request, out, written));
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                HttpServer.ADMISSION.done();
+                request.getBody().release();
+                out.finish().forEach(NioServer::release);
+                overloaded(conn);
+            }
+        }
+
+        /**
+         * Hands a response written by a worker to the event loop.
+         */
+        private void finish(Connection conn, HttpRequest request, QueuedResponse out,
+                CompletableFuture<Void> written) {
+            request.getBody().release();
+            boolean completed = !written.isCompletedExceptionally() && !out.closeAfterResponse;
+            Queue<Object> response = out.finish();
+            execute(() -> {
+                conn.pending = null;
+                if (!completed) {
+                    // Part of the response may be sent already, or its body
+                    // ends with the connection, so the client must see it end
+                    conn.keepAlive = false;
+                }
+                send(conn, response);
+            });
+        }
+
+        /**
+         * Watches the connection of a response waiting for an asynchronous
+         * service, so a client that goes away cancels it. Runs before the
+         * response is handed over, as both go through the task queue.
+         */
+        private void awaitResponse(Connection conn, CompletableFuture<Void> written) {
+            if (!conn.channel.isOpen()) {
+                written.cancel(true);
+                return;
+            }
+            conn.pending = written;
+            conn.key.interestOps(SelectionKey.OP_READ);
+        }
+
+        /**
+         * Reads from a connection whose response is still pending. Pipelined
+         * bytes are buffered for later, and reading stops when the buffer is
+         * full; the end of the stream closes the connection and cancels the
+         * response.
+         */
+        private void awaitDisconnect(Connection conn) throws IOException {
+            if (!conn.parser.hasRoom()) {
+                conn.key.interestOps(0);
+                return;
+            }
+            int n = conn.parser.fill(conn.channel);
+            if (n < 0) {
+                conn.close();
+                return;
+            }
+            ServerMetrics.bytesIn(n);
+        }
+
+        /**
+         * Answers a request that cannot be admitted with 503 and closes the
+         * connection once it is sent.
+         */
+        private void overloaded(Connection conn) {
+            conn.keepAlive = false;
+            conn.key.interestOps(0);
+            Queue<Object> response = new ArrayDeque<>();
+            response.add(HttpServer.ADMISSION.overloaded());
+            send(conn, response);
+        }
+
+        private void reject(Connection conn, HttpParseException error) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                HttpServer.sendError(out, error.getStatusCode(), error.getStatusMessage());
+            } catch (IOException e) {
+                // Cannot happen with an in-memory stream
+            }
+            conn.discardBody();
+            conn.keepAlive = false;
+            conn.key.interestOps(0);
+            Queue<Object> response = new ArrayDeque<>();
+            response.add(ByteBuffer.wrap(out.toByteArray()));
+            send(conn, response);
+        }
+
+        private void send(Connection conn, Queue<Object> response) {
+            conn.stream = null;
+            if (!conn.channel.isOpen()) {
+                response.forEach(NioServer::release);
+                return;
+            }
+            conn.out.addAll(response);
+            write(conn);
+        }
+
+        /**
+         * Queues the part of a response its worker has flushed while it goes
+         * on producing the rest.
+         */
+        private void sendPart(Connection conn, Queue<Object> part, QueuedResponse stream) {
+            if (!conn.channel.isOpen()) {
+                part.forEach(NioServer::release);
+                stream.abort();
+                return;
+            }
+            conn.stream = stream;
+            conn.out.addAll(part);
+            write(conn);
+        }
+
+        private void write(Connection conn) {
+            try {
+                while (!conn.out.isEmpty()) {
+                    Object head = conn.out.peek();
+                    boolean done;
+                    if (head instanceof ByteBuffer) {
+                        done = writeBuffers(conn);
+                    } else {
+                        done = ((FileRegion) head).transferTo(conn.channel);
+                    }
+                    if (!done) {
+                        // The limit restarts whenever the socket takes bytes
+                        wheel.schedule(conn.timeout, ConnectionPhase.WRITE);
+                        conn.key.interestOps(SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    if (!(head instanceof ByteBuffer)) {
+                        release(conn.out.poll());
+                    }
+                }
+                wheel.cancel(conn.timeout);
+                if (conn.stream != null) {
+                    // Everything flushed so far is sent; the rest is coming
+                    conn.stream.drained();
+                    conn.key.interestOps(0);
+                    return;
+                }
+                if (!conn.keepAlive) {
+                    conn.close();
+                    return;
+                }
+                conn.parser.next();
+                wheel.schedule(conn.timeout, conn.parser.isSkippingBody() ? ConnectionPhase.BODY
+                        : conn.parser.hasBufferedData() ? ConnectionPhase.HEADER : ConnectionPhase.IDLE);
+                conn.key.interestOps(SelectionKey.OP_READ);
+                dispatch(conn);
+            } catch (Exception e) {
+                conn.close();
+            }
+        }
+    }
+
+    /**
+     * Sends the byte buffers at the head of the queue with one gathering
+     * write, releasing the ones sent completely.
+     *
+     * @return true if all of them were sent
+     */
+    private static boolean writeBuffers(Connection conn) throws IOException {
+        ByteBuffer[] gather = conn.gather;
+        int n = 0;
+        for (Object part : conn.out) {
+            if (!(part instanceof ByteBuffer) || n == gather.length) {
+                break;
+            }
+            gather[n++] = (ByteBuffer) part;
+        }
+        ServerMetrics.bytesOut(conn.channel.write(gather, 0, n));
+        boolean done = true;
+        for (int i = 0; i < n; i++) {
+            if (gather[i].hasRemaining()) {
+                done = false;
+            } else if (done) {
+                release(conn.out.poll());
+            }
+            gather[i] = null;
+        }
+        return done;
+    }
+
+    /**
+     * State of one client connection, owned by a single event loop.
+     */
+    private static final class Connection {
+
+        final SocketChannel channel;
+        final TimerWheel wheel;
+        final TimerWheel.Timeout timeout = new TimerWheel.Timeout(this::close);
+        final Queue<Object> out = new ArrayDeque<>();
+        final HttpRequestParser parser = new HttpRequestParser();
+        final ByteBuffer[] gather = new ByteBuffer[16];
+        SelectionKey key;
+        QueuedResponse stream;
+        BodyDecoder decoder;
+        CompletableFuture<Void> pending;
+        long parseNanos;
+        int requests;
+        boolean keepAlive;
+        boolean closed;
+        boolean spilling;
+
+        Connection(SocketChannel channel, TimerWheel wheel) {
+            this.channel = channel;
+            this.wheel = wheel;
+        }
+
+        void close() {
+            wheel.cancel(timeout);
+            if (!closed) {
+                closed = true;
+                HttpServer.ADMISSION.closeConnection();
+                ServerMetrics.connectionClosed();
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            NioServer.close(channel);
+            Object part;
+            while ((part = out.poll()) != null) {
+                release(part);
+            }
+            if (stream != null) {
+                stream.abort();
+            }
+            if (pending != null) {
+                pending.cancel(true);
+            }
+            discardBody();
+        }
+
+        /**
+         * Drops a request body still being read, unless a worker is writing
+         * it; that one is dropped when the worker hands it back.
+         */
+        void discardBody() {
+            if (decoder != null && !spilling) {
+                decoder.discard();
+                decoder = null;
+            }
+        }
+    }
+
+    /**
+     * A region of an open file waiting to be sent.
+     */
+    private static final class FileRegion {
+
+        final FileChannel file;
+        long position;
+        final long end;
+
+        FileRegion(FileChannel file, long position, long count) {
+            this.file = file;
+            this.position = position;
+            this.end = position + count;
+        }
+
+        /**
+         * Sends as much of the region as the socket accepts.
+         *
+         * @return true when the whole region was sent
+         */
+        boolean transferTo(SocketChannel channel) throws IOException {
+            while (position < end) {
+                long n = file.transferTo(position, end - position, channel);
+                if (n <= 0) {
+                    if (position >= file.size()) {
+                        throw new IOException("File is shorter than expected");
+                    }
+                    return false;
+                }
+                ServerMetrics.bytesOut(n);
+                position += n;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Response written by a worker thread: bytes are collected in pooled
+     * buffers, which the event loop returns to the pool once they are sent, and
+     * file regions are opened so the event loop can send them with
+     * {@link FileChannel#transferTo}. Flushing hands what was written so far to
+     * the event loop, and once more than STREAM_HIGH_WATER_BYTES are waiting
+     * for the socket the worker blocks until they are sent, so a streamed
+     * response of any length holds a bounded amount of memory.
+     */
+    private static final class QueuedResponse extends ResponseStream {
+
+        private final EventLoop loop;
+        private final Connection conn;
+        private final Queue<Object> parts = new ArrayDeque<>();
+        private ByteBuffer current;
+        private long pending;
+        private boolean aborted;
+
+        QueuedResponse(EventLoop loop, Connection conn) {
+            this.loop = loop;
+            this.conn = conn;
+        }
+
+        @Override
+        public void write(int b) {
+            if (current == null || !current.hasRemaining()) {
+                flushBytes();
+                current = BufferPool.acquire();
+            }
+            current.put((byte) b);
+            written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            while (len > 0) {
+                if (current == null || !current.hasRemaining()) {
+                    flushBytes();
+                    current = BufferPool.acquire();
+                }
+                int n = Math.min(len, current.remaining());
+                current.put(b, off, n);
+                written += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        void transferFile(Path file, long position, long count) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            flushBytes();
+            parts.add(new FileRegion(channel, position, count));
+            written += count;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBytes();
+            if (parts.isEmpty()) {
+                return;
+            }
+            Queue<Object> part = new ArrayDeque<>(parts);
+            parts.clear();
+            long size = 0;
+            for (Object o : part) {
+                if (o instanceof ByteBuffer) {
+                    size += ((ByteBuffer) o).remaining();
+                }
+            }
+            synchronized (this) {
+                if (aborted) {
+                    part.forEach(NioServer::release);
+                    throw new IOException("Connection closed");
+                }
+                pending += size;
+            }
+            loop.execute(() -> loop.sendPart(conn, part, this));
+            synchronized (this) {
+                while (pending > STREAM_HIGH_WATER_BYTES && !aborted) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the client");
+                    }
+                }
+                if (aborted) {
+                    throw new IOException("Connection closed");
+                }
+            }
+        }
+
+        /**
+         * Called by the event loop when every flushed part has been sent.
+         */
+        synchronized void drained() {
+            pending = 0;
+            notifyAll();
+        }
+
+        /**
+         * Called by the event loop when the connection closes.
+         */
+        synchronized void abort() {
+            aborted = true;
+            notifyAll();
+        }
+
+        private void flushBytes() {
+            if (current != null) {
+                if (current.position() > 0) {
+                    parts.add(current.flip());
+                } else {
+                    BufferPool.release(current);
+                }
+                current = null;
+            }
+        }
+
+        Queue<Object> finish() {
+            flushBytes();
+            return parts;
+        }
+    }
+
+    private static void release(Object part) {
+        if (part instanceof FileRegion) {
+            close(((FileRegion) part).file);
+        } else if (part instanceof ByteBuffer) {
+            BufferPool.release((ByteBuffer) part);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+}
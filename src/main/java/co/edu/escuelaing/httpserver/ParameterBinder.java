@@ -0,0 +1,133 @@
+package co.edu.escuelaing.httpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Function;
+
+/**
+ * Extracts one handler argument from a request. Binders are built once when
+ * a route is registered, so converting the value to the parameter type needs
+ * no reflection at request time.
+ *
+ * @author sergio.bejarano-r
+ */
+@FunctionalInterface
+public interface ParameterBinder {
+
+    /**
+     * Binds the argument for a request.
+     *
+     * @param request the parsed request
+     * @return the argument value
+     * @throws HttpParseException with status 400 if the value cannot be
+     *                            converted
+     */
+    Object bind(HttpRequest request) throws HttpParseException;
+
+    /**
+     * Creates a binder for a query parameter. Int and long parameters are
+     * read straight from the request bytes.
+     *
+     * @param name         the query parameter name
+     * @param defaultValue the value used when the parameter is absent
+     * @param type         the handler parameter type
+     * @return the binder
+     */
+    static ParameterBinder requestParam(String name, String defaultValue, Class<?> type) {
+        Function<String, Object> converter = converterFor(type);
+        boolean isInt = type == int.class || type == Integer.class;
+        boolean isLong = type == long.class || type == Long.class;
+        return request -> {
+            int index = request.indexOfParameter(name);
+            try {
+                if (index < 0) {
+                    return converter.apply(defaultValue);
+                } else if (isInt) {
+                    return request.parseInt(index);
+                } else if (isLong) {
+                    return request.parseLong(index);
+                }
+                return converter.apply(request.getParameterValue(index));
+            } catch (IllegalArgumentException e) {
+                throw new HttpParseException(400, "Bad Request");
+            }
+        };
+    }
+
+    /**
+     * Creates a binder for a path variable of the matched route.
+     *
+     * @param name the variable name used in the route pattern
+     * @param type the handler parameter type
+     * @return the binder
+     */
+    static ParameterBinder pathVariable(String name, Class<?> type) {
+        Function<String, Object> converter = converterFor(type);
+        return request -> {
+            try {
+                return converter.apply(request.getPathVariable(name));
+            } catch (IllegalArgumentException | NullPointerException e) {
+                throw new HttpParseException(400, "Bad Request");
+            }
+        };
+    }
+
+    /**
+     * Creates a binder for the request body.
+     *
+     * @param type String, byte[], InputStream or HttpRequestBody
+     * @return the binder
+     * @throws IllegalArgumentException if the type is not supported
+     */
+    static ParameterBinder requestBody(Class<?> type) {
+        if (type == HttpRequestBody.class) {
+            return HttpRequest::getBody;
+        }
+        BodyReader reader;
+        if (type == String.class || type == Object.class || type == CharSequence.class) {
+            reader = HttpRequestBody::getString;
+        } else if (type == byte[].class) {
+            reader = HttpRequestBody::getBytes;
+        } else if (type == InputStream.class) {
+            reader = HttpRequestBody::getInputStream;
+        } else {
+            throw new IllegalArgumentException("Unsupported body type: " + type.getName());
+        }
+        return request -> {
+            try {
+                return reader.read(request.getBody());
+            } catch (IOException e) {
+                throw new HttpParseException(500, "Internal Server Error");
+            }
+        };
+    }
+
+    /**
+     * Reads a request body into a handler argument.
+     */
+    @FunctionalInterface
+    interface BodyReader {
+        Object read(HttpRequestBody body) throws IOException;
+    }
+
+    /**
+     * Gets the conversion from a String to a supported parameter type.
+     *
+     * @param type String, a primitive or its wrapper
+     * @return the converter
+     */
+    static Function<String, Object> converterFor(Class<?> type) {
+        if (type == String.class || type == Object.class || type == CharSequence.class) {
+            return value -> value;
+        } else if (type == int.class || type == Integer.class) {
+            return value -> Integer.valueOf(value.trim());
+        } else if (type == long.class || type == Long.class) {
+            return value -> Long.valueOf(value.trim());
+        } else if (type == double.class || type == Double.class) {
+            return value -> Double.valueOf(value.trim());
+        } else if (type == boolean.class || type == Boolean.class) {
+            return value -> Boolean.valueOf(value.trim());
+        }
+        throw new IllegalArgumentException("Unsupported parameter type: " + type.getName());
+    }
+}
@@ -0,0 +1,40 @@
+package co.edu.escuelaing.httpserver;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for one served request. It is only committed while a
+ * recording has it enabled, so it costs next to nothing otherwise.
+ *
+ * @author sergio.bejarano-r
+ */
+@Name("co.edu.escuelaing.httpserver.Request")
+@Label("HTTP Request")
+@Category("MicroSpringBoot")
+@Description("A request served by the HTTP server")
+@StackTrace(false)
+final class RequestEvent extends Event {
+
+    @Label("Route")
+    String route;
+
+    @Label("Path")
+    String path;
+
+    @Label("Status")
+    int status;
+
+    @Label("Dispatch Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long dispatchTime;
+
+    @Label("Write Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long writeTime;
+}
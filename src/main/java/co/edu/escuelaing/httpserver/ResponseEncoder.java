@@ -0,0 +1,285 @@
+package co.edu.escuelaing.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Encodes response heads straight into pooled byte buffers. Status lines and
+ * the most common header lines are encoded once, the Date header at most
+ * once per second, and everything else is copied char by char, so encoding a
+ * head allocates nothing. When the body fits in the same buffer, head and
+ * body leave in a single write.
+ *
+ * @author sergio.bejarano-r
+ */
+final class ResponseEncoder {
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME
+            .withZone(ZoneOffset.UTC);
+
+    private static final byte[] CRLF = { '\r', '\n' };
+    private static final byte[] SEPARATOR = { ':', ' ' };
+    private static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+
+    private static final String[] REASONS = new String[600];
+    private static final byte[][] STATUS_LINES = new byte[600][];
+
+    static {
+        status(200, "OK");
+        status(201, "Created");
+        status(204, "No Content");
+        status(206, "Partial Content");
+        status(301, "Moved Permanently");
+        status(302, "Found");
+        status(304, "Not Modified");
+        status(400, "Bad Request");
+        status(404, "Not Found");
+        status(405, "Method Not Allowed");
+        status(408, "Request Timeout");
+        status(413, "Payload Too Large");
+        status(416, "Range Not Satisfiable");
+        status(431, "Request Header Fields Too Large");
+        status(500, "Internal Server Error");
+        status(501, "Not Implemented");
+        status(503, "Service Unavailable");
+    }
+
+    private static final String[][] COMMON_HEADERS = {
+            { "Connection", "keep-alive" },
+            { "Connection", "close" },
+            { "Content-Type", "text/html; charset=UTF-8" },
+            { "Content-Type", "text/plain; charset=UTF-8" },
+            { "Content-Type", "text/html" },
+            { "Transfer-Encoding", "chunked" },
+            { "Vary", "Accept-Encoding" },
+            { "Content-Encoding", ContentEncoding.GZIP },
+            { "Content-Encoding", ContentEncoding.DEFLATE },
+    };
+
+    private static final byte[][] COMMON_LINES = new byte[COMMON_HEADERS.length][];
+
+    static {
+        for (int i = 0; i < COMMON_HEADERS.length; i++) {
+            COMMON_LINES[i] = ascii(COMMON_HEADERS[i][0] + ": " + COMMON_HEADERS[i][1] + "\r\n");
+        }
+    }
+
+    private static volatile DateLine date = new DateLine(0, new byte[0]);
+
+    private ResponseEncoder() {
+    }
+
+    /**
+     * Writes a response head followed by a body.
+     *
+     * @param response the response whose status and headers are written
+     * @param body     the body bytes, or null to write only the head
+     * @param off      the offset of the body
+     * @param len      the body length
+     * @param out      the connection output
+     */
+    static void write(HttpResponse response, byte[] body, int off, int len, OutputStream out) throws IOException {
+        ByteBuffer buf = BufferPool.acquire();
+        try {
+            encodeHead(response, buf, out);
+            finish(buf, body, off, len, out);
+        } finally {
+            BufferPool.release(buf);
+        }
+    }
+
+    /**
+     * Writes a head encoded in advance, adding the Date header, followed by a
+     * body.
+     *
+     * @param head the status line and headers, ending with the blank line
+     * @param body the body bytes, or null to write only the head
+     * @param off  the offset of the body
+     * @param len  the body length
+     * @param out  the connection output
+     */
+    static void write(byte[] head, byte[] body, int off, int len, OutputStream out) throws IOException {
+        ByteBuffer buf = BufferPool.acquire();
+        try {
+            put(buf, out, head, 0, head.length - CRLF.length);
+            put(buf, out, dateLine());
+            put(buf, out, CRLF);
+            finish(buf, body, off, len, out);
+        } finally {
+            BufferPool.release(buf);
+        }
+    }
+
+    /**
+     * Encodes a response head, for callers that need it as bytes.
+     *
+     * @param response the response
+     * @return the status line and headers, ending with the blank line
+     */
+    static byte[] encodeHead(HttpResponse response) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buf = BufferPool.acquire();
+        try {
+            encodeHead(response, buf, out);
+            drain(buf, out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            BufferPool.release(buf);
+        }
+        return out.toByteArray();
+    }
+
+    private static void encodeHead(HttpResponse response, ByteBuffer buf, OutputStream out) throws IOException {
+        int code = response.getStatusCode();
+        String reason = response.getStatusMessage();
+        if (code >= 0 && code < STATUS_LINES.length && STATUS_LINES[code] != null && REASONS[code].equals(reason)) {
+            put(buf, out, STATUS_LINES[code]);
+        } else {
+            putLatin1(buf, out, "HTTP/1.1 ");
+            putDecimal(buf, out, code);
+            putLatin1(buf, out, " ");
+            putLatin1(buf, out, reason);
+            put(buf, out, CRLF);
+        }
+        for (int i = 0; i < response.headerCount(); i++) {
+            String name = response.headerName(i);
+            String value = response.headerValue(i);
+            byte[] line = commonLine(name, value);
+            if (line != null) {
+                put(buf, out, line);
+            } else {
+                putLatin1(buf, out, name);
+                put(buf, out, SEPARATOR);
+                putLatin1(buf, out, value);
+                put(buf, out, CRLF);
+            }
+        }
+        if (response.getContentLength() >= 0) {
+            put(buf, out, CONTENT_LENGTH);
+            putDecimal(buf, out, response.getContentLength());
+            put(buf, out, CRLF);
+        }
+        put(buf, out, dateLine());
+        put(buf, out, CRLF);
+    }
+
+    private static void finish(ByteBuffer buf, byte[] body, int off, int len, OutputStream out) throws IOException {
+        if (body != null && len <= buf.remaining()) {
+            buf.put(body, off, len);
+            drain(buf, out);
+            return;
+        }
+        drain(buf, out);
+        if (body != null && len > 0) {
+            out.write(body, off, len);
+        }
+    }
+
+    private static byte[] commonLine(String name, String value) {
+        for (int i = 0; i < COMMON_HEADERS.length; i++) {
+            if (COMMON_HEADERS[i][1].equals(value) && COMMON_HEADERS[i][0].equals(name)) {
+                return COMMON_LINES[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the Date header line for the current second.
+     *
+     * @return the encoded line, ending with CRLF
+     */
+    static byte[] dateLine() {
+        long second = System.currentTimeMillis() / 1000;
+        DateLine line = date;
+        if (line.second != second) {
+            line = new DateLine(second, ascii("Date: " + HTTP_DATE.format(Instant.ofEpochSecond(second)) + "\r\n"));
+            date = line;
+        }
+        return line.bytes;
+    }
+
+    private static void put(ByteBuffer buf, OutputStream out, byte[] b) throws IOException {
+        put(buf, out, b, 0, b.length);
+    }
+
+    private static void put(ByteBuffer buf, OutputStream out, byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buf.hasRemaining()) {
+                drain(buf, out);
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Copies a header string as ISO-8859-1. Characters outside it, and line
+     * breaks that would end the header early, become '?'.
+     */
+    private static void putLatin1(ByteBuffer buf, OutputStream out, String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            if (!buf.hasRemaining()) {
+                drain(buf, out);
+            }
+            char c = s.charAt(i);
+            buf.put(c < 0x100 && c != '\r' && c != '\n' ? (byte) c : (byte) '?');
+        }
+    }
+
+    private static void putDecimal(ByteBuffer buf, OutputStream out, long value) throws IOException {
+        if (value < 0) {
+            putLatin1(buf, out, Long.toString(value));
+            return;
+        }
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+        if (buf.remaining() < digits) {
+            drain(buf, out);
+        }
+        int end = buf.position() + digits;
+        for (int i = end - 1; i >= buf.position(); i--) {
+            buf.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buf.position(end);
+    }
+
+    private static void drain(ByteBuffer buf, OutputStream out) throws IOException {
+        if (buf.position() > 0) {
+            out.write(buf.array(), buf.arrayOffset(), buf.position());
+            buf.clear();
+        }
+    }
+
+    private static void status(int code, String reason) {
+        REASONS[code] = reason;
+        STATUS_LINES[code] = ascii("HTTP/1.1 " + code + " " + reason + "\r\n");
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static final class DateLine {
+
+        final long second;
+        final byte[] bytes;
+
+        DateLine(long second, byte[] bytes) {
+            this.second = second;
+            this.bytes = bytes;
+        }
+    }
+}
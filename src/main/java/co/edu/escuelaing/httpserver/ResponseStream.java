@@ -0,0 +1,223 @@
+package co.edu.escuelaing.httpserver;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Output of the responses of one connection. Besides plain bytes, a response
+ * can include a region of a file, which the transports send with
+ * {@link FileChannel#transferTo} so large files are never copied into the
+ * heap.
+ *
+ * @author sergio.bejarano-r
+ */
+abstract class ResponseStream extends OutputStream {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Largest write or file transfer handed to a blocking socket at once. The
+     * WRITE deadline restarts after each one, so it limits the time without
+     * progress rather than the time of the whole response.
+     */
+    static final int WRITE_SLICE_BYTES = 64 * 1024;
+
+    /**
+     * Bytes written so far, including file regions.
+     */
+    long written;
+
+    /**
+     * Set by a response whose end is marked by closing the connection, so the
+     * transport does not keep it open for another request.
+     */
+    boolean closeAfterResponse;
+
+    /**
+     * Writes a region of a file after the bytes written so far.
+     *
+     * @param file     the file to send
+     * @param position the offset of the first byte
+     * @param count    the number of bytes
+     * @throws IOException if the file cannot be read or is shorter than
+     *                     expected
+     */
+    abstract void transferFile(Path file, long position, long count) throws IOException;
+
+    /**
+     * Writes a region of a file to any stream, zero-copy when the stream is a
+     * {@link ResponseStream} and through a small fixed buffer otherwise.
+     *
+     * @param out      the response output
+     * @param file     the file to send
+     * @param position the offset of the first byte
+     * @param count    the number of bytes
+     * @throws IOException if the file cannot be read or written
+     */
+    static void transfer(OutputStream out, Path file, long position, long count) throws IOException {
+        if (out instanceof ResponseStream) {
+            ((ResponseStream) out).transferFile(file, position, count);
+            return;
+        }
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(COPY_BUFFER_SIZE, Math.max(count, 1)));
+            long end = position + count;
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                int n = source.read(buffer, position);
+                if (n < 0) {
+                    throw new EOFException("File is shorter than expected: " + file);
+                }
+                out.write(buffer.array(), 0, n);
+                position += n;
+            }
+        }
+    }
+
+    /**
+     * Creates the buffered output of a blocking connection. File regions are
+     * sent straight to the socket channel, when it has one, once the buffered
+     * bytes are flushed. Every slice of WRITE_SLICE_BYTES that reaches the
+     * socket runs under a fresh WRITE deadline, so a client that stops reading
+     * is disconnected while a slow one still gets the whole response.
+     *
+     * @param socket  the client socket
+     * @param wheel   the wheel tracking the deadline
+     * @param timeout the connection timeout, which closes the socket
+     * @return the response stream
+     */
+    static ResponseStream blocking(Socket socket, TimerWheel wheel, TimerWheel.Timeout timeout) throws IOException {
+        OutputStream timed = new TimedOutputStream(socket.getOutputStream(), wheel, timeout);
+        return new Blocking(new BufferedOutputStream(timed), socket.getChannel(), wheel, timeout);
+    }
+
+    /**
+     * Sends a file region to a channel in blocking mode.
+     */
+    static void transferTo(FileChannel source, long position, long count, WritableByteChannel target)
+            throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long n = source.transferTo(position, end - position, target);
+            if (n <= 0 && position >= source.size()) {
+                throw new EOFException("File is shorter than expected");
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * Output of a blocking connection.
+     */
+    static final class Blocking extends ResponseStream {
+
+        private final OutputStream out;
+        private final WritableByteChannel channel;
+        private final TimerWheel wheel;
+        private final TimerWheel.Timeout timeout;
+
+        Blocking(OutputStream out, WritableByteChannel channel, TimerWheel wheel, TimerWheel.Timeout timeout) {
+            this.out = out;
+            this.channel = channel;
+            this.wheel = wheel;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            written++;
+            ServerMetrics.bytesOut(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            written += len;
+            ServerMetrics.bytesOut(len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        @Override
+        void transferFile(Path file, long position, long count) throws IOException {
+            written += count;
+            if (channel == null) {
+                transfer(out, file, position, count);
+                ServerMetrics.bytesOut(count);
+                return;
+            }
+            out.flush();
+            try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+                long end = position + count;
+                while (position < end) {
+                    long slice = Math.min(WRITE_SLICE_BYTES, end - position);
+                    wheel.schedule(timeout, ConnectionPhase.WRITE);
+                    transferTo(source, position, slice, channel);
+                    position += slice;
+                }
+            } finally {
+                wheel.cancel(timeout);
+            }
+            ServerMetrics.bytesOut(count);
+        }
+    }
+
+    /**
+     * Socket output whose writes run under the WRITE deadline, restarted for
+     * every slice.
+     */
+    static final class TimedOutputStream extends FilterOutputStream {
+
+        private final TimerWheel wheel;
+        private final TimerWheel.Timeout timeout;
+
+        TimedOutputStream(OutputStream out, TimerWheel wheel, TimerWheel.Timeout timeout) {
+            super(out);
+            this.wheel = wheel;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            wheel.schedule(timeout, ConnectionPhase.WRITE);
+            try {
+                out.write(b);
+            } finally {
+                wheel.cancel(timeout);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                do {
+                    int slice = Math.min(WRITE_SLICE_BYTES, len);
+                    wheel.schedule(timeout, ConnectionPhase.WRITE);
+                    out.write(b, off, slice);
+                    off += slice;
+                    len -= slice;
+                } while (len > 0);
+            } finally {
+                wheel.cancel(timeout);
+            }
+        }
+    }
+}
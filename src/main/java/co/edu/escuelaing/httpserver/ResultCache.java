@@ -0,0 +1,346 @@
+package co.edu.escuelaing.httpserver;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Result cache of a route, keyed by the bound arguments. Eviction follows a
+ * segmented LRU: new results enter a probation segment and move to a
+ * protected segment, four fifths of the capacity, when they are hit again,
+ * so a burst of one-off keys cannot flush the hot ones. Both the number of
+ * entries and their estimated size are bounded.
+ * <p>
+ * Keys are spread over up to 16 shards by hash, each with its own segments,
+ * lock and share of the bounds, so hits on different keys do not wait for
+ * one another. Caches of fewer than 128 entries keep a single shard, and
+ * exact LRU order.
+ * <p>
+ * Concurrent misses for the same key are merged: one caller computes the
+ * result and the others wait for it.
+ *
+ * @author sergio.bejarano-r
+ */
+public final class ResultCache {
+
+    /**
+     * Computes a result on a miss.
+     */
+    @FunctionalInterface
+    public interface Loader {
+
+        /**
+         * Computes the result.
+         *
+         * @return the result, which is not cached if null
+         * @throws Exception if the computation fails; nothing is cached
+         */
+        Object load() throws Exception;
+    }
+
+    /**
+     * Largest number of shards.
+     */
+    static final int MAX_SHARDS = 16;
+
+    /**
+     * Fewest entries a shard holds, so small caches keep a single shard.
+     */
+    static final int MIN_SHARD_ENTRIES = 64;
+
+    private final String name;
+    private final long ttlNanos;
+    private final Shard[] shards;
+    private final ConcurrentHashMap<Object, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder merged = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a cache.
+     *
+     * @param name       a name for the statistics, usually the route path
+     * @param ttlSeconds time a result stays cached, 0 for no expiry
+     * @param maxEntries the maximum number of results
+     * @param maxBytes   the maximum estimated size of keys and results
+     */
+    public ResultCache(String name, long ttlSeconds, int maxEntries, long maxBytes) {
+        if (maxEntries <= 0 || maxBytes <= 0 || ttlSeconds < 0) {
+            throw new IllegalArgumentException("Invalid cache settings for " + name);
+        }
+        this.name = name;
+        this.ttlNanos = ttlSeconds == 0 ? Long.MAX_VALUE : TimeUnit.SECONDS.toNanos(ttlSeconds);
+        int count = Math.min(MAX_SHARDS, Integer.highestOneBit(Math.max(1, maxEntries / MIN_SHARD_ENTRIES)));
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard(maxEntries / count, maxBytes / count);
+        }
+    }
+
+    /**
+     * Gets a cached result, computing it if needed.
+     *
+     * @param key    the key, usually the list of bound arguments
+     * @param loader computes the result on a miss
+     * @return the result
+     * @throws Exception the failure of the loader
+     */
+    public Object get(Object key, Loader loader) throws Exception {
+        Shard shard = shardFor(key);
+        Object value = shard.lookup(key);
+        if (value != null) {
+            hits.increment();
+            return value;
+        }
+        misses.increment();
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> running = loading.putIfAbsent(key, mine);
+        if (running != null) {
+            merged.increment();
+            return await(running);
+        }
+        try {
+            value = shard.lookup(key);
+            if (value == null) {
+                value = loader.load();
+                if (value != null) {
+                    shard.put(key, value);
+                }
+            }
+            mine.complete(value);
+            return value;
+        } catch (Exception | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, mine);
+        }
+    }
+
+    private static Object await(CompletableFuture<Object> running) throws Exception {
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    private Shard shardFor(Object key) {
+        int h = key.hashCode();
+        return shards[(h ^ (h >>> 16)) & (shards.length - 1)];
+    }
+
+    private boolean isExpired(Entry entry) {
+        return System.nanoTime() - entry.created >= ttlNanos;
+    }
+
+    /**
+     * Estimates the retained size of a key or result. Strings count two
+     * bytes per char plus headers; lists add up their elements.
+     */
+    static long estimate(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof CharSequence) {
+            return 40 + 2L * ((CharSequence) value).length();
+        }
+        if (value instanceof List) {
+            long size = 24;
+            for (Object element : (List<?>) value) {
+                size += 8 + estimate(element);
+            }
+            return size;
+        }
+        if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        }
+        return 24;
+    }
+
+    /**
+     * Gets the cache name.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the number of cached results.
+     *
+     * @return the entry count
+     */
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * Gets the estimated size of the cached keys and results.
+     *
+     * @return the size in bytes
+     */
+    public long getBytes() {
+        long bytes = 0;
+        for (Shard shard : shards) {
+            bytes += shard.getBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache.
+     *
+     * @return the hit count
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of lookups that were not in the cache, including the
+     * merged ones.
+     *
+     * @return the miss count
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of misses that waited for a computation already in
+     * progress instead of starting their own.
+     *
+     * @return the merged miss count
+     */
+    public long getMerged() {
+        return merged.sum();
+    }
+
+    /**
+     * Gets the number of results evicted or expired.
+     *
+     * @return the eviction count
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * One lock's worth of the cache: a probation and a protected segment
+     * with their share of the bounds.
+     */
+    private final class Shard {
+
+        private final int maxEntries;
+        private final int maxProtected;
+        private final long maxBytes;
+        private final LinkedHashMap<Object, Entry> probation = new LinkedHashMap<>();
+        private final LinkedHashMap<Object, Entry> protectedSegment = new LinkedHashMap<>();
+        private long bytes;
+
+        Shard(int maxEntries, long maxBytes) {
+            this.maxEntries = maxEntries;
+            this.maxProtected = Math.max(1, maxEntries * 4 / 5);
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized Object lookup(Object key) {
+            Entry entry = protectedSegment.get(key);
+            if (entry != null) {
+                if (isExpired(entry)) {
+                    remove(protectedSegment, key, entry);
+                    return null;
+                }
+                // Move to the most recently used end
+                protectedSegment.remove(key);
+                protectedSegment.put(key, entry);
+                return entry.value;
+            }
+            entry = probation.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (isExpired(entry)) {
+                remove(probation, key, entry);
+                return null;
+            }
+            probation.remove(key);
+            protectedSegment.put(key, entry);
+            if (protectedSegment.size() > maxProtected) {
+                Iterator<Map.Entry<Object, Entry>> it = protectedSegment.entrySet().iterator();
+                Map.Entry<Object, Entry> demoted = it.next();
+                it.remove();
+                probation.put(demoted.getKey(), demoted.getValue());
+            }
+            return entry.value;
+        }
+
+        synchronized void put(Object key, Object value) {
+            Entry old = probation.remove(key);
+            if (old == null) {
+                old = protectedSegment.remove(key);
+            }
+            if (old != null) {
+                bytes -= old.weight;
+            }
+            Entry entry = new Entry(value, estimate(key) + estimate(value), System.nanoTime());
+            if (entry.weight > maxBytes) {
+                return;
+            }
+            probation.put(key, entry);
+            bytes += entry.weight;
+            while (size() > maxEntries || bytes > maxBytes) {
+                LinkedHashMap<Object, Entry> victims = probation.isEmpty() ? protectedSegment : probation;
+                Iterator<Map.Entry<Object, Entry>> it = victims.entrySet().iterator();
+                bytes -= it.next().getValue().weight;
+                it.remove();
+                evictions.increment();
+            }
+        }
+
+        private void remove(LinkedHashMap<Object, Entry> segment, Object key, Entry entry) {
+            segment.remove(key);
+            bytes -= entry.weight;
+            evictions.increment();
+        }
+
+        synchronized int size() {
+            return probation.size() + protectedSegment.size();
+        }
+
+        synchronized long getBytes() {
+            return bytes;
+        }
+    }
+
+    private static final class Entry {
+
+        final Object value;
+        final long weight;
+        final long created;
+
+        Entry(Object value, long weight, long created) {
+            this.value = value;
+            this.weight = weight;
+            this.created = created;
+        }
+    }
+}
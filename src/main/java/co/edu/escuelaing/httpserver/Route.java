@@ -0,0 +1,289 @@
+package co.edu.escuelaing.httpserver;
+
+import co.edu.escuelaing.microspringboot.annotations.AsyncTimeout;
+import co.edu.escuelaing.microspringboot.annotations.Cacheable;
+import co.edu.escuelaing.microspringboot.annotations.PathVariable;
+import co.edu.escuelaing.microspringboot.annotations.RequestBody;
+import co.edu.escuelaing.microspringboot.annotations.RequestParam;
+import java.lang.annotation.Annotation;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Arrays;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Stream;
+
+/**
+ * A registered endpoint: a path, the binders that turn a request into
+ * arguments and the handler that receives them. Controller methods are
+ * compiled once, at registration, into a direct call so serving a request
+ * needs no reflection. A handler may return a {@link java.util.concurrent.CompletionStage};
+ * the response is then written when it completes, within the timeout of the
+ * route.
+ *
+ * @author sergio.bejarano-r
+ */
+public final class Route {
+
+    private final String path;
+    private final RouteHandler handler;
+    private final ParameterBinder[] binders;
+    private final ResultCache cache;
+    private final RouteMetrics metrics;
+    private final long timeoutMillis;
+
+    /**
+     * Creates a route.
+     *
+     * @param path    the mapped path
+     * @param handler the code that serves the route
+     * @param binders one binder per handler argument
+     */
+    public Route(String path, RouteHandler handler, ParameterBinder... binders) {
+        this(path, handler, binders, null, new RouteMetrics(path), 0);
+    }
+
+    private Route(String path, RouteHandler handler, ParameterBinder[] binders, ResultCache cache,
+            RouteMetrics metrics, long timeoutMillis) {
+        this.path = path;
+        this.handler = handler;
+        this.binders = binders;
+        this.cache = cache;
+        this.metrics = metrics;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Creates a copy of this route whose results are cached by their
+     * arguments.
+     *
+     * @param cache the result cache
+     * @return the caching route
+     */
+    public Route withCache(ResultCache cache) {
+        return new Route(path, handler, binders, cache, metrics, timeoutMillis);
+    }
+
+    /**
+     * Creates a copy of this route whose asynchronous results must complete
+     * within a given time.
+     *
+     * @param timeoutMillis the time limit, in milliseconds
+     * @return the route with the limit
+     */
+    public Route withTimeout(long timeoutMillis) {
+        return new Route(path, handler, binders, cache, metrics, timeoutMillis);
+    }
+
+    /**
+     * Gets the time an asynchronous result of the route may take.
+     *
+     * @return the limit in milliseconds, or 0 for ASYNC_TIMEOUT_MS
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Gets the result cache.
+     *
+     * @return the cache, or null if results are not cached
+     */
+    public ResultCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Gets the latency histograms of the route.
+     *
+     * @return the metrics
+     */
+    public RouteMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the mapped path.
+     *
+     * @return the path
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Binds the arguments from the request and invokes the handler.
+     *
+     * @param request the parsed request
+     * @return the value to send as the response body
+     * @throws HttpParseException if an argument cannot be bound
+     */
+    public Object invoke(HttpRequest request) throws Exception {
+        Object[] args = new Object[binders.length];
+        for (int i = 0; i < binders.length; i++) {
+            args[i] = binders[i].bind(request);
+        }
+        if (cache != null) {
+            return cache.get(Arrays.asList(args), () -> handler.invoke(args));
+        }
+        return handler.invoke(args);
+    }
+
+    /**
+     * Compiles a controller method into a route. Every parameter must be
+     * annotated with {@link RequestParam}, {@link PathVariable} or
+     * {@link RequestBody}. Instance
+     * methods are bound to a single controller created with its no-argument
+     * constructor, methods annotated with {@link Cacheable} get a result
+     * cache and methods annotated with {@link AsyncTimeout} their own time
+     * limit.
+     *
+     * @param path   the mapped path
+     * @param method the controller method
+     * @return the compiled route
+     * @throws IllegalArgumentException if the method cannot be mapped
+     */
+    public static Route compile(String path, Method method) {
+        Class<?>[] types = method.getParameterTypes();
+        Annotation[][] annotations = method.getParameterAnnotations();
+        ParameterBinder[] binders = new ParameterBinder[types.length];
+        for (int i = 0; i < types.length; i++) {
+            RequestParam rp = find(annotations[i], RequestParam.class);
+            PathVariable pv = find(annotations[i], PathVariable.class);
+            if (rp != null) {
+                binders[i] = ParameterBinder.requestParam(rp.value(), rp.defaultValue(), types[i]);
+            } else if (pv != null) {
+                binders[i] = ParameterBinder.pathVariable(pv.value(), types[i]);
+            } else if (find(annotations[i], RequestBody.class) != null) {
+                binders[i] = ParameterBinder.requestBody(types[i]);
+            } else {
+                throw new IllegalArgumentException("Parameter " + i + " of " + method
+                        + " has no @RequestParam, @PathVariable or @RequestBody");
+            }
+        }
+        try {
+            Route route = new Route(path, compileHandler(method), binders);
+            Cacheable cacheable = method.getAnnotation(Cacheable.class);
+            if (cacheable != null) {
+                if (isSingleUse(method.getReturnType())) {
+                    throw new IllegalArgumentException("@Cacheable method " + method + " returns a "
+                            + method.getReturnType().getSimpleName() + ", which can only be consumed once");
+                }
+                route = route.withCache(new ResultCache(path, cacheable.ttlSeconds(), cacheable.maxEntries(),
+                        cacheable.maxBytes()));
+            }
+            AsyncTimeout timeout = method.getAnnotation(AsyncTimeout.class);
+            if (timeout != null) {
+                route = route.withTimeout(timeout.millis());
+            }
+            return route;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot compile " + method, e);
+        }
+    }
+
+    /**
+     * Tells whether results of a type can only be consumed once, so caching
+     * one would hand a used result to the next request.
+     */
+    private static boolean isSingleUse(Class<?> type) {
+        return CompletionStage.class.isAssignableFrom(type) || Stream.class.isAssignableFrom(type)
+                || StreamingBody.class.isAssignableFrom(type);
+    }
+
+    private static <A extends Annotation> A find(Annotation[] annotations, Class<A> type) {
+        for (Annotation a : annotations) {
+            if (type.isInstance(a)) {
+                return type.cast(a);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Turns a method into a handler. Methods with up to three parameters get a
+     * class spun by {@link LambdaMetafactory}, which the JIT can inline like a
+     * hand-written call; the rest go through a spreading method handle.
+     */
+    private static RouteHandler compileHandler(Method method) throws ReflectiveOperationException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        method.setAccessible(true);
+        MethodHandle target = lookup.unreflect(method);
+        Object instance = null;
+        if (!Modifier.isStatic(method.getModifiers())) {
+            instance = method.getDeclaringClass().getDeclaredConstructor().newInstance();
+        }
+        if (method.getParameterCount() <= 3 && method.getReturnType() != void.class) {
+            try {
+                return spin(lookup, method, target, instance);
+            } catch (Throwable e) {
+                // Fall back to the method handle below
+            }
+        }
+        MethodHandle bound = instance == null ? target : target.bindTo(instance);
+        MethodHandle spread = bound.asSpreader(Object[].class, method.getParameterCount())
+                .asType(MethodType.methodType(Object.class, Object[].class));
+        return args -> {
+            try {
+                return (Object) spread.invokeExact(args);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new UndeclaredThrowableException(t);
+            }
+        };
+    }
+
+    private static RouteHandler spin(MethodHandles.Lookup lookup, Method method, MethodHandle target,
+            Object instance) throws Throwable {
+        int arity = method.getParameterCount();
+        Class<?>[] invokers = { Invoker0.class, Invoker1.class, Invoker2.class, Invoker3.class };
+        Class<?> invokerType = invokers[arity];
+        Class<?>[] params = method.getParameterTypes();
+        for (int i = 0; i < params.length; i++) {
+            params[i] = MethodType.methodType(params[i]).wrap().returnType();
+        }
+        MethodType instantiated = MethodType.methodType(
+                MethodType.methodType(method.getReturnType()).wrap().returnType(), params);
+        MethodType factoryType = instance == null ? MethodType.methodType(invokerType)
+                : MethodType.methodType(invokerType, method.getDeclaringClass());
+        CallSite site = LambdaMetafactory.metafactory(lookup, "invoke", factoryType,
+                MethodType.genericMethodType(arity), target, instantiated);
+        Object invoker = instance == null ? site.getTarget().invoke() : site.getTarget().invoke(instance);
+        switch (arity) {
+            case 0:
+                Invoker0 i0 = (Invoker0) invoker;
+                return args -> i0.invoke();
+            case 1:
+                Invoker1 i1 = (Invoker1) invoker;
+                return args -> i1.invoke(args[0]);
+            case 2:
+                Invoker2 i2 = (Invoker2) invoker;
+                return args -> i2.invoke(args[0], args[1]);
+            default:
+                Invoker3 i3 = (Invoker3) invoker;
+                return args -> i3.invoke(args[0], args[1], args[2]);
+        }
+    }
+
+    interface Invoker0 {
+        Object invoke() throws Exception;
+    }
+
+    interface Invoker1 {
+        Object invoke(Object a) throws Exception;
+    }
+
+    interface Invoker2 {
+        Object invoke(Object a, Object b) throws Exception;
+    }
+
+    interface Invoker3 {
+        Object invoke(Object a, Object b, Object c) throws Exception;
+    }
+}
@@ -0,0 +1,19 @@
+package co.edu.escuelaing.httpserver;
+
+/**
+ * Calls the code behind a route with arguments already bound from the
+ * request.
+ *
+ * @author sergio.bejarano-r
+ */
+@FunctionalInterface
+public interface RouteHandler {
+
+    /**
+     * Invokes the route.
+     *
+     * @param args the bound arguments, in declaration order
+     * @return the value to send as the response body
+     */
+    Object invoke(Object[] args) throws Exception;
+}
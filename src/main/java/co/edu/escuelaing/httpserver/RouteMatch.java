@@ -0,0 +1,89 @@
+package co.edu.escuelaing.httpserver;
+
+/**
+ * Result of a {@link Router} lookup. A match is meant to be reused by one
+ * connection: the router only overwrites its fields, and path variables are
+ * kept as offsets into the path until they are read.
+ *
+ * @author sergio.bejarano-r
+ */
+public final class RouteMatch {
+
+    public static final int FOUND = 200;
+    public static final int NOT_FOUND = 404;
+    public static final int METHOD_NOT_ALLOWED = 405;
+
+    int status;
+    Route route;
+    String allow;
+    String path;
+    String[] names;
+    int[] bounds = new int[8];
+    int varCount;
+
+    void reset(String path) {
+        this.status = NOT_FOUND;
+        this.route = null;
+        this.allow = null;
+        this.path = path;
+        this.names = null;
+        this.varCount = 0;
+    }
+
+    void push(int from, int to) {
+        if (bounds.length < (varCount + 1) * 2) {
+            int[] bigger = new int[bounds.length * 2];
+            System.arraycopy(bounds, 0, bigger, 0, bounds.length);
+            bounds = bigger;
+        }
+        bounds[varCount * 2] = from;
+        bounds[varCount * 2 + 1] = to;
+        varCount++;
+    }
+
+    /**
+     * Gets the lookup status.
+     *
+     * @return FOUND, NOT_FOUND or METHOD_NOT_ALLOWED
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Gets the matched route.
+     *
+     * @return the route, or null unless the status is FOUND
+     */
+    public Route getRoute() {
+        return route;
+    }
+
+    /**
+     * Gets the methods accepted by the matched path, for the Allow header.
+     *
+     * @return a comma separated method list, or null unless the status is
+     *         METHOD_NOT_ALLOWED
+     */
+    public String getAllow() {
+        return allow;
+    }
+
+    /**
+     * Gets the value of a path variable or wildcard.
+     *
+     * @param name the variable name used in the route pattern
+     * @return the value, or null if the route has no such variable
+     */
+    public String getVariable(String name) {
+        if (names == null) {
+            return null;
+        }
+        for (int i = 0; i < varCount && i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return path.substring(bounds[i * 2], bounds[i * 2 + 1]);
+            }
+        }
+        return null;
+    }
+}
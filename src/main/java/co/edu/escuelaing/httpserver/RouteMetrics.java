@@ -0,0 +1,47 @@
+package co.edu.escuelaing.httpserver;
+
+/**
+ * Latency of the requests served by one route: the time spent binding the
+ * arguments and running the handler, and the time spent writing the
+ * response.
+ *
+ * @author sergio.bejarano-r
+ */
+public final class RouteMetrics {
+
+    private final String name;
+    final LatencyHistogram dispatch = new LatencyHistogram();
+    final LatencyHistogram write = new LatencyHistogram();
+
+    RouteMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Gets the route name used as the metric label.
+     *
+     * @return the mapped path, or a fixed name for static files
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the number of requests served.
+     *
+     * @return the request count
+     */
+    public long getRequests() {
+        return dispatch.count();
+    }
+
+    /**
+     * Estimates a percentile of the handler time.
+     *
+     * @param fraction the percentile, between 0 and 1
+     * @return the estimate in microseconds
+     */
+    public long getDispatchPercentile(double fraction) {
+        return dispatch.percentile(fraction);
+    }
+}
@@ -0,0 +1,19 @@
+package co.edu.escuelaing.httpserver;
+
+/**
+ * Registers routes without scanning the classpath. Implementations are
+ * generated at compile time by the route index processor and found with
+ * {@link java.util.ServiceLoader}, so startup does not depend on the number of
+ * classes on the classpath and works the same from a directory or a jar.
+ *
+ * @author sergio.bejarano-r
+ */
+public interface RouteRegistry {
+
+    /**
+     * Adds the routes of the indexed controllers.
+     *
+     * @param routes the router being built
+     */
+    void register(Router.Builder routes);
+}
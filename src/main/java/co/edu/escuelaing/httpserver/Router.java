@@ -0,0 +1,324 @@
+package co.edu.escuelaing.httpserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Radix-trie router. Patterns are made of static text, path variables such
+ * as {@code /factors/{n}} that match one path segment, and a trailing
+ * wildcard ({@code /files/*} or {@code /files/{path*}}) that matches the rest
+ * of the path. Static text wins over variables and variables over wildcards.
+ * <p>
+ * Routers are built once with a {@link Builder} and never change afterwards,
+ * so lookups from any number of threads need no locking. A lookup walks the
+ * shared prefixes in place and writes into a caller supplied
+ * {@link RouteMatch}, so it does not allocate.
+ *
+ * @author sergio.bejarano-r
+ */
+public final class Router {
+
+    private final Node root;
+    private final List<Route> routes;
+
+    private Router(Node root, List<Route> routes) {
+        this.root = root;
+        this.routes = Collections.unmodifiableList(routes);
+    }
+
+    /**
+     * Creates a builder for a new router.
+     *
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Gets every registered route, in registration order.
+     *
+     * @return the routes
+     */
+    public List<Route> getRoutes() {
+        return routes;
+    }
+
+    /**
+     * Looks up the route for a request.
+     *
+     * @param method the request method
+     * @param path   the decoded request path
+     * @param from   the index where the routed part of the path starts
+     * @param match  the result holder, overwritten by the lookup
+     * @return the match, with a FOUND, NOT_FOUND or METHOD_NOT_ALLOWED status
+     */
+    public RouteMatch find(String method, String path, int from, RouteMatch match) {
+        match.reset(path);
+        Node allowed = lookup(root, method, path, from, match, null);
+        if (match.status != RouteMatch.FOUND && allowed != null) {
+            match.status = RouteMatch.METHOD_NOT_ALLOWED;
+            match.allow = allowed.allow;
+        }
+        return match;
+    }
+
+    /**
+     * Depth-first search with backtracking. Returns the first node that
+     * matched the path but not the method, so a 405 can be reported when no
+     * node matches both.
+     */
+    private static Node lookup(Node node, String method, String path, int pos, RouteMatch match, Node allowed) {
+        int len = node.prefix.length();
+        if (!path.regionMatches(pos, node.prefix, 0, len)) {
+            return allowed;
+        }
+        pos += len;
+        if (pos == path.length()) {
+            if (node.methods != null) {
+                if (accept(node, method, match)) {
+                    return allowed;
+                }
+                if (allowed == null) {
+                    allowed = node;
+                }
+            }
+        } else {
+            char c = path.charAt(pos);
+            for (int i = 0; i < node.indices.length; i++) {
+                if (node.indices[i] == c) {
+                    allowed = lookup(node.children[i], method, path, pos, match, allowed);
+                    if (match.status == RouteMatch.FOUND) {
+                        return allowed;
+                    }
+                    break;
+                }
+            }
+            if (node.param != null) {
+                int end = path.indexOf('/', pos);
+                if (end < 0) {
+                    end = path.length();
+                }
+                if (end > pos) {
+                    int mark = match.varCount;
+                    match.push(pos, end);
+                    allowed = lookup(node.param, method, path, end, match, allowed);
+                    if (match.status == RouteMatch.FOUND) {
+                        return allowed;
+                    }
+                    match.varCount = mark;
+                }
+            }
+        }
+        if (node.wildcard != null) {
+            int mark = match.varCount;
+            match.push(pos, path.length());
+            if (accept(node.wildcard, method, match)) {
+                return allowed;
+            }
+            match.varCount = mark;
+            if (allowed == null) {
+                allowed = node.wildcard;
+            }
+        }
+        return allowed;
+    }
+
+    private static boolean accept(Node node, String method, RouteMatch match) {
+        for (int i = 0; i < node.methods.length; i++) {
+            if (node.methods[i].equals(method)) {
+                match.status = RouteMatch.FOUND;
+                match.route = node.routes[i];
+                match.names = node.names;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One node of the trie. Nodes are only modified by the builder.
+     */
+    private static final class Node {
+
+        String prefix;
+        char[] indices = new char[0];
+        Node[] children = new Node[0];
+        Node param;
+        String paramName;
+        Node wildcard;
+        String[] methods;
+        Route[] routes;
+        String[] names;
+        String allow;
+
+        Node(String prefix) {
+            this.prefix = prefix;
+        }
+
+        void addChild(Node child) {
+            indices = Arrays.copyOf(indices, indices.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            indices[indices.length - 1] = child.prefix.charAt(0);
+            children[children.length - 1] = child;
+        }
+
+        void addRoute(String method, Route route, String[] variableNames, String pattern) {
+            if (methods == null) {
+                methods = new String[0];
+                routes = new Route[0];
+                names = variableNames;
+            } else if (!Arrays.equals(names, variableNames)) {
+                throw new IllegalArgumentException("Variables of " + pattern + " conflict with "
+                        + Arrays.toString(names));
+            }
+            for (String m : methods) {
+                if (m.equals(method)) {
+                    throw new IllegalArgumentException("Duplicate route " + method + " " + pattern);
+                }
+            }
+            methods = Arrays.copyOf(methods, methods.length + 1);
+            routes = Arrays.copyOf(routes, routes.length + 1);
+            methods[methods.length - 1] = method;
+            routes[routes.length - 1] = route;
+            allow = String.join(", ", methods);
+        }
+    }
+
+    /**
+     * Collects routes and builds an immutable {@link Router}.
+     */
+    public static final class Builder {
+
+        private Node root = new Node("");
+        private final List<Route> routes = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Registers a route.
+         *
+         * @param method  the HTTP method, such as GET
+         * @param pattern the path pattern, starting with /
+         * @param route   the route to serve
+         * @return this builder
+         * @throws IllegalArgumentException if the pattern is invalid or
+         *                                  conflicts with another route
+         */
+        public Builder add(String method, String pattern, Route route) {
+            if (root == null) {
+                throw new IllegalStateException("The router was already built");
+            }
+            if (!pattern.startsWith("/")) {
+                throw new IllegalArgumentException("Route patterns must start with /: " + pattern);
+            }
+            List<String> names = new ArrayList<>();
+            Node current = root;
+            int i = 0;
+            while (i < pattern.length()) {
+                char c = pattern.charAt(i);
+                if (c == '{') {
+                    int close = pattern.indexOf('}', i);
+                    if (close < 0) {
+                        throw new IllegalArgumentException("Unclosed variable in " + pattern);
+                    }
+                    String name = pattern.substring(i + 1, close);
+                    i = close + 1;
+                    if (name.endsWith("*")) {
+                        current = wildcard(current, i, pattern);
+                    } else {
+                        current = param(current, name, pattern);
+                    }
+                    names.add(name.endsWith("*") ? name.substring(0, name.length() - 1) : name);
+                } else if (c == '*') {
+                    i++;
+                    current = wildcard(current, i, pattern);
+                    names.add("*");
+                } else {
+                    int end = i;
+                    while (end < pattern.length() && pattern.charAt(end) != '{' && pattern.charAt(end) != '*') {
+                        end++;
+                    }
+                    current = insertStatic(current, pattern.substring(i, end));
+                    i = end;
+                }
+            }
+            current.addRoute(method, route, names.toArray(new String[0]), pattern);
+            routes.add(route);
+            return this;
+        }
+
+        /**
+         * Builds the router. The builder cannot be used afterwards.
+         *
+         * @return the router
+         */
+        public Router build() {
+            Router router = new Router(root, new ArrayList<>(routes));
+            root = null;
+            return router;
+        }
+
+        private static Node insertStatic(Node node, String text) {
+            Node current = node;
+            String rest = text;
+            while (!rest.isEmpty()) {
+                int index = -1;
+                for (int i = 0; i < current.indices.length; i++) {
+                    if (current.indices[i] == rest.charAt(0)) {
+                        index = i;
+                        break;
+                    }
+                }
+                if (index < 0) {
+                    Node child = new Node(rest);
+                    current.addChild(child);
+                    return child;
+                }
+                Node child = current.children[index];
+                int common = 0;
+                int max = Math.min(child.prefix.length(), rest.length());
+                while (common < max && child.prefix.charAt(common) == rest.charAt(common)) {
+                    common++;
+                }
+                if (common < child.prefix.length()) {
+                    Node split = new Node(child.prefix.substring(0, common));
+                    child.prefix = child.prefix.substring(common);
+                    split.addChild(child);
+                    current.children[index] = split;
+                    child = split;
+                }
+                current = child;
+                rest = rest.substring(common);
+            }
+            return current;
+        }
+
+        private static Node param(Node node, String name, String pattern) {
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("Empty variable name in " + pattern);
+            }
+            if (node.param == null) {
+                node.param = new Node("");
+                node.paramName = name;
+            } else if (!node.paramName.equals(name)) {
+                throw new IllegalArgumentException("Variable {" + name + "} in " + pattern
+                        + " conflicts with {" + node.paramName + "}");
+            }
+            return node.param;
+        }
+
+        private static Node wildcard(Node node, int next, String pattern) {
+            if (next != pattern.length()) {
+                throw new IllegalArgumentException("Wildcards must end the pattern: " + pattern);
+            }
+            if (node.wildcard == null) {
+                node.wildcard = new Node("");
+            }
+            return node.wildcard;
+        }
+    }
+}
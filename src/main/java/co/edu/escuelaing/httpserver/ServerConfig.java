@@ -0,0 +1,99 @@
+package co.edu.escuelaing.httpserver;
+
+/**
+ * Reads server settings the same way the PORT variable is read: from the
+ * environment first, then from a JVM system property with the same name, and
+ * finally from a default value.
+ *
+ * @author sergio.bejarano-r
+ */
+public final class ServerConfig {
+
+    private ServerConfig() {
+    }
+
+    /**
+     * Gets a setting as a String.
+     *
+     * @param name         the environment variable or system property name
+     * @param defaultValue the value used when the setting is absent
+     * @return the configured value, or the default one
+     */
+    public static String getString(String name, String defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            value = System.getProperty(name);
+        }
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    /**
+     * Gets a setting as an int.
+     *
+     * @param name         the environment variable or system property name
+     * @param defaultValue the value used when the setting is absent or invalid
+     * @return the configured value, or the default one
+     */
+    public static int getInt(String name, int defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid " + name + " setting, using default " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Gets a setting as a long.
+     *
+     * @param name         the environment variable or system property name
+     * @param defaultValue the value used when the setting is absent or invalid
+     * @return the configured value, or the default one
+     */
+    public static long getLong(String name, long defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid " + name + " setting, using default " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Gets a setting as a boolean. Accepts true/false, yes/no and 1/0.
+     *
+     * @param name         the environment variable or system property name
+     * @param defaultValue the value used when the setting is absent or invalid
+     * @return the configured value, or the default one
+     */
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        switch (value.toLowerCase()) {
+            case "true":
+            case "yes":
+            case "1":
+                return true;
+            case "false":
+            case "no":
+            case "0":
+                return false;
+            default:
+                System.err.println("Invalid " + name + " setting, using default " + defaultValue);
+                return defaultValue;
+        }
+    }
+}
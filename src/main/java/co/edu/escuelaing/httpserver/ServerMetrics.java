@@ -0,0 +1,261 @@
+package co.edu.escuelaing.httpserver;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the server, shared by both transports
+ * and exposed in the Prometheus text format. Every counter is a
+ * {@link LongAdder}, whose cells are striped across threads, so recording
+ * costs an uncontended add even when every core is serving requests; the
+ * totals are only summed when the metrics are scraped.
+ *
+ * @author sergio.bejarano-r
+ */
+public final class ServerMetrics {
+
+    /**
+     * Metrics of the files served from the webroot.
+     */
+    static final RouteMetrics STATIC = new RouteMetrics("static");
+
+    /**
+     * Metrics of the /app requests that match no route.
+     */
+    static final RouteMetrics UNMATCHED = new RouteMetrics("unmatched");
+
+    /**
+     * Metrics of the metrics endpoint itself.
+     */
+    static final RouteMetrics SCRAPE = new RouteMetrics("metrics");
+
+    private static final LatencyHistogram PARSE = new LatencyHistogram();
+    private static final LongAdder[] STATUS = new LongAdder[600];
+    private static final LongAdder BYTES_IN = new LongAdder();
+    private static final LongAdder BYTES_OUT = new LongAdder();
+    private static final LongAdder ACTIVE_CONNECTIONS = new LongAdder();
+    private static final LongAdder CONNECTIONS = new LongAdder();
+    private static final LongAdder ACCESS_LOG_DROPPED = new LongAdder();
+    private static final LongAdder[] TIMEOUTS = new LongAdder[ConnectionPhase.values().length];
+
+    private static volatile ExecutorService executor;
+
+    static {
+        for (int i = 0; i < STATUS.length; i++) {
+            STATUS[i] = new LongAdder();
+        }
+        for (int i = 0; i < TIMEOUTS.length; i++) {
+            TIMEOUTS[i] = new LongAdder();
+        }
+    }
+
+    private ServerMetrics() {
+    }
+
+    static void parsed(long nanos) {
+        PARSE.record(nanos);
+    }
+
+    static void status(int code) {
+        if (code >= 100 && code < STATUS.length) {
+            STATUS[code].increment();
+        }
+    }
+
+    static void bytesIn(long n) {
+        if (n > 0) {
+            BYTES_IN.add(n);
+        }
+    }
+
+    static void bytesOut(long n) {
+        if (n > 0) {
+            BYTES_OUT.add(n);
+        }
+    }
+
+    static void connectionOpened() {
+        CONNECTIONS.increment();
+        ACTIVE_CONNECTIONS.increment();
+    }
+
+    static void connectionClosed() {
+        ACTIVE_CONNECTIONS.decrement();
+    }
+
+    static void accessLogDropped() {
+        ACCESS_LOG_DROPPED.increment();
+    }
+
+    static void timedOut(ConnectionPhase phase) {
+        TIMEOUTS[phase.ordinal()].increment();
+    }
+
+    /**
+     * Reports the queue depth and busy threads of the worker pool, when it
+     * is a {@link ThreadPoolExecutor}.
+     *
+     * @param workers the worker pool
+     */
+    static void watch(ExecutorService workers) {
+        executor = workers;
+    }
+
+    /**
+     * Gets the number of responses sent with a status code.
+     *
+     * @param code the status code
+     * @return the response count
+     */
+    public static long getStatusCount(int code) {
+        return code >= 0 && code < STATUS.length ? STATUS[code].sum() : 0;
+    }
+
+    /**
+     * Gets the number of access log records dropped because the log buffer
+     * was full.
+     *
+     * @return the dropped record count
+     */
+    public static long getAccessLogDropped() {
+        return ACCESS_LOG_DROPPED.sum();
+    }
+
+    /**
+     * Gets the number of connections closed for exceeding the time limit of
+     * a phase.
+     *
+     * @param phase the phase name: idle, header, body or write
+     * @return the closed connection count, 0 for an unknown phase
+     */
+    public static long getTimeouts(String phase) {
+        for (ConnectionPhase p : ConnectionPhase.values()) {
+            if (p.label().equals(phase)) {
+                return TIMEOUTS[p.ordinal()].sum();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the number of open client connections.
+     *
+     * @return the connection count
+     */
+    public static long getActiveConnections() {
+        return ACTIVE_CONNECTIONS.sum();
+    }
+
+    /**
+     * Renders every metric in the Prometheus text exposition format.
+     *
+     * @param routes the registered routes
+     * @param caches the result caches
+     * @return the exposition
+     */
+    static String scrape(List<Route> routes, List<ResultCache> caches) {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        type(out, "http_parse_seconds", "histogram", "Time spent parsing request heads.");
+        PARSE.writePrometheus(out, "http_parse_seconds", "");
+
+        type(out, "http_dispatch_seconds", "histogram", "Time spent binding arguments and running handlers.");
+        for (RouteMetrics m : routeMetrics(routes)) {
+            m.dispatch.writePrometheus(out, "http_dispatch_seconds", label("route", m.getName()));
+        }
+        type(out, "http_write_seconds", "histogram", "Time spent writing responses.");
+        for (RouteMetrics m : routeMetrics(routes)) {
+            m.write.writePrometheus(out, "http_write_seconds", label("route", m.getName()));
+        }
+
+        type(out, "http_responses_total", "counter", "Responses sent, by status code.");
+        for (int code = 100; code < STATUS.length; code++) {
+            long count = STATUS[code].sum();
+            if (count > 0) {
+                out.append("http_responses_total{code=\"").append(code).append("\"} ").append(count).append('\n');
+            }
+        }
+        type(out, "http_received_bytes_total", "counter", "Bytes read from clients.");
+        out.append("http_received_bytes_total ").append(BYTES_IN.sum()).append('\n');
+        type(out, "http_sent_bytes_total", "counter", "Bytes written to clients.");
+        out.append("http_sent_bytes_total ").append(BYTES_OUT.sum()).append('\n');
+        type(out, "http_connections_total", "counter", "Client connections accepted.");
+        out.append("http_connections_total ").append(CONNECTIONS.sum()).append('\n');
+        type(out, "http_active_connections", "gauge", "Client connections currently open.");
+        out.append("http_active_connections ").append(ACTIVE_CONNECTIONS.sum()).append('\n');
+        type(out, "http_connection_timeouts_total", "counter", "Connections closed for exceeding a time limit.");
+        for (ConnectionPhase phase : ConnectionPhase.values()) {
+            out.append("http_connection_timeouts_total{").append(label("phase", phase.label())).append("} ")
+                    .append(TIMEOUTS[phase.ordinal()].sum()).append('\n');
+        }
+        type(out, "http_access_log_dropped_total", "counter", "Access log records dropped on a full buffer.");
+        out.append("http_access_log_dropped_total ").append(ACCESS_LOG_DROPPED.sum()).append('\n');
+
+        HttpServer.ADMISSION.writePrometheus(out);
+
+        ExecutorService workers = executor;
+        if (workers instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) workers;
+            type(out, "http_executor_queue_depth", "gauge", "Tasks waiting for a worker thread.");
+            out.append("http_executor_queue_depth ").append(pool.getQueue().size()).append('\n');
+            type(out, "http_executor_active_threads", "gauge", "Worker threads running a task.");
+            out.append("http_executor_active_threads ").append(pool.getActiveCount()).append('\n');
+        }
+
+        if (!caches.isEmpty()) {
+            type(out, "http_cache_hits_total", "counter", "Result cache hits.");
+            for (ResultCache cache : caches) {
+                out.append("http_cache_hits_total{").append(label("cache", cache.getName())).append("} ")
+                        .append(cache.getHits()).append('\n');
+            }
+            type(out, "http_cache_misses_total", "counter", "Result cache misses.");
+            for (ResultCache cache : caches) {
+                out.append("http_cache_misses_total{").append(label("cache", cache.getName())).append("} ")
+                        .append(cache.getMisses()).append('\n');
+            }
+            type(out, "http_cache_evictions_total", "counter", "Result cache evictions.");
+            for (ResultCache cache : caches) {
+                out.append("http_cache_evictions_total{").append(label("cache", cache.getName())).append("} ")
+                        .append(cache.getEvictions()).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    private static RouteMetrics[] routeMetrics(List<Route> routes) {
+        RouteMetrics[] all = new RouteMetrics[routes.size() + 3];
+        int n = 0;
+        for (Route route : routes) {
+            all[n++] = route.getMetrics();
+        }
+        all[n++] = STATIC;
+        all[n++] = UNMATCHED;
+        all[n] = SCRAPE;
+        return all;
+    }
+
+    private static void type(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Formats a label, escaping the characters the exposition format
+     * reserves.
+     */
+    static String label(String name, String value) {
+        StringBuilder sb = new StringBuilder(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,458 @@
+package co.edu.escuelaing.httpserver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory cache of the files under a classpath directory. Each entry keeps
+ * the file contents together with its response headers already encoded, so a
+ * hit is served with two writes and no disk access. Text files are also
+ * compressed once with gzip and deflate and kept as cached variants.
+ * Entries are evicted in least recently used order once their total size
+ * exceeds the budget, and a file is checked for changes at most once per
+ * check interval by comparing its last-modified time and length.
+ *
+ * @author sergio.bejarano-r
+ */
+final class StaticFileCache {
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    private final String root;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final long checkIntervalNanos;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    /**
+     * Creates a cache.
+     *
+     * @param root            the classpath directory holding the files
+     * @param maxBytes        the total size of the cached contents
+     * @param maxEntryBytes   files larger than this keep their headers cached
+     *                        but are streamed from disk on every request
+     * @param checkIntervalMs how long an entry is trusted before the file is
+     *                        checked for changes
+     */
+    StaticFileCache(String root, long maxBytes, long maxEntryBytes, long checkIntervalMs) {
+        this.root = root;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+        this.checkIntervalNanos = TimeUnit.MILLISECONDS.toNanos(checkIntervalMs);
+    }
+
+    /**
+     * Gets the entry for a request path, loading or refreshing it if needed.
+     *
+     * @param path the request path, such as /index.html
+     * @return the entry, or null if there is no such file
+     * @throws IOException if the file cannot be read
+     */
+    Entry get(String path) throws IOException {
+        if (path.contains("..")) {
+            return null;
+        }
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(path);
+        }
+        long now = System.nanoTime();
+        if (entry != null && now - entry.checkedAt < checkIntervalNanos) {
+            return entry;
+        }
+        File file = entry != null ? entry.file : resolve(path);
+        if (file == null || !file.isFile()) {
+            remove(path, entry);
+            return null;
+        }
+        if (entry != null && entry.lastModified == file.lastModified() && entry.length == file.length()) {
+            entry.checkedAt = now;
+            return entry;
+        }
+        Entry loaded = load(path, file, now);
+        put(loaded);
+        return loaded;
+    }
+
+    /**
+     * Gets the number of cached entries.
+     *
+     * @return the entry count
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the total size of the cached contents.
+     *
+     * @return the size in bytes
+     */
+    synchronized long weight() {
+        return totalBytes;
+    }
+
+    private File resolve(String path) {
+        URL url = StaticFileCache.class.getClassLoader().getResource(root + path);
+        if (url == null) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private Entry load(String path, File file, long now) throws IOException {
+        long lastModified = file.lastModified();
+        byte[] body = null;
+        long length = file.length();
+        if (length <= maxEntryBytes) {
+            try (FileInputStream in = new FileInputStream(file)) {
+                body = in.readAllBytes();
+            }
+            length = body.length;
+        }
+        return new Entry(path, file, guessContentType(path), lastModified, length, body, now);
+    }
+
+    private synchronized void put(Entry entry) {
+        Entry old = entries.put(entry.path, entry);
+        if (old != null) {
+            totalBytes -= old.weight();
+        }
+        totalBytes += entry.weight();
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            if (eldest == entry) {
+                continue;
+            }
+            totalBytes -= eldest.weight();
+            it.remove();
+        }
+    }
+
+    private synchronized void remove(String path, Entry entry) {
+        if (entry != null && entries.remove(path, entry)) {
+            totalBytes -= entry.weight();
+        }
+    }
+
+    /**
+     * Guesses the content type based on the file extension.
+     *
+     * @param path the file path
+     * @return the guessed content type
+     */
+    static String guessContentType(String path) {
+        if (path.endsWith(".html") || path.endsWith(".htm")) {
+            return "text/html";
+        } else if (path.endsWith(".css")) {
+            return "text/css";
+        } else if (path.endsWith(".js")) {
+            return "application/javascript";
+        } else if (path.endsWith(".png")) {
+            return "image/png";
+        } else if (path.endsWith(".jpg") || path.endsWith(".jpeg")) {
+            return "image/jpeg";
+        } else if (path.endsWith(".gif")) {
+            return "image/gif";
+        } else if (path.endsWith(".ico")) {
+            return "image/x-icon";
+        }
+        return "application/octet-stream";
+    }
+
+    /**
+     * A cached file with its validators and encoded response headers.
+     */
+    static final class Entry {
+
+        final String path;
+        final File file;
+        final String contentType;
+        final long lastModified;
+        final long length;
+        final String etag;
+        final String lastModifiedHeader;
+        private final byte[] body;
+        private final byte[][] heads = new byte[2][];
+        private final byte[][] notModifiedHeads = new byte[2][];
+        private final Variant gzip;
+        private final Variant deflate;
+        volatile long checkedAt;
+
+        Entry(String path, File file, String contentType, long lastModified, long length, byte[] body,
+                long checkedAt) {
+            this.path = path;
+            this.file = file;
+            this.contentType = contentType;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.body = body;
+            this.checkedAt = checkedAt;
+            this.etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+            this.lastModifiedHeader = HTTP_DATE.format(Instant.ofEpochMilli(lastModified));
+            boolean compressible = body != null && ContentEncoding.isCompressible(contentType);
+            this.gzip = compressible ? Variant.create(this, ContentEncoding.GZIP) : null;
+            this.deflate = compressible ? Variant.create(this, ContentEncoding.DEFLATE) : null;
+            String vary = compressible ? "Vary: Accept-Encoding\r\n" : "";
+            for (int k = 0; k < 2; k++) {
+                String connection = "Connection: " + (k == 1 ? "keep-alive" : "close") + "\r\n";
+                String validators = "ETag: " + etag + "\r\n"
+                        + "Last-Modified: " + lastModifiedHeader + "\r\n" + vary;
+                heads[k] = ("HTTP/1.1 200 OK\r\n"
+                        + "Content-Type: " + contentType + "\r\n"
+                        + "Content-Length: " + length + "\r\n"
+                        + "Accept-Ranges: bytes\r\n"
+                        + validators + connection + "\r\n").getBytes(StandardCharsets.US_ASCII);
+                notModifiedHeads[k] = ("HTTP/1.1 304 Not Modified\r\n"
+                        + validators + connection + "\r\n").getBytes(StandardCharsets.US_ASCII);
+            }
+        }
+
+        /**
+         * Gets the compressed variant for a content coding.
+         *
+         * @param encoding GZIP or DEFLATE
+         * @return the variant, or null if the file is not stored compressed
+         */
+        Variant variant(String encoding) {
+            if (ContentEncoding.GZIP.equals(encoding)) {
+                return gzip;
+            }
+            return ContentEncoding.DEFLATE.equals(encoding) ? deflate : null;
+        }
+
+        /**
+         * Gets the encoded status line and headers of a 200 response.
+         *
+         * @param keepAlive whether the connection stays open
+         * @return the header bytes, ending with the blank line
+         */
+        byte[] head(boolean keepAlive) {
+            return heads[keepAlive ? 1 : 0];
+        }
+
+        /**
+         * Gets the encoded status line and headers of a 304 response.
+         *
+         * @param keepAlive whether the connection stays open
+         * @return the header bytes, ending with the blank line
+         */
+        byte[] notModifiedHead(boolean keepAlive) {
+            return notModifiedHeads[keepAlive ? 1 : 0];
+        }
+
+        /**
+         * Encodes the status line and headers of a 206 response.
+         *
+         * @param range     the satisfiable range being sent
+         * @param keepAlive whether the connection stays open
+         * @return the header bytes, ending with the blank line
+         */
+        byte[] partialHead(ByteRange range, boolean keepAlive) {
+            return ("HTTP/1.1 206 Partial Content\r\n"
+                    + "Content-Type: " + contentType + "\r\n"
+                    + "Content-Length: " + range.length() + "\r\n"
+                    + "Content-Range: bytes " + range.start + "-" + range.end + "/" + length + "\r\n"
+                    + "Accept-Ranges: bytes\r\n"
+                    + "ETag: " + etag + "\r\n"
+                    + "Last-Modified: " + lastModifiedHeader + "\r\n"
+                    + "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n"
+                    + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+
+        /**
+         * Encodes the status line and headers of a 416 response.
+         *
+         * @param keepAlive whether the connection stays open
+         * @return the header bytes, ending with the blank line
+         */
+        byte[] unsatisfiableHead(boolean keepAlive) {
+            return ("HTTP/1.1 416 Range Not Satisfiable\r\n"
+                    + "Content-Range: bytes */" + length + "\r\n"
+                    + "Content-Length: 0\r\n"
+                    + "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n"
+                    + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+
+        /**
+         * Gets the cached contents.
+         *
+         * @return the body, or null if the file is too large to be cached
+         */
+        byte[] body() {
+            return body;
+        }
+
+        /**
+         * Tells whether the client already has this version of the file,
+         * following the precedence of RFC 9110: If-None-Match is used when
+         * present and If-Modified-Since otherwise.
+         *
+         * @param request the parsed request
+         * @return true if a 304 response should be sent
+         */
+        boolean isNotModified(HttpRequest request) {
+            return isNotModified(request, etag);
+        }
+
+        /**
+         * Tells whether the client already has a representation of this
+         * version of the file.
+         *
+         * @param request the parsed request
+         * @param tag     the entity tag of the representation being served
+         * @return true if a 304 response should be sent
+         */
+        boolean isNotModified(HttpRequest request, String tag) {
+            String ifNoneMatch = request.getHeader("If-None-Match");
+            if (ifNoneMatch != null) {
+                return matchesEtag(ifNoneMatch, tag);
+            }
+            String ifModifiedSince = request.getHeader("If-Modified-Since");
+            if (ifModifiedSince != null) {
+                try {
+                    long since = ZonedDateTime.parse(ifModifiedSince.trim(), HTTP_DATE).toEpochSecond();
+                    return lastModified / 1000 <= since;
+                } catch (DateTimeParseException e) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Tells whether the Range header of a request applies to this version
+         * of the file. An If-Range validator that does not match means the
+         * client's partial copy is stale and the full file must be sent.
+         *
+         * @param request the parsed request
+         * @return true if the range can be honored
+         */
+        boolean isRangeValid(HttpRequest request) {
+            String ifRange = request.getHeader("If-Range");
+            if (ifRange == null) {
+                return true;
+            }
+            String value = ifRange.trim();
+            if (value.startsWith("\"") || value.startsWith("W/")) {
+                return value.equals(etag);
+            }
+            try {
+                return ZonedDateTime.parse(value, HTTP_DATE).toEpochSecond() == lastModified / 1000;
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+
+        private static boolean matchesEtag(String header, String etag) {
+            for (String candidate : header.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*")) {
+                    return true;
+                }
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private long weight() {
+            long weight = body == null ? 0 : body.length;
+            weight += gzip == null ? 0 : gzip.body.length;
+            weight += deflate == null ? 0 : deflate.body.length;
+            return weight;
+        }
+    }
+
+    /**
+     * A compressed copy of a cached file, with its own entity tag and
+     * encoded headers.
+     */
+    static final class Variant {
+
+        final String encoding;
+        final String etag;
+        private final byte[] body;
+        private final byte[][] heads = new byte[2][];
+        private final byte[][] notModifiedHeads = new byte[2][];
+
+        private Variant(Entry entry, String encoding, byte[] body) {
+            this.encoding = encoding;
+            this.body = body;
+            this.etag = entry.etag.substring(0, entry.etag.length() - 1) + "-" + encoding + "\"";
+            for (int k = 0; k < 2; k++) {
+                String connection = "Connection: " + (k == 1 ? "keep-alive" : "close") + "\r\n";
+                String validators = "ETag: " + etag + "\r\n"
+                        + "Last-Modified: " + entry.lastModifiedHeader + "\r\n"
+                        + "Vary: Accept-Encoding\r\n";
+                heads[k] = ("HTTP/1.1 200 OK\r\n"
+                        + "Content-Type: " + entry.contentType + "\r\n"
+                        + "Content-Encoding: " + encoding + "\r\n"
+                        + "Content-Length: " + body.length + "\r\n"
+                        + validators + connection + "\r\n").getBytes(StandardCharsets.US_ASCII);
+                notModifiedHeads[k] = ("HTTP/1.1 304 Not Modified\r\n"
+                        + validators + connection + "\r\n").getBytes(StandardCharsets.US_ASCII);
+            }
+        }
+
+        /**
+         * Compresses the contents of an entry, keeping the result only when
+         * it is smaller.
+         */
+        static Variant create(Entry entry, String encoding) {
+            byte[] compressed = ContentEncoding.encode(entry.body, encoding);
+            return compressed.length < entry.body.length ? new Variant(entry, encoding, compressed) : null;
+        }
+
+        /**
+         * Gets the encoded status line and headers of a 200 response.
+         *
+         * @param keepAlive whether the connection stays open
+         * @return the header bytes, ending with the blank line
+         */
+        byte[] head(boolean keepAlive) {
+            return heads[keepAlive ? 1 : 0];
+        }
+
+        /**
+         * Gets the encoded status line and headers of a 304 response.
+         *
+         * @param keepAlive whether the connection stays open
+         * @return the header bytes, ending with the blank line
+         */
+        byte[] notModifiedHead(boolean keepAlive) {
+            return notModifiedHeads[keepAlive ? 1 : 0];
+        }
+
+        /**
+         * Gets the compressed contents.
+         *
+         * @return the body
+         */
+        byte[] body() {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package co.edu.escuelaing.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A response body written while it is sent, for responses that are large or
+ * produced slowly. Controller methods return one, and the server hands it
+ * the connection: bytes go out through a small buffer, {@code flush()} sends
+ * what was written so far, and writes block while the client is not reading,
+ * so the memory a response holds does not depend on its length. Bodies of
+ * unknown length are sent with {@code Transfer-Encoding: chunked}.
+ *
+ * @author sergio.bejarano-r
+ */
+@FunctionalInterface
+public interface StreamingBody {
+
+    /**
+     * Writes the body. Closing the stream is allowed but not needed; the
+     * server ends the body when this method returns.
+     *
+     * @param out the body sink
+     * @throws IOException if the client goes away
+     */
+    void writeTo(OutputStream out) throws IOException;
+}
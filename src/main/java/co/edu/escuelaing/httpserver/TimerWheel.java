@@ -0,0 +1,241 @@
+package co.edu.escuelaing.httpserver;
+
+/**
+ * Hashed timing wheel for connection deadlines. Timeouts hash into a ring of
+ * buckets by the tick they expire in; scheduling, rescheduling and cancelling
+ * are O(1) list operations on the timeout itself, and each tick only visits
+ * one bucket, so tens of thousands of connections can carry a deadline
+ * without a scheduled task each. A timeout due more than one turn of the
+ * wheel ahead simply stays in its bucket until the turn it expires in.
+ * <p>
+ * Expiry is checked by whoever calls {@link #expire(long)}: the event loop
+ * owning the wheel in the {@code nio} transport, or the thread started by
+ * {@link #start(String)} for the blocking one. Timeouts fire at most one tick
+ * late and never early.
+ *
+ * @author sergio.bejarano-r
+ */
+final class TimerWheel {
+
+    /**
+     * A deadline that can be moved from phase to phase. Each connection owns
+     * one and reschedules it, so no object is created per phase.
+     */
+    static final class Timeout {
+
+        private final Runnable action;
+        private ConnectionPhase phase;
+        private long expiresAt;
+        private int bucket;
+        private Timeout prev;
+        private Timeout next;
+        private boolean scheduled;
+        private volatile boolean expired;
+
+        /**
+         * Creates a timeout.
+         *
+         * @param action run on the expiring thread when the deadline passes
+         */
+        Timeout(Runnable action) {
+            this.action = action;
+        }
+
+        /**
+         * Gets the phase the timeout was last scheduled for.
+         *
+         * @return the phase, or null if never scheduled
+         */
+        ConnectionPhase getPhase() {
+            return phase;
+        }
+
+        /**
+         * Tells whether the timeout has fired.
+         *
+         * @return true once the action ran or is running
+         */
+        boolean hasExpired() {
+            return expired;
+        }
+    }
+
+    private final long tickMillis;
+    private final Timeout[] buckets;
+    private final int mask;
+    private long processedTick;
+    private int size;
+
+    /**
+     * Creates a wheel.
+     *
+     * @param tickMillis the length of a tick, the precision of the deadlines
+     * @param wheelSize  the number of buckets, rounded up to a power of two
+     */
+    TimerWheel(long tickMillis, int wheelSize) {
+        this.tickMillis = Math.max(1, tickMillis);
+        int n = Integer.highestOneBit(Math.max(2, wheelSize) - 1) << 1;
+        this.buckets = new Timeout[n];
+        this.mask = n - 1;
+        this.processedTick = now() / this.tickMillis - 1;
+    }
+
+    /**
+     * Gets the clock of the wheel, which only moves forward.
+     *
+     * @return the time in milliseconds
+     */
+    static long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    /**
+     * Gets the length of a tick.
+     *
+     * @return the tick in milliseconds
+     */
+    long getTickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * Schedules a timeout for the limit of a phase from now, replacing its
+     * previous deadline.
+     *
+     * @param timeout the timeout
+     * @param phase   the phase whose limit applies
+     */
+    void schedule(Timeout timeout, ConnectionPhase phase) {
+        schedule(timeout, phase, now() + phase.getTimeoutMillis());
+    }
+
+    /**
+     * Schedules a timeout at a given time, replacing its previous deadline.
+     *
+     * @param timeout   the timeout
+     * @param phase     the phase it stands for
+     * @param expiresAt the deadline, on the {@link #now()} clock
+     */
+    synchronized void schedule(Timeout timeout, ConnectionPhase phase, long expiresAt) {
+        if (timeout.expired) {
+            return;
+        }
+        if (timeout.scheduled) {
+            unlink(timeout);
+        }
+        timeout.phase = phase;
+        timeout.expiresAt = expiresAt;
+        int bucket = (int) (Math.max(expiresAt / tickMillis, processedTick + 1) & mask);
+        timeout.bucket = bucket;
+        timeout.prev = null;
+        timeout.next = buckets[bucket];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        buckets[bucket] = timeout;
+        timeout.scheduled = true;
+        size++;
+    }
+
+    /**
+     * Cancels a timeout, if scheduled.
+     *
+     * @param timeout the timeout
+     */
+    synchronized void cancel(Timeout timeout) {
+        if (timeout.scheduled) {
+            unlink(timeout);
+        }
+    }
+
+    /**
+     * Gets the number of scheduled timeouts.
+     *
+     * @return the timeout count
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Fires every timeout whose deadline has passed, visiting the buckets of
+     * the ticks completed since the last call. The actions run after the
+     * wheel is unlocked, so they may schedule or cancel other timeouts.
+     *
+     * @param now the current time, on the {@link #now()} clock
+     * @return the number of timeouts fired
+     */
+    int expire(long now) {
+        Timeout fired = null;
+        synchronized (this) {
+            long lastTick = now / tickMillis - 1;
+            // After a long pause one turn visits every bucket
+            long stop = Math.min(lastTick, processedTick + buckets.length);
+            for (long tick = processedTick + 1; tick <= stop; tick++) {
+                Timeout t = buckets[(int) (tick & mask)];
+                while (t != null) {
+                    Timeout next = t.next;
+                    if (t.expiresAt <= now) {
+                        unlink(t);
+                        t.expired = true;
+                        t.next = fired;
+                        fired = t;
+                    }
+                    t = next;
+                }
+            }
+            processedTick = Math.max(processedTick, lastTick);
+        }
+        int count = 0;
+        while (fired != null) {
+            Timeout next = fired.next;
+            fired.next = null;
+            ServerMetrics.timedOut(fired.phase);
+            try {
+                fired.action.run();
+            } catch (RuntimeException e) {
+                System.err.println("Timeout action failed: " + e.getMessage());
+            }
+            fired = next;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Starts a daemon thread that expires timeouts every tick.
+     *
+     * @param name the thread name
+     * @return the thread
+     */
+    Thread start(String name) {
+        Thread thread = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(tickMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                expire(now());
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private void unlink(Timeout t) {
+        if (t.prev != null) {
+            t.prev.next = t.next;
+        } else {
+            buckets[t.bucket] = t.next;
+        }
+        if (t.next != null) {
+            t.next.prev = t.prev;
+        }
+        t.prev = null;
+        t.next = null;
+        t.scheduled = false;
+        size--;
+    }
+}
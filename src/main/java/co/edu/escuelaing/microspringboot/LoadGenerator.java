@@ -0,0 +1,718 @@
+package co.edu.escuelaing.microspringboot;
+
+import co.edu.escuelaing.httpserver.ServerConfig;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator for capacity planning, always aimed at a server on the
+ * loopback interface. Every connection runs on its own thread and has one
+ * request in flight at a time.
+ * <ul>
+ * <li>In the closed-loop mode each connection sends its next request as soon
+ * as the previous response arrives, so the offered load follows the server
+ * speed and latency is the service time.</li>
+ * <li>In the open-loop mode requests are scheduled at a constant arrival
+ * rate, split evenly across the connections. Latency is measured from the
+ * time a request was due, not from when it was actually sent, so a server
+ * that stalls is charged for every request that should have gone out in the
+ * meantime instead of hiding them (coordinated omission).</li>
+ * </ul>
+ * Requests are drawn from a weighted mix of targets or replayed in order from
+ * a recorded file. Run it with {@link #main(String[])}; the settings are read
+ * like the server ones (see {@link #fromConfig()}).
+ *
+ * @author sergio.bejarano-r
+ */
+public final class LoadGenerator {
+
+    /**
+     * Default mix of the example endpoints and the webroot assets.
+     */
+    static final String DEFAULT_MIX = "/app/greeting?name=Load:30,/app/square?n=12:25,/app/factors?n=600851475143:15,"
+            + "/index.html:15,/style.css:10,/script.js:5";
+
+    /**
+     * How requests are paced.
+     */
+    public enum Mode {
+        /**
+         * Each connection sends the next request when the previous one is
+         * answered.
+         */
+        CLOSED,
+        /**
+         * Requests are sent at a constant arrival rate.
+         */
+        OPEN
+    }
+
+    private final int port;
+    private final Mode mode;
+    private final int connections;
+    private final double rate;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final boolean keepAlive;
+    private final Workload workload;
+
+    private LoadGenerator(Builder builder) {
+        this.port = builder.port;
+        this.mode = builder.mode;
+        this.connections = Math.max(1, builder.connections);
+        this.rate = builder.rate;
+        this.durationNanos = TimeUnit.MILLISECONDS.toNanos(builder.durationMillis);
+        this.warmupNanos = TimeUnit.MILLISECONDS.toNanos(builder.warmupMillis);
+        this.keepAlive = builder.keepAlive;
+        this.workload = builder.workload;
+        if (mode == Mode.OPEN && rate <= 0) {
+            throw new IllegalArgumentException("The open-loop mode needs a positive rate");
+        }
+    }
+
+    /**
+     * Creates a builder with the defaults: port 9000, closed loop, 16
+     * keep-alive connections, 10 seconds after a 2 second warm-up, and the
+     * default mix.
+     *
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Creates a generator from the LOAD_* settings, read from the environment
+     * or system properties:
+     * LOAD_PORT, LOAD_MODE (closed or open), LOAD_CONNECTIONS, LOAD_RATE
+     * (requests per second, open loop), LOAD_DURATION_SECONDS,
+     * LOAD_WARMUP_SECONDS, LOAD_KEEP_ALIVE, LOAD_MIX (comma-separated
+     * {@code target:weight} pairs) and LOAD_REPLAY (a recorded file, which
+     * replaces the mix).
+     *
+     * @return the generator
+     * @throws IOException if the replay file cannot be read
+     */
+    public static LoadGenerator fromConfig() throws IOException {
+        Builder builder = builder()
+                .port(ServerConfig.getInt("LOAD_PORT", ServerConfig.getInt("PORT", 9000)))
+                .connections(ServerConfig.getInt("LOAD_CONNECTIONS", 16))
+                .rate(ServerConfig.getInt("LOAD_RATE", 1000))
+                .durationMillis(TimeUnit.SECONDS.toMillis(ServerConfig.getLong("LOAD_DURATION_SECONDS", 10)))
+                .warmupMillis(TimeUnit.SECONDS.toMillis(ServerConfig.getLong("LOAD_WARMUP_SECONDS", 2)))
+                .keepAlive(ServerConfig.getBoolean("LOAD_KEEP_ALIVE", true));
+        String mode = ServerConfig.getString("LOAD_MODE", "closed");
+        try {
+            builder.mode(Mode.valueOf(mode.toUpperCase(Locale.ROOT)));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid LOAD_MODE setting, using default closed");
+        }
+        String replay = ServerConfig.getString("LOAD_REPLAY", "");
+        builder.workload(replay.isEmpty() ? Workload.mix(ServerConfig.getString("LOAD_MIX", DEFAULT_MIX))
+                : Workload.replay(Paths.get(replay)));
+        return builder.build();
+    }
+
+    /**
+     * Generates load and prints a report.
+     *
+     * @param args command line arguments, unused; see {@link #fromConfig()}
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        LoadGenerator generator = fromConfig();
+        System.out.println(generator);
+        System.out.print(generator.run());
+    }
+
+    /**
+     * Runs the load for the warm-up plus the measured duration.
+     *
+     * @return the results of the measured part
+     */
+    public Report run() throws InterruptedException {
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        Client[] clients = new Client[connections];
+        Thread[] threads = new Thread[connections];
+        for (int i = 0; i < connections; i++) {
+            clients[i] = new Client(i, start, measureFrom, end);
+            threads[i] = new Thread(clients[i], "load-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return new Report(clients, durationNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "Load on localhost:" + port + ": " + mode.name().toLowerCase(Locale.ROOT) + " loop, " + connections
+                + (keepAlive ? " keep-alive" : " short-lived") + " connections"
+                + (mode == Mode.OPEN ? ", " + rate + " requests/s" : "") + ", "
+                + TimeUnit.NANOSECONDS.toSeconds(durationNanos) + " s after a "
+                + TimeUnit.NANOSECONDS.toSeconds(warmupNanos) + " s warm-up, " + workload;
+    }
+
+    /**
+     * Settings of a {@link LoadGenerator}.
+     */
+    public static final class Builder {
+
+        private int port = 9000;
+        private Mode mode = Mode.CLOSED;
+        private int connections = 16;
+        private double rate = 1000;
+        private long durationMillis = 10_000;
+        private long warmupMillis = 2_000;
+        private boolean keepAlive = true;
+        private Workload workload = Workload.mix(DEFAULT_MIX);
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the port of the server on localhost.
+         *
+         * @param port the port
+         * @return this builder
+         */
+        public Builder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * Sets how requests are paced.
+         *
+         * @param mode the mode
+         * @return this builder
+         */
+        public Builder mode(Mode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        /**
+         * Sets the number of concurrent connections.
+         *
+         * @param connections the connection count
+         * @return this builder
+         */
+        public Builder connections(int connections) {
+            this.connections = connections;
+            return this;
+        }
+
+        /**
+         * Sets the arrival rate of the open-loop mode.
+         *
+         * @param requestsPerSecond the total rate over all connections
+         * @return this builder
+         */
+        public Builder rate(double requestsPerSecond) {
+            this.rate = requestsPerSecond;
+            return this;
+        }
+
+        /**
+         * Sets how long results are measured.
+         *
+         * @param millis the measured duration
+         * @return this builder
+         */
+        public Builder durationMillis(long millis) {
+            this.durationMillis = millis;
+            return this;
+        }
+
+        /**
+         * Sets how long the load runs before results are measured.
+         *
+         * @param millis the warm-up duration
+         * @return this builder
+         */
+        public Builder warmupMillis(long millis) {
+            this.warmupMillis = millis;
+            return this;
+        }
+
+        /**
+         * Sets whether connections are reused or opened for every request.
+         *
+         * @param keepAlive true to reuse connections
+         * @return this builder
+         */
+        public Builder keepAlive(boolean keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        /**
+         * Sets the requests to send.
+         *
+         * @param workload the workload
+         * @return this builder
+         */
+        public Builder workload(Workload workload) {
+            this.workload = workload;
+            return this;
+        }
+
+        /**
+         * Creates the generator.
+         *
+         * @return the generator
+         * @throws IllegalArgumentException if the open-loop mode has no rate
+         */
+        public LoadGenerator build() {
+            return new LoadGenerator(this);
+        }
+    }
+
+    /**
+     * The request targets to send, such as {@code /app/square?n=12}.
+     */
+    public static final class Workload {
+
+        private final String[] targets;
+        private final int[] cumulativeWeights;
+        private final AtomicLong cursor;
+        private final String description;
+
+        private Workload(String[] targets, int[] cumulativeWeights, String description) {
+            this.targets = targets;
+            this.cumulativeWeights = cumulativeWeights;
+            this.cursor = cumulativeWeights == null ? new AtomicLong() : null;
+            this.description = description;
+        }
+
+        /**
+         * Creates a weighted mix, such as
+         * {@code /app/greeting?name=A:3,/index.html:1}, where each target is
+         * picked at random in proportion to its weight (1 when omitted).
+         *
+         * @param spec comma-separated targets with optional weights
+         * @return the workload
+         * @throws IllegalArgumentException if the spec has no target or a
+         *                                  target does not start with /
+         */
+        public static Workload mix(String spec) {
+            List<String> targets = new ArrayList<>();
+            List<Integer> weights = new ArrayList<>();
+            for (String item : spec.split(",")) {
+                item = item.trim();
+                if (item.isEmpty()) {
+                    continue;
+                }
+                int weight = 1;
+                int colon = item.lastIndexOf(':');
+                if (colon > 0) {
+                    try {
+                        weight = Integer.parseInt(item.substring(colon + 1).trim());
+                        item = item.substring(0, colon).trim();
+                    } catch (NumberFormatException e) {
+                        // The colon belongs to the target
+                    }
+                }
+                if (weight > 0) {
+                    targets.add(checkTarget(item));
+                    weights.add(weight);
+                }
+            }
+            if (targets.isEmpty()) {
+                throw new IllegalArgumentException("The request mix has no target: " + spec);
+            }
+            int[] cumulative = new int[weights.size()];
+            int total = 0;
+            for (int i = 0; i < cumulative.length; i++) {
+                total += weights.get(i);
+                cumulative[i] = total;
+            }
+            return new Workload(targets.toArray(new String[0]), cumulative, "mix of " + targets.size() + " targets");
+        }
+
+        /**
+         * Reads a recorded workload that is replayed in order, over and over.
+         * Each line is a target ({@code /app/square?n=3}), a request line
+         * ({@code GET /app/square?n=3 HTTP/1.1}) or a line of the server access
+         * log, whose quoted path is used. Blank lines and lines starting with
+         * # are skipped.
+         *
+         * @param file the recorded file
+         * @return the workload
+         * @throws IOException if the file cannot be read
+         * @throws IllegalArgumentException if it holds no request
+         */
+        public static Workload replay(Path file) throws IOException {
+            List<String> targets = new ArrayList<>();
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String target = parseRecorded(line.trim());
+                if (target != null) {
+                    targets.add(target);
+                }
+            }
+            if (targets.isEmpty()) {
+                throw new IllegalArgumentException("No request found in " + file);
+            }
+            return new Workload(targets.toArray(new String[0]), null,
+                    "replay of " + targets.size() + " requests from " + file);
+        }
+
+        static String parseRecorded(String line) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                return null;
+            }
+            int quote = line.indexOf('"');
+            if (quote >= 0) {
+                int close = line.indexOf('"', quote + 1);
+                return close < 0 ? null : checkTarget(line.substring(quote + 1, close).replace(" ", "%20"));
+            }
+            String[] parts = line.split("\\s+");
+            return checkTarget(parts.length > 1 ? parts[1] : parts[0]);
+        }
+
+        private static String checkTarget(String target) {
+            if (!target.startsWith("/") || target.indexOf(' ') >= 0) {
+                throw new IllegalArgumentException("Invalid request target: " + target);
+            }
+            return target;
+        }
+
+        /**
+         * Gets the next target to send.
+         *
+         * @return the target
+         */
+        String next() {
+            if (cumulativeWeights == null) {
+                return targets[(int) (cursor.getAndIncrement() % targets.length)];
+            }
+            int pick = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+            int i = Arrays.binarySearch(cumulativeWeights, pick + 1);
+            return targets[i >= 0 ? i : -i - 1];
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    /**
+     * Results of the measured part of a run.
+     */
+    public static final class Report {
+
+        private final long[] latencies;
+        private final long[] statusClasses = new long[6];
+        private final long errors;
+        private final long durationNanos;
+
+        Report(Client[] clients, long durationNanos) {
+            int total = 0;
+            long failed = 0;
+            for (Client client : clients) {
+                total += client.count;
+                failed += client.errors;
+                for (int i = 0; i < statusClasses.length; i++) {
+                    statusClasses[i] += client.statusClasses[i];
+                }
+            }
+            latencies = new long[total];
+            int n = 0;
+            for (Client client : clients) {
+                System.arraycopy(client.latencies, 0, latencies, n, client.count);
+                n += client.count;
+            }
+            Arrays.sort(latencies);
+            this.errors = failed;
+            this.durationNanos = durationNanos;
+        }
+
+        /**
+         * Gets the number of responses received.
+         *
+         * @return the response count
+         */
+        public long getRequests() {
+            return latencies.length;
+        }
+
+        /**
+         * Gets the number of requests that failed without a response.
+         *
+         * @return the error count
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * Gets the number of responses with a status class, such as 2 for
+         * 2xx.
+         *
+         * @param statusClass the first digit of the status code
+         * @return the response count
+         */
+        public long getStatusCount(int statusClass) {
+            return statusClass >= 0 && statusClass < statusClasses.length ? statusClasses[statusClass] : 0;
+        }
+
+        /**
+         * Gets the responses received per second.
+         *
+         * @return the throughput
+         */
+        public double getThroughput() {
+            return latencies.length * 1e9 / durationNanos;
+        }
+
+        /**
+         * Gets a latency percentile.
+         *
+         * @param fraction the percentile, between 0 and 1
+         * @return the latency in microseconds, or 0 without responses
+         */
+        public long getPercentileMicros(double fraction) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(fraction * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(latencies.length - 1, index))] / 1000;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ROOT, "Requests: %d (%.1f/s), errors: %d%n", getRequests(),
+                    getThroughput(), errors));
+            sb.append("Status:");
+            for (int i = 1; i < statusClasses.length; i++) {
+                if (statusClasses[i] > 0) {
+                    sb.append(' ').append(i).append("xx=").append(statusClasses[i]);
+                }
+            }
+            sb.append(String.format(Locale.ROOT, "%n"));
+            sb.append("Latency (ms):");
+            double[] fractions = { 0.5, 0.9, 0.99, 0.999, 1.0 };
+            String[] names = { "p50", "p90", "p99", "p99.9", "max" };
+            for (int i = 0; i < fractions.length; i++) {
+                sb.append(String.format(Locale.ROOT, " %s=%.3f", names[i], getPercentileMicros(fractions[i]) / 1000.0));
+            }
+            return sb.append(String.format(Locale.ROOT, "%n")).toString();
+        }
+    }
+
+    /**
+     * One connection and the thread that drives it.
+     */
+    private final class Client implements Runnable {
+
+        private final long start;
+        private final long measureFrom;
+        private final long end;
+        private final long interval;
+        private final byte[] line = new byte[8 * 1024];
+        private final byte[] discard = new byte[16 * 1024];
+        long[] latencies = new long[1024];
+        int count;
+        long errors;
+        final long[] statusClasses = new long[6];
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+        private boolean serverCloses;
+
+        Client(int index, long start, long measureFrom, long end) {
+            this.measureFrom = measureFrom;
+            this.end = end;
+            this.interval = mode == Mode.OPEN ? (long) (1e9 * connections / rate) : 0;
+            // Stagger the open-loop schedules so arrivals are evenly spaced
+            this.start = start + (mode == Mode.OPEN ? interval * index / connections : 0);
+        }
+
+        @Override
+        public void run() {
+            long due = start;
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    long intended;
+                    if (mode == Mode.OPEN) {
+                        if (due >= end) {
+                            break;
+                        }
+                        if (now < due) {
+                            LockSupport.parkNanos(due - now);
+                            continue;
+                        }
+                        intended = due;
+                        due += interval;
+                    } else {
+                        if (now < start) {
+                            LockSupport.parkNanos(start - now);
+                            continue;
+                        }
+                        if (now >= end) {
+                            break;
+                        }
+                        intended = now;
+                    }
+                    int status;
+                    try {
+                        status = exchange(workload.next());
+                    } catch (IOException e) {
+                        close();
+                        if (intended >= measureFrom) {
+                            errors++;
+                        }
+                        continue;
+                    }
+                    long done = System.nanoTime();
+                    if (intended >= measureFrom) {
+                        record(done - intended, status);
+                    }
+                }
+            } finally {
+                close();
+            }
+        }
+
+        private void record(long latency, int status) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latency;
+            statusClasses[Math.min(5, Math.max(0, status / 100))]++;
+        }
+
+        /**
+         * Sends a request and reads its whole response.
+         *
+         * @return the status code
+         */
+        private int exchange(String target) throws IOException {
+            if (socket == null) {
+                socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                socket.setTcpNoDelay(true);
+                in = new BufferedInputStream(socket.getInputStream());
+                out = socket.getOutputStream();
+            }
+            out.write(("GET " + target + " HTTP/1.1\r\nHost: localhost\r\n"
+                    + (keepAlive ? "" : "Connection: close\r\n") + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            int status = readHead();
+            if (!keepAlive || serverCloses) {
+                close();
+            }
+            return status;
+        }
+
+        /**
+         * Reads the status line and headers, then skips the body.
+         */
+        private int readHead() throws IOException {
+            String statusLine = readLine();
+            if (!statusLine.startsWith("HTTP/1.") || statusLine.length() < 12) {
+                throw new IOException("Invalid status line: " + statusLine);
+            }
+            int status = Integer.parseInt(statusLine.substring(9, 12));
+            long length = -1;
+            boolean chunked = false;
+            serverCloses = false;
+            String header;
+            while (!(header = readLine()).isEmpty()) {
+                int colon = header.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String name = header.substring(0, colon).trim();
+                String value = header.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    length = Long.parseLong(value);
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    chunked = value.equalsIgnoreCase("chunked");
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    serverCloses = value.equalsIgnoreCase("close");
+                }
+            }
+            if (chunked) {
+                long size;
+                while ((size = Long.parseLong(readLine().split(";")[0].trim(), 16)) > 0) {
+                    skip(size);
+                    readLine();
+                }
+                while (!readLine().isEmpty()) {
+                    // Trailers
+                }
+            } else if (length >= 0) {
+                skip(length);
+            } else if (status >= 200 && status != 204 && status != 304) {
+                while (in.read(discard) >= 0) {
+                    // Body delimited by the end of the connection
+                }
+                serverCloses = true;
+            }
+            return status;
+        }
+
+        private String readLine() throws IOException {
+            int n = 0;
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    throw new EOFException("Connection closed");
+                }
+                if (n == line.length) {
+                    throw new IOException("Response line too long");
+                }
+                line[n++] = (byte) b;
+            }
+            if (n > 0 && line[n - 1] == '\r') {
+                n--;
+            }
+            return new String(line, 0, n, StandardCharsets.ISO_8859_1);
+        }
+
+        private void skip(long count) throws IOException {
+            while (count > 0) {
+                int n = in.read(discard, 0, (int) Math.min(discard.length, count));
+                if (n < 0) {
+                    throw new EOFException("Connection closed in the body");
+                }
+                count -= n;
+            }
+        }
+
+        private void close() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+                socket = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package co.edu.escuelaing.microspringboot.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Limits the time the CompletableFuture returned by a mapped method may take
+ * to complete, instead of ASYNC_TIMEOUT_MS. When it runs out the future is
+ * cancelled and the client gets 503.
+ *
+ * @author sergio.bejarano-r
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface AsyncTimeout {
+
+    /**
+     * Time the result may take, in milliseconds.
+     */
+    public long millis();
+
+}
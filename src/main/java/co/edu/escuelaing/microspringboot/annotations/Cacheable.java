@@ -0,0 +1,33 @@
+package co.edu.escuelaing.microspringboot.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Caches the results of a @GetMapping method by its arguments. Only use it on
+ * methods whose result depends on nothing but their parameters.
+ *
+ * @author sergio.bejarano-r
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Cacheable {
+
+    /**
+     * Time a result stays cached, in seconds; 0 keeps it until evicted.
+     */
+    public long ttlSeconds() default 300;
+
+    /**
+     * Maximum number of cached results.
+     */
+    public int maxEntries() default 1000;
+
+    /**
+     * Maximum estimated size of the cached keys and results, in bytes.
+     */
+    public long maxBytes() default 1024 * 1024;
+
+}
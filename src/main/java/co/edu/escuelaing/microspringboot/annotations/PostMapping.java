@@ -0,0 +1,18 @@
+package co.edu.escuelaing.microspringboot.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Maps POST requests for a path to a controller method. The request body is
+ * passed to the parameter annotated with @RequestBody.
+ *
+ * @author sergio.bejarano-r
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface PostMapping {
+    public String value();
+}
@@ -0,0 +1,19 @@
+package co.edu.escuelaing.microspringboot.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds the request body to a parameter, as a String, a byte[], an
+ * InputStream or an HttpRequestBody. Large bodies are spilled to a temporary
+ * file, so take them as an InputStream or an HttpRequestBody to keep them off
+ * the heap.
+ *
+ * @author sergio.bejarano-r
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface RequestBody {
+}
@@ -0,0 +1,146 @@
+package co.edu.escuelaing.microspringboot.examples;
+
+import co.edu.escuelaing.httpserver.ServerConfig;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Runs the items of a batch in parallel on a fork-join pool of its own, so
+ * batches never take the threads that serve requests, and returns the
+ * results as a lazy stream in the order of the items. Only a small window of
+ * items runs ahead of the consumer, which keeps one batch from flooding the
+ * pool, and the whole batch shares one time budget: once it is spent the
+ * remaining items are answered without being computed.
+ *
+ * @author sergio.bejarano-r
+ */
+final class BatchRunner {
+
+    /**
+     * Computes the result of one item.
+     *
+     * @param <T> the item type
+     */
+    @FunctionalInterface
+    interface Task<T> {
+
+        /**
+         * Computes the result.
+         *
+         * @param item         the item
+         * @param budgetMillis the time left in the batch budget
+         * @return the result line
+         */
+        String apply(T item, long budgetMillis);
+    }
+
+    static final int PARALLELISM = ServerConfig.getInt("BATCH_PARALLELISM",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM);
+
+    private static final int WINDOW = PARALLELISM * 2;
+
+    private BatchRunner() {
+    }
+
+    /**
+     * Computes a single result on the pool, for a handler that answers
+     * asynchronously instead of holding the thread serving its request.
+     *
+     * @param task computes the result
+     * @return the future result
+     */
+    static CompletableFuture<String> supply(Supplier<String> task) {
+        return CompletableFuture.supplyAsync(task, POOL);
+    }
+
+    /**
+     * Starts a batch. Closing the stream cancels the items still running.
+     *
+     * @param items        the items, in response order
+     * @param budgetMillis time the whole batch may take
+     * @param task         computes the result of an item
+     * @param expired      the result of an item reached after the budget
+     * @param <T>          the item type
+     * @return the results, in item order
+     */
+    static <T> Stream<String> run(List<T> items, long budgetMillis, Task<T> task, Function<T, String> expired) {
+        long deadline = System.nanoTime() + budgetMillis * 1_000_000L;
+        Results<T> results = new Results<>(items, deadline, task, expired);
+        return StreamSupport.stream(Spliterators.spliterator(results, items.size(),
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(results::cancel);
+    }
+
+    private static final class Results<T> implements Iterator<String> {
+
+        private final List<T> items;
+        private final long deadline;
+        private final Task<T> task;
+        private final Function<T, String> expired;
+        private final ArrayDeque<CompletableFuture<String>> running = new ArrayDeque<>();
+        private int submitted;
+        private int returned;
+
+        Results(List<T> items, long deadline, Task<T> task, Function<T, String> expired) {
+            this.items = items;
+            this.deadline = deadline;
+            this.task = task;
+            this.expired = expired;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return returned < items.size();
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            while (submitted < items.size() && running.size() < WINDOW) {
+                T item = items.get(submitted++);
+                running.add(CompletableFuture.supplyAsync(() -> compute(item), POOL));
+            }
+            returned++;
+            try {
+                return running.poll().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+                throw new CancellationException("Batch interrupted");
+            } catch (ExecutionException e) {
+                return "Error: " + e.getCause().getMessage();
+            }
+        }
+
+        private String compute(T item) {
+            long remaining = (deadline - System.nanoTime()) / 1_000_000L;
+            if (remaining <= 0) {
+                return expired.apply(item);
+            }
+            return task.apply(item, remaining);
+        }
+
+        void cancel() {
+            for (CompletableFuture<String> future : running) {
+                future.cancel(false);
+            }
+            running.clear();
+            submitted = items.size();
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package co.edu.escuelaing.microspringboot.examples;
 
+import co.edu.escuelaing.microspringboot.annotations.AsyncTimeout;
 import co.edu.escuelaing.microspringboot.annotations.GetMapping;
+import co.edu.escuelaing.microspringboot.annotations.PostMapping;
+import co.edu.escuelaing.microspringboot.annotations.RequestBody;
 import co.edu.escuelaing.microspringboot.annotations.RequestParam;
 import co.edu.escuelaing.microspringboot.annotations.RestController;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -14,6 +19,11 @@ public class GreetingController {
 
 	private static final String template = "Hello, %s!";
 
+	/**
+	 * Longest delay accepted by /greeting/delayed, in milliseconds.
+	 */
+	static final long MAX_DELAY_MILLIS = 10_000;
+
 	/**
 	 * Handles GET requests for /greeting.
 	 *
@@ -24,4 +34,35 @@ public class GreetingController {
 	public static String greeting(@RequestParam(value = "name", defaultValue = "World") String name) {
 		return "Hello " + name;
 	}
+
+	/**
+	 * Handles GET requests for /greeting/delayed, answering after a delay the
+	 * way a call to a slow backend would. No thread waits meanwhile, and a
+	 * delay over the timeout of the route gets 503.
+	 *
+	 * @param name  the name to include in the greeting
+	 * @param delay the delay in milliseconds, up to MAX_DELAY_MILLIS
+	 * @return the future greeting message
+	 */
+	@GetMapping("/greeting/delayed")
+	@AsyncTimeout(millis = 5000)
+	public static CompletableFuture<String> delayedGreeting(
+			@RequestParam(value = "name", defaultValue = "World") String name,
+			@RequestParam(value = "delay", defaultValue = "1000") long delay) {
+		long millis = Math.max(0, Math.min(delay, MAX_DELAY_MILLIS));
+		return CompletableFuture.supplyAsync(() -> "Hello " + name,
+				CompletableFuture.delayedExecutor(millis, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Handles POST requests for /hellopost, sent by the form of the default
+	 * page with the name as the request body.
+	 *
+	 * @param name the name to include in the greeting
+	 * @return a personalized greeting message
+	 */
+	@PostMapping("/hellopost")
+	public static String helloPost(@RequestBody String name) {
+		return "Hello " + (name.isBlank() ? "World" : name.trim());
+	}
 }
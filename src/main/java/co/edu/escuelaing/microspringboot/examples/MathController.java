@@ -1,9 +1,20 @@
 package co.edu.escuelaing.microspringboot.examples;
 
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
 
+import co.edu.escuelaing.httpserver.StreamingBody;
+import co.edu.escuelaing.microspringboot.annotations.AsyncTimeout;
+import co.edu.escuelaing.microspringboot.annotations.Cacheable;
 import co.edu.escuelaing.microspringboot.annotations.GetMapping;
+import co.edu.escuelaing.microspringboot.annotations.PathVariable;
 import co.edu.escuelaing.microspringboot.annotations.RequestParam;
 import co.edu.escuelaing.microspringboot.annotations.RestController;
 
@@ -21,6 +32,7 @@ public class MathController {
      * @return a string representation of the result
      */
     @GetMapping("/square")
+    @Cacheable
     public static String square(@RequestParam(value = "n", defaultValue = "2") String n) {
         try {
             int num = Integer.parseInt(n);
@@ -31,36 +43,235 @@ public class MathController {
     }
 
     /**
-     * Gets the factors of a number.
+     * Time a single factorization may take before giving up, in milliseconds.
+     */
+    static final long FACTOR_BUDGET_MILLIS = 2000;
+
+    /**
+     * Longest number accepted, in digits, so trial division stays cheap.
+     */
+    static final int MAX_DIGITS = 100;
+
+    /**
+     * Largest number of items in a batch.
+     */
+    static final int MAX_BATCH = 1000;
+
+    /**
+     * Time a whole batch may take, in milliseconds.
+     */
+    static final long BATCH_BUDGET_MILLIS = 10_000;
+
+    /**
+     * Largest limit accepted by /primes.
+     */
+    static final long MAX_PRIMES_LIMIT = 100_000_000;
+
+    /**
+     * Gets the factors of a number. A number that cannot be factored within
+     * the budget fails instead of answering, so the result cache never keeps
+     * a timeout and the client gets 503.
      *
      * @param n the number to factor
      * @return a string representation of the factors
+     * @throws TimeoutException if the factorization runs out of time
      */
     @GetMapping("/factors")
-    public static String factors(@RequestParam(value = "n", defaultValue = "1") String n) {
+    @Cacheable
+    public static String factors(@RequestParam(value = "n", defaultValue = "1") String n) throws TimeoutException {
+        return factors(n, FACTOR_BUDGET_MILLIS);
+    }
+
+    private static String factors(String n, long budgetMillis) throws TimeoutException {
+        BigInteger num;
         try {
-            int num = Integer.parseInt(n);
-            if (num <= 1) {
-                return "El número debe ser mayor que 1.";
-            }
+            num = new BigInteger(n);
+        } catch (NumberFormatException e) {
+            return "Error: el parámetro 'n' debe ser un número entero.";
+        }
+        if (num.compareTo(BigInteger.ONE) <= 0) {
+            return "El número debe ser mayor que 1.";
+        }
+        if (num.toString().length() > MAX_DIGITS) {
+            return "Error: el parámetro 'n' no puede tener más de " + MAX_DIGITS + " dígitos.";
+        }
+        List<?> factors = num.bitLength() < Long.SIZE
+                ? PrimeFactorizer.factor(num.longValue(), budgetMillis)
+                : PrimeFactorizer.factor(num, budgetMillis);
+        return "Factores primos de " + num + " = " + factors.toString();
+    }
+
+    private static String timeout(String n) {
+        return "Error: no se pudo factorizar " + n + " en el tiempo disponible.";
+    }
+
+    /**
+     * Gets the factors of a number given in the path, as in /factors/84.
+     *
+     * @param n the number to factor
+     * @return a string representation of the factors
+     * @throws TimeoutException if the factorization runs out of time
+     */
+    @GetMapping("/factors/{n}")
+    @Cacheable
+    public static String factorsOf(@PathVariable("n") String n) throws TimeoutException {
+        return factors(n);
+    }
 
-            List<Integer> factors = new ArrayList<>();
-            int divisor = 2;
-            int temp = num;
+    /**
+     * Gets the factors of a number without holding the thread that serves the
+     * request: the factorization runs on the batch pool and the response is
+     * written when it ends. Running out of time fails the future, which
+     * answers 503.
+     *
+     * @param n the number to factor
+     * @return the future string representation of the factors
+     */
+    @GetMapping("/factors/async")
+    @AsyncTimeout(millis = FACTOR_BUDGET_MILLIS + 1000)
+    public static CompletableFuture<String> factorsAsync(@RequestParam(value = "n", defaultValue = "1") String n) {
+        return BatchRunner.supply(() -> {
+            try {
+                return factors(n, FACTOR_BUDGET_MILLIS);
+            } catch (TimeoutException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
 
-            while (temp > 1) {
-                while (temp % divisor == 0) {
-                    factors.add(divisor);
-                    temp /= divisor;
+    /**
+     * Lists the primes up to a limit, one per line. The list is written while
+     * it is computed, so even the largest one holds no more memory than a
+     * small one.
+     *
+     * @param limit the largest number considered
+     * @return the body writer
+     */
+    @GetMapping("/primes")
+    public static StreamingBody primes(@RequestParam(value = "limit", defaultValue = "100") String limit) {
+        long max;
+        try {
+            max = Long.parseLong(limit);
+        } catch (NumberFormatException e) {
+            max = -1;
+        }
+        if (max < 0 || max > MAX_PRIMES_LIMIT) {
+            String error = "Error: el parámetro 'limit' debe ser un entero entre 0 y " + MAX_PRIMES_LIMIT + ".\n";
+            return out -> out.write(error.getBytes(StandardCharsets.UTF_8));
+        }
+        long last = max;
+        return out -> {
+            byte[] line = new byte[21];
+            PrimitiveIterator.OfLong primes = PrimeFactorizer.primesUpTo(last);
+            while (primes.hasNext()) {
+                int end = line.length;
+                line[--end] = '\n';
+                for (long v = primes.nextLong(); v > 0; v /= 10) {
+                    line[--end] = (byte) ('0' + v % 10);
                 }
-                divisor++;
+                out.write(line, end, line.length - end);
             }
+        };
+    }
+
+    /**
+     * Gets the factors of several numbers, one line per number in the order
+     * given. The numbers are factored in parallel and every line is sent as
+     * soon as it and the ones before it are ready.
+     *
+     * @param n    comma-separated numbers, such as 12,84,97
+     * @param from first number of a range, used when n is empty
+     * @param to   last number of the range, inclusive
+     * @return the result lines
+     */
+    @GetMapping("/factors/batch")
+    public static Stream<String> factorsBatch(@RequestParam(value = "n", defaultValue = "") String n,
+            @RequestParam(value = "from", defaultValue = "") String from,
+            @RequestParam(value = "to", defaultValue = "") String to) {
+        List<String> numbers;
+        try {
+            numbers = batch(n, from, to);
+        } catch (IllegalArgumentException e) {
+            return Stream.of(e.getMessage());
+        }
+        return BatchRunner.run(numbers, BATCH_BUDGET_MILLIS,
+                (num, budget) -> factorsOrTimeout(num, Math.min(budget, FACTOR_BUDGET_MILLIS)),
+                MathController::timeout);
+    }
+
+    /**
+     * Factors one number of a batch, where a timeout is just one more line.
+     */
+    private static String factorsOrTimeout(String n, long budgetMillis) {
+        try {
+            return factors(n, budgetMillis);
+        } catch (TimeoutException e) {
+            return timeout(n);
+        }
+    }
 
-            return "Factores primos de " + num + " = " + factors.toString();
+    /**
+     * Gets the squares of several numbers, one line per number in the order
+     * given.
+     *
+     * @param n    comma-separated numbers, such as 2,3,4
+     * @param from first number of a range, used when n is empty
+     * @param to   last number of the range, inclusive
+     * @return the result lines
+     */
+    @GetMapping("/square/batch")
+    public static Stream<String> squareBatch(@RequestParam(value = "n", defaultValue = "") String n,
+            @RequestParam(value = "from", defaultValue = "") String from,
+            @RequestParam(value = "to", defaultValue = "") String to) {
+        List<String> numbers;
+        try {
+            numbers = batch(n, from, to);
+        } catch (IllegalArgumentException e) {
+            return Stream.of(e.getMessage());
+        }
+        return BatchRunner.run(numbers, BATCH_BUDGET_MILLIS, (num, budget) -> square(num),
+                num -> "Error: no se pudo calcular el cuadrado de " + num + " en el tiempo disponible.");
+    }
 
+    /**
+     * Reads the numbers of a batch from a comma-separated list or a range.
+     *
+     * @throws IllegalArgumentException with the error line for the client
+     */
+    static List<String> batch(String n, String from, String to) {
+        List<String> numbers = new ArrayList<>();
+        if (!n.isEmpty()) {
+            for (String number : n.split(",")) {
+                if (numbers.size() == MAX_BATCH) {
+                    throw new IllegalArgumentException(tooLarge());
+                }
+                numbers.add(number.trim());
+            }
+            return numbers;
+        }
+        long first;
+        long last;
+        try {
+            first = Long.parseLong(from);
+            last = Long.parseLong(to);
         } catch (NumberFormatException e) {
-            return "Error: el parámetro 'n' debe ser un número entero.";
+            throw new IllegalArgumentException(
+                    "Error: indique una lista 'n' separada por comas o un rango 'from' y 'to' de enteros.");
         }
+        if (last < first) {
+            throw new IllegalArgumentException("Error: 'to' debe ser mayor o igual que 'from'.");
+        }
+        if (last - first >= MAX_BATCH || last - first < 0) {
+            throw new IllegalArgumentException(tooLarge());
+        }
+        for (long i = 0; i <= last - first; i++) {
+            numbers.add(Long.toString(first + i));
+        }
+        return numbers;
+    }
+
+    private static String tooLarge() {
+        return "Error: un lote no puede tener más de " + MAX_BATCH + " números.";
     }
 
 }
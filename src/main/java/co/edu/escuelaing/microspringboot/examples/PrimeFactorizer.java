@@ -0,0 +1,460 @@
+package co.edu.escuelaing.microspringboot.examples;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Integer factorization. Small divisors are removed by trial division with
+ * the primes of a precomputed sieve, which alone settles every 32-bit number;
+ * larger cofactors are tested with Miller-Rabin and split with Brent's
+ * variant of Pollard's rho. Numbers that fit in a {@code long} use Montgomery
+ * arithmetic, so they never allocate; larger ones use {@link BigInteger}.
+ * Both stop with a {@link TimeoutException} once their time budget is spent.
+ *
+ * @author sergio.bejarano-r
+ */
+public final class PrimeFactorizer {
+
+    /**
+     * Bound of the sieve. Its square exceeds every 32-bit number.
+     */
+    static final int SIEVE_LIMIT = 1 << 16;
+
+    private static final int[] SMALL_PRIMES = sieve(SIEVE_LIMIT);
+
+    /**
+     * Miller-Rabin bases that give an exact answer for every 64-bit number.
+     */
+    private static final long[] WITNESSES = { 2, 325, 9375, 28178, 450775, 9780504, 1795265022 };
+
+    /**
+     * Miller-Rabin rounds for numbers beyond 64 bits, whose answer is
+     * probabilistic.
+     */
+    private static final int CERTAINTY = 64;
+
+    private static final int BATCH = 128;
+
+    private PrimeFactorizer() {
+    }
+
+    /**
+     * Factors a number that fits in a long.
+     *
+     * @param n            the number, at least 2
+     * @param budgetMillis the time the factorization may take
+     * @return the prime factors in ascending order, repeated by multiplicity
+     * @throws TimeoutException if the budget is spent before finishing
+     */
+    public static List<Long> factor(long n, long budgetMillis) throws TimeoutException {
+        if (n < 2) {
+            throw new IllegalArgumentException("The number must be greater than 1: " + n);
+        }
+        long deadline = deadline(budgetMillis);
+        List<Long> factors = new ArrayList<>();
+        for (int p : SMALL_PRIMES) {
+            if ((long) p * p > n) {
+                break;
+            }
+            while (n % p == 0) {
+                factors.add((long) p);
+                n /= p;
+            }
+        }
+        if (n > 1) {
+            split(n, factors, deadline);
+        }
+        Collections.sort(factors);
+        return factors;
+    }
+
+    /**
+     * Factors a number of any size.
+     *
+     * @param n            the number, at least 2
+     * @param budgetMillis the time the factorization may take
+     * @return the prime factors in ascending order, repeated by multiplicity
+     * @throws TimeoutException if the budget is spent before finishing
+     */
+    public static List<BigInteger> factor(BigInteger n, long budgetMillis) throws TimeoutException {
+        if (n.compareTo(BigInteger.TWO) < 0) {
+            throw new IllegalArgumentException("The number must be greater than 1: " + n);
+        }
+        List<BigInteger> factors = new ArrayList<>();
+        if (n.bitLength() < Long.SIZE) {
+            for (long factor : factor(n.longValue(), budgetMillis)) {
+                factors.add(BigInteger.valueOf(factor));
+            }
+            return factors;
+        }
+        long deadline = deadline(budgetMillis);
+        for (int p : SMALL_PRIMES) {
+            BigInteger prime = BigInteger.valueOf(p);
+            BigInteger[] qr = n.divideAndRemainder(prime);
+            while (qr[1].signum() == 0) {
+                factors.add(prime);
+                n = qr[0];
+                qr = n.divideAndRemainder(prime);
+            }
+        }
+        if (!n.equals(BigInteger.ONE)) {
+            split(n, factors, deadline);
+        }
+        Collections.sort(factors);
+        return factors;
+    }
+
+    /**
+     * Tests whether a number is prime. The answer is exact for every long.
+     *
+     * @param n the number
+     * @return true if n is prime
+     */
+    public static boolean isPrime(long n) {
+        if (n < 2) {
+            return false;
+        }
+        for (int i = 0; i < 12; i++) {
+            int p = SMALL_PRIMES[i];
+            if (n % p == 0) {
+                return n == p;
+            }
+        }
+        if (n < (long) SMALL_PRIMES[12] * SMALL_PRIMES[12]) {
+            return true;
+        }
+        Montgomery m = new Montgomery(n);
+        long d = n - 1;
+        int s = Long.numberOfTrailingZeros(d);
+        d >>= s;
+        long minusOne = n - m.one;
+        for (long witness : WITNESSES) {
+            long a = witness % n;
+            if (a == 0) {
+                continue;
+            }
+            long x = m.pow(m.toMontgomery(a), d);
+            if (x == m.one || x == minusOne) {
+                continue;
+            }
+            boolean composite = true;
+            for (int r = 1; r < s && composite; r++) {
+                x = m.multiply(x, x);
+                composite = x != minusOne;
+            }
+            if (composite) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lists the primes up to a limit with a segmented sieve, which needs the
+     * same small amount of memory for any limit.
+     *
+     * @param limit the largest number considered, at most 2^32
+     * @return the primes in ascending order
+     */
+    public static PrimitiveIterator.OfLong primesUpTo(long limit) {
+        if (limit > (long) SIEVE_LIMIT * SIEVE_LIMIT) {
+            throw new IllegalArgumentException("The limit must not exceed " + (long) SIEVE_LIMIT * SIEVE_LIMIT);
+        }
+        return new Primes(limit);
+    }
+
+    private static void split(long n, List<Long> factors, long deadline) throws TimeoutException {
+        if (isPrime(n)) {
+            factors.add(n);
+            return;
+        }
+        long divisor = rho(n, deadline);
+        split(divisor, factors, deadline);
+        split(n / divisor, factors, deadline);
+    }
+
+    private static void split(BigInteger n, List<BigInteger> factors, long deadline) throws TimeoutException {
+        if (n.bitLength() < Long.SIZE) {
+            List<Long> small = new ArrayList<>();
+            split(n.longValue(), small, deadline);
+            for (long factor : small) {
+                factors.add(BigInteger.valueOf(factor));
+            }
+            return;
+        }
+        if (n.isProbablePrime(CERTAINTY)) {
+            factors.add(n);
+            return;
+        }
+        BigInteger divisor = rho(n, deadline);
+        split(divisor, factors, deadline);
+        split(n.divide(divisor), factors, deadline);
+    }
+
+    /**
+     * Finds a proper divisor of an odd composite with Brent's cycle detection,
+     * multiplying the differences in batches so only one gcd is taken per
+     * batch.
+     */
+    private static long rho(long n, long deadline) throws TimeoutException {
+        Montgomery m = new Montgomery(n);
+        for (long c = 1;; c++) {
+            long increment = m.toMontgomery(c);
+            long y = m.toMontgomery(2);
+            long x = y;
+            long ys = y;
+            long q = m.one;
+            long g = 1;
+            for (long r = 1; g == 1; r <<= 1) {
+                x = y;
+                for (long i = 0; i < r; i++) {
+                    y = m.next(y, increment);
+                }
+                for (long k = 0; k < r && g == 1; k += BATCH) {
+                    checkDeadline(deadline);
+                    ys = y;
+                    long limit = Math.min(BATCH, r - k);
+                    for (long i = 0; i < limit; i++) {
+                        y = m.next(y, increment);
+                        q = m.multiply(q, x > y ? x - y : y - x);
+                    }
+                    g = gcd(q, n);
+                }
+            }
+            if (g == n) {
+                // The batch overshot: step back through it one gcd at a time
+                do {
+                    ys = m.next(ys, increment);
+                    g = gcd(x > ys ? x - ys : ys - x, n);
+                } while (g == 1);
+            }
+            if (g != n) {
+                return g;
+            }
+        }
+    }
+
+    private static BigInteger rho(BigInteger n, long deadline) throws TimeoutException {
+        for (long c = 1;; c++) {
+            BigInteger increment = BigInteger.valueOf(c);
+            BigInteger y = BigInteger.TWO;
+            BigInteger x = y;
+            BigInteger ys = y;
+            BigInteger q = BigInteger.ONE;
+            BigInteger g = BigInteger.ONE;
+            for (long r = 1; g.equals(BigInteger.ONE); r <<= 1) {
+                x = y;
+                for (long i = 0; i < r; i++) {
+                    y = y.multiply(y).add(increment).mod(n);
+                }
+                for (long k = 0; k < r && g.equals(BigInteger.ONE); k += BATCH) {
+                    checkDeadline(deadline);
+                    ys = y;
+                    long limit = Math.min(BATCH, r - k);
+                    for (long i = 0; i < limit; i++) {
+                        y = y.multiply(y).add(increment).mod(n);
+                        q = q.multiply(x.subtract(y).abs()).mod(n);
+                    }
+                    g = q.gcd(n);
+                }
+            }
+            if (g.equals(n)) {
+                do {
+                    ys = ys.multiply(ys).add(increment).mod(n);
+                    g = x.subtract(ys).abs().gcd(n);
+                } while (g.equals(BigInteger.ONE));
+            }
+            if (!g.equals(n)) {
+                return g;
+            }
+        }
+    }
+
+    private static long gcd(long a, long b) {
+        if (a == 0) {
+            return b;
+        }
+        int shift = Long.numberOfTrailingZeros(a | b);
+        a >>= Long.numberOfTrailingZeros(a);
+        while (b != 0) {
+            b >>= Long.numberOfTrailingZeros(b);
+            if (a > b) {
+                long t = a;
+                a = b;
+                b = t;
+            }
+            b -= a;
+        }
+        return a << shift;
+    }
+
+    private static long deadline(long budgetMillis) {
+        return System.nanoTime() + Math.max(0, budgetMillis) * 1_000_000L;
+    }
+
+    private static void checkDeadline(long deadline) throws TimeoutException {
+        if (System.nanoTime() - deadline > 0) {
+            throw new TimeoutException("Factorization time budget exceeded");
+        }
+    }
+
+    private static int[] sieve(int limit) {
+        boolean[] composite = new boolean[limit + 1];
+        int count = 0;
+        for (int i = 2; i <= limit; i++) {
+            if (!composite[i]) {
+                count++;
+                for (long j = (long) i * i; j <= limit; j += i) {
+                    composite[(int) j] = true;
+                }
+            }
+        }
+        int[] primes = new int[count];
+        for (int i = 2, k = 0; i <= limit; i++) {
+            if (!composite[i]) {
+                primes[k++] = i;
+            }
+        }
+        return primes;
+    }
+
+    /**
+     * Sieves one segment of SIEVE_LIMIT numbers at a time, crossing off the
+     * multiples of the small primes.
+     */
+    private static final class Primes implements PrimitiveIterator.OfLong {
+
+        private final long limit;
+        private final boolean[] composite = new boolean[SIEVE_LIMIT];
+        private long low;
+        private int index = SIEVE_LIMIT;
+        private long next = -1;
+
+        Primes(long limit) {
+            this.limit = limit;
+            this.low = -SIEVE_LIMIT;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next >= 0) {
+                return true;
+            }
+            while (true) {
+                if (index == SIEVE_LIMIT) {
+                    low += SIEVE_LIMIT;
+                    if (low > limit) {
+                        return false;
+                    }
+                    sieve();
+                    index = 0;
+                }
+                long n = low + index;
+                if (n > limit) {
+                    return false;
+                }
+                if (!composite[index++]) {
+                    next = n;
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        public long nextLong() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            long n = next;
+            next = -1;
+            return n;
+        }
+
+        private void sieve() {
+            Arrays.fill(composite, false);
+            if (low == 0) {
+                composite[0] = true;
+                composite[1] = true;
+            }
+            long high = low + SIEVE_LIMIT;
+            for (int p : SMALL_PRIMES) {
+                long square = (long) p * p;
+                if (square >= high) {
+                    break;
+                }
+                long start = Math.max(square, (low + p - 1) / p * p);
+                for (long m = start; m < high; m += p) {
+                    composite[(int) (m - low)] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Montgomery arithmetic modulo an odd n below 2^63, with R = 2^64. Values
+     * are kept as a·R mod n, which turns every modular product into two
+     * multiplications and a subtraction instead of a 128-bit division.
+     */
+    private static final class Montgomery {
+
+        final long n;
+        final long inverse;
+        final long one;
+        final long r2;
+
+        Montgomery(long n) {
+            this.n = n;
+            // Newton iteration doubles the correct low bits of n^-1 mod 2^64
+            long inv = n;
+            for (int i = 0; i < 5; i++) {
+                inv *= 2 - n * inv;
+            }
+            this.inverse = inv;
+            this.one = Long.remainderUnsigned(-n, n);
+            long r = one;
+            for (int i = 0; i < Long.SIZE; i++) {
+                r <<= 1;
+                if (Long.compareUnsigned(r, n) >= 0) {
+                    r -= n;
+                }
+            }
+            this.r2 = r;
+        }
+
+        long toMontgomery(long a) {
+            return multiply(a % n, r2);
+        }
+
+        long multiply(long a, long b) {
+            long low = a * b;
+            long high = Math.multiplyHigh(a, b);
+            long m = low * inverse;
+            // Unsigned high half of m·n; the low halves of a·b and m·n cancel
+            long t = high - (Math.multiplyHigh(m, n) + ((m >> 63) & n));
+            return t < 0 ? t + n : t;
+        }
+
+        long pow(long base, long exponent) {
+            long result = one;
+            while (exponent > 0) {
+                if ((exponent & 1) != 0) {
+                    result = multiply(result, base);
+                }
+                base = multiply(base, base);
+                exponent >>= 1;
+            }
+            return result;
+        }
+
+        long next(long y, long increment) {
+            long s = multiply(y, y) + increment;
+            return Long.compareUnsigned(s, n) >= 0 ? s - n : s;
+        }
+    }
+}
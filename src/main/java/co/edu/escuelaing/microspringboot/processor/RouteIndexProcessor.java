@@ -0,0 +1,340 @@
+package co.edu.escuelaing.microspringboot.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Compile-time route index. For the classes annotated with
+ * {@code @RestController} it generates a {@code GeneratedRoutes} class that
+ * registers every {@code @GetMapping} and {@code @PostMapping} method with a
+ * direct call, plus the
+ * {@code META-INF/services} entry that lets the server find it, so no
+ * classpath scanning or reflection is needed at startup. Mapping mistakes,
+ * such as a parameter without {@code @RequestParam}, {@code @PathVariable} or
+ * {@code @RequestBody}, are reported as compilation errors.
+ *
+ * @author sergio.bejarano-r
+ */
+@SupportedAnnotationTypes(RouteIndexProcessor.REST_CONTROLLER)
+public class RouteIndexProcessor extends AbstractProcessor {
+
+    static final String ANNOTATIONS = "co.edu.escuelaing.microspringboot.annotations.";
+    static final String REST_CONTROLLER = ANNOTATIONS + "RestController";
+    static final String GET_MAPPING = ANNOTATIONS + "GetMapping";
+    static final String POST_MAPPING = ANNOTATIONS + "PostMapping";
+    static final String REQUEST_PARAM = ANNOTATIONS + "RequestParam";
+    static final String PATH_VARIABLE = ANNOTATIONS + "PathVariable";
+    static final String REQUEST_BODY = ANNOTATIONS + "RequestBody";
+    static final String CACHEABLE = ANNOTATIONS + "Cacheable";
+    static final String ASYNC_TIMEOUT = ANNOTATIONS + "AsyncTimeout";
+    static final String REGISTRY = "co.edu.escuelaing.httpserver.RouteRegistry";
+    static final String CLASS_NAME = "GeneratedRoutes";
+
+    private static final Set<String> SUPPORTED_TYPES = Set.of("java.lang.String", "java.lang.Object",
+            "java.lang.CharSequence", "java.lang.Integer", "java.lang.Long", "java.lang.Double", "java.lang.Boolean");
+
+    private static final Set<String> BODY_TYPES = Set.of("java.lang.String", "java.lang.Object",
+            "java.lang.CharSequence", "byte[]", "java.io.InputStream", "co.edu.escuelaing.httpserver.HttpRequestBody");
+
+    /**
+     * Results that can only be consumed once, so they cannot be cached.
+     */
+    private static final List<String> SINGLE_USE_TYPES = List.of("java.util.concurrent.CompletionStage",
+            "java.util.stream.Stream", "co.edu.escuelaing.httpserver.StreamingBody");
+
+    private boolean generated;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement restController = processingEnv.getElementUtils().getTypeElement(REST_CONTROLLER);
+        if (generated || restController == null) {
+            return false;
+        }
+        List<TypeElement> controllers = new ArrayList<>(
+                ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(restController)));
+        if (controllers.isEmpty()) {
+            return false;
+        }
+        controllers.sort(Comparator.comparing(c -> c.getQualifiedName().toString()));
+
+        StringBuilder body = new StringBuilder();
+        Set<String> mappings = new HashSet<>();
+        boolean valid = true;
+        for (TypeElement controller : controllers) {
+            valid &= addController(controller, body, mappings);
+        }
+        if (!valid) {
+            return false;
+        }
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(controllers.get(0));
+        String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+        try {
+            write(packageName, body.toString());
+            generated = true;
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Could not write the route index: " + e.getMessage());
+        }
+        return false;
+    }
+
+    private boolean addController(TypeElement controller, StringBuilder body, Set<String> mappings) {
+        if (!controller.getModifiers().contains(Modifier.PUBLIC)) {
+            return error(controller, "@RestController classes must be public");
+        }
+        String[] instance = { null };
+        boolean valid = true;
+        for (ExecutableElement method : ElementFilter.methodsIn(controller.getEnclosedElements())) {
+            valid &= addMapping(controller, method, "GET", find(method, GET_MAPPING), body, mappings, instance);
+            valid &= addMapping(controller, method, "POST", find(method, POST_MAPPING), body, mappings, instance);
+        }
+        return valid;
+    }
+
+    private boolean addMapping(TypeElement controller, ExecutableElement method, String httpMethod,
+            AnnotationMirror annotation, StringBuilder body, Set<String> mappings, String[] instance) {
+        if (annotation == null) {
+            return true;
+        }
+        String name = "@" + annotation.getAnnotationType().asElement().getSimpleName();
+        String mapping = (String) value(annotation, "value");
+        if (!mappings.add(httpMethod + " " + mapping)) {
+            return error(method, "Duplicate " + name + " \"" + mapping + "\"");
+        }
+        if (!method.getModifiers().contains(Modifier.PUBLIC)) {
+            return error(method, name + " methods must be public");
+        }
+        String type = controller.getQualifiedName().toString();
+        String target = type;
+        if (!method.getModifiers().contains(Modifier.STATIC)) {
+            if (instance[0] == null) {
+                if (!hasPublicNoArgConstructor(controller)) {
+                    return error(controller, "Controllers with instance mappings need a public no-argument"
+                            + " constructor");
+                }
+                instance[0] = "controller" + body.length();
+                body.append("        ").append(type).append(' ').append(instance[0]).append(" = new ")
+                        .append(type).append("();\n");
+            }
+            target = instance[0];
+        }
+        String route = route(httpMethod, mapping, target, method);
+        if (route == null) {
+            return false;
+        }
+        body.append(route);
+        return true;
+    }
+
+    private String route(String httpMethod, String mapping, String target, ExecutableElement method) {
+        StringBuilder args = new StringBuilder();
+        StringBuilder binders = new StringBuilder();
+        List<? extends VariableElement> params = method.getParameters();
+        for (int i = 0; i < params.size(); i++) {
+            VariableElement param = params.get(i);
+            TypeMirror type = param.asType();
+            String boxed = boxedName(type);
+            AnnotationMirror requestBody = find(param, REQUEST_BODY);
+            if (boxed == null || !(requestBody == null ? SUPPORTED_TYPES : BODY_TYPES).contains(boxed)) {
+                error(param, "Unsupported " + (requestBody == null ? "parameter" : "body") + " type " + type);
+                return null;
+            }
+            String classLiteral = processingEnv.getTypeUtils().erasure(type) + ".class";
+            AnnotationMirror requestParam = find(param, REQUEST_PARAM);
+            AnnotationMirror pathVariable = find(param, PATH_VARIABLE);
+            if (requestBody != null) {
+                binders.append(",\n                ParameterBinder.requestBody(").append(classLiteral).append(')');
+            } else if (requestParam != null) {
+                binders.append(",\n                ParameterBinder.requestParam(")
+                        .append(literal((String) value(requestParam, "value"))).append(", ")
+                        .append(literal((String) value(requestParam, "defaultValue"))).append(", ")
+                        .append(classLiteral).append(')');
+            } else if (pathVariable != null) {
+                binders.append(",\n                ParameterBinder.pathVariable(")
+                        .append(literal((String) value(pathVariable, "value"))).append(", ")
+                        .append(classLiteral).append(')');
+            } else {
+                error(param, "Parameters of mapped methods need @RequestParam, @PathVariable or @RequestBody");
+                return null;
+            }
+            if (i > 0) {
+                args.append(", ");
+            }
+            args.append('(').append(boxed).append(") args[").append(i).append(']');
+        }
+        String call = target + "." + method.getSimpleName() + "(" + args + ")";
+        String handler = method.getReturnType().getKind() == TypeKind.VOID
+                ? "args -> {\n                    " + call + ";\n                    return null;\n                }"
+                : "args -> " + call;
+        String options = "";
+        AnnotationMirror cacheable = find(method, CACHEABLE);
+        if (cacheable != null) {
+            if (isSingleUse(method.getReturnType())) {
+                error(method, "@Cacheable methods cannot return a CompletionStage, Stream or StreamingBody,"
+                        + " which can only be consumed once");
+                return null;
+            }
+            options = "\n                .withCache(new ResultCache(" + literal(mapping) + ", "
+                    + value(cacheable, "ttlSeconds") + "L, " + value(cacheable, "maxEntries") + ", "
+                    + value(cacheable, "maxBytes") + "L))";
+        }
+        AnnotationMirror asyncTimeout = find(method, ASYNC_TIMEOUT);
+        if (asyncTimeout != null) {
+            options += "\n                .withTimeout(" + value(asyncTimeout, "millis") + "L)";
+        }
+        return "        routes.add(\"" + httpMethod + "\", " + literal(mapping) + ", new Route(" + literal(mapping) + ",\n"
+                + "                " + handler + binders + ")" + options + ");\n";
+    }
+
+    private void write(String packageName, String body) throws IOException {
+        String qualifiedName = packageName.isEmpty() ? CLASS_NAME : packageName + "." + CLASS_NAME;
+        JavaFileObject source = processingEnv.getFiler().createSourceFile(qualifiedName);
+        try (Writer w = source.openWriter()) {
+            if (!packageName.isEmpty()) {
+                w.write("package " + packageName + ";\n\n");
+            }
+            w.write("import co.edu.escuelaing.httpserver.ParameterBinder;\n"
+                    + "import co.edu.escuelaing.httpserver.ResultCache;\n"
+                    + "import co.edu.escuelaing.httpserver.Route;\n"
+                    + "import co.edu.escuelaing.httpserver.RouteRegistry;\n"
+                    + "import co.edu.escuelaing.httpserver.Router;\n\n"
+                    + "@javax.annotation.processing.Generated(\"" + getClass().getName() + "\")\n"
+                    + "public final class " + CLASS_NAME + " implements RouteRegistry {\n\n"
+                    + "    @Override\n"
+                    + "    public void register(Router.Builder routes) {\n"
+                    + body
+                    + "    }\n"
+                    + "}\n");
+        }
+        FileObject services = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                "META-INF/services/" + REGISTRY);
+        try (Writer w = services.openWriter()) {
+            w.write(qualifiedName + "\n");
+        }
+    }
+
+    private boolean isSingleUse(TypeMirror type) {
+        Types types = processingEnv.getTypeUtils();
+        for (String name : SINGLE_USE_TYPES) {
+            TypeElement element = processingEnv.getElementUtils().getTypeElement(name);
+            if (element != null && types.isAssignable(types.erasure(type), types.erasure(element.asType()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String boxedName(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return processingEnv.getTypeUtils().boxedClass(processingEnv.getTypeUtils().getPrimitiveType(
+                    type.getKind())).getQualifiedName().toString();
+        }
+        if (type.getKind() == TypeKind.DECLARED || type.getKind() == TypeKind.ARRAY) {
+            return processingEnv.getTypeUtils().erasure(type).toString();
+        }
+        return null;
+    }
+
+    private static boolean hasPublicNoArgConstructor(TypeElement type) {
+        List<ExecutableElement> constructors = ElementFilter.constructorsIn(type.getEnclosedElements());
+        for (ExecutableElement constructor : constructors) {
+            if (constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static AnnotationMirror find(Element element, String annotation) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            Element type = mirror.getAnnotationType().asElement();
+            if (type.getKind() == ElementKind.ANNOTATION_TYPE
+                    && ((TypeElement) type).getQualifiedName().contentEquals(annotation)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private Object value(AnnotationMirror mirror, String name) {
+        Map<? extends ExecutableElement, ? extends AnnotationValue> values = processingEnv.getElementUtils()
+                .getElementValuesWithDefaults(mirror);
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> e : values.entrySet()) {
+            if (e.getKey().getSimpleName().contentEquals(name)) {
+                return e.getValue().getValue();
+            }
+        }
+        return null;
+    }
+
+    private static String literal(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private boolean error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+        return false;
+    }
+}
@@ -0,0 +1,80 @@
+package co.edu.escuelaing.httpserver;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+
+public class TestAccessLog {
+
+    @Test
+    public void shouldWriteOneLinePerRequest() throws Exception {
+        StringWriter out = new StringWriter();
+        AccessLog log = new AccessLog(out, 16, false, 1);
+        log.log("GET", "/app/square", 200, 512, 340_000);
+        log.log("POST", "/x", 404, -1, 1_500);
+        assertEquals(2, log.drain());
+        String[] lines = out.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0], lines[0].matches("\\d{4}-\\d\\d-\\d\\dT\\S+Z GET \"/app/square\" 200 512 340us"));
+        assertTrue(lines[1], lines[1].endsWith(" POST \"/x\" 404 - 1us"));
+        assertEquals(0, log.drain());
+    }
+
+    @Test
+    public void shouldEscapeDecodedControlCharacters() throws Exception {
+        StringWriter out = new StringWriter();
+        AccessLog log = new AccessLog(out, 4, false, 1);
+        log.log("GET", "/a\n1970-01-01T00:00:00Z GET \"/forged\"", 200, 0, 0);
+        log.drain();
+        String text = out.toString();
+        assertEquals(1, text.split("\n").length);
+        assertTrue(text, text.contains("\"/a\\x0a1970-01-01T00:00:00Z GET \\\"/forged\\\"\""));
+    }
+
+    @Test
+    public void shouldDropRecordsWhenTheBufferIsFull() throws Exception {
+        StringWriter out = new StringWriter();
+        AccessLog log = new AccessLog(out, 4, false, 1);
+        long dropped = ServerMetrics.getAccessLogDropped();
+        for (int i = 0; i < 6; i++) {
+            log.log("GET", "/" + i, 200, 0, 0);
+        }
+        assertEquals(4, log.drain());
+        assertEquals(dropped + 2, ServerMetrics.getAccessLogDropped());
+        assertTrue(out.toString().contains("\"/3\""));
+        assertFalse(out.toString().contains("\"/4\""));
+    }
+
+    @Test
+    public void shouldWaitForRoomWhenBlocking() throws Exception {
+        StringWriter out = new StringWriter();
+        AccessLog log = new AccessLog(out, 64, true, 1);
+        log.start();
+        Thread[] producers = new Thread[4];
+        for (int t = 0; t < producers.length; t++) {
+            producers[t] = new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    log.log("GET", "/p", 200, 1, 1);
+                }
+            });
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        log.close();
+        assertEquals(2000, out.toString().split("\n").length);
+    }
+
+    @Test
+    public void shouldSampleRequests() throws Exception {
+        StringWriter out = new StringWriter();
+        AccessLog log = new AccessLog(out, 4096, false, 10);
+        for (int i = 0; i < 2000; i++) {
+            log.log("GET", "/s", 200, 0, 0);
+        }
+        int written = log.drain();
+        assertTrue(String.valueOf(written), written > 100 && written < 400);
+    }
+}
@@ -0,0 +1,101 @@
+package co.edu.escuelaing.httpserver;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+public class TestAdmissionControl {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void shouldShedTasksOverTheLimit() {
+        AdmissionControl admission = new AdmissionControl(100, 1, 2, 50, 1000, 1);
+        assertTrue(admission.admit() > 0);
+        assertTrue(admission.admit() > 0);
+        assertEquals(-1, admission.admit());
+        assertEquals(2, admission.getOutstanding());
+        admission.done();
+        assertTrue(admission.admit() > 0);
+    }
+
+    @Test
+    public void shouldShedConnectionsOverTheMaximum() {
+        AdmissionControl admission = new AdmissionControl(2, 1, 10, 50, 1000, 1);
+        assertTrue(admission.openConnection());
+        assertTrue(admission.openConnection());
+        assertFalse(admission.openConnection());
+        admission.closeConnection();
+        assertTrue(admission.openConnection());
+    }
+
+    @Test
+    public void shouldDropTasksThatWaitedTooLong() {
+        AdmissionControl admission = new AdmissionControl(100, 1, 10, 50, 20, 1);
+        assertTrue(admission.begin(System.nanoTime()));
+        assertFalse(admission.begin(System.nanoTime() - 100 * MS));
+    }
+
+    @Test
+    public void shouldShrinkTheLimitOnSlowQueuesAndGrowItBack() {
+        AdmissionControl admission = new AdmissionControl(100, 10, 100, 50, 1000, 1);
+        long now = System.nanoTime() + 1000 * MS;
+        admission.adapt(200 * MS, now);
+        assertEquals(90, admission.getLimit());
+        // Slow tasks reported within the same interval count once
+        admission.adapt(200 * MS, now + MS);
+        assertEquals(90, admission.getLimit());
+        admission.adapt(200 * MS, now + 100 * MS);
+        assertEquals(81, admission.getLimit());
+        for (int i = 0; i < 82; i++) {
+            admission.adapt(MS, now);
+        }
+        assertEquals(82, admission.getLimit());
+        for (int i = 0; i < 100_000; i++) {
+            admission.adapt(MS, now);
+        }
+        assertEquals(100, admission.getLimit());
+        for (int i = 0; i < 100; i++) {
+            admission.adapt(200 * MS, now + (200 + i * 100) * MS);
+        }
+        assertEquals(10, admission.getLimit());
+    }
+
+    @Test
+    public void shouldFloorTheLimitAtThePoolSizeUnlessConfigured() {
+        long now = System.nanoTime() + 1000 * MS;
+        AdmissionControl admission = AdmissionControl.fromConfig();
+        admission.setPoolSize(25);
+        for (int i = 0; i < 100; i++) {
+            admission.adapt(200 * MS, now + i * 100 * MS);
+        }
+        assertEquals(25, admission.getLimit());
+
+        System.setProperty("ADMISSION_MIN_LIMIT", "40");
+        try {
+            admission = AdmissionControl.fromConfig();
+        } finally {
+            System.clearProperty("ADMISSION_MIN_LIMIT");
+        }
+        admission.setPoolSize(25);
+        for (int i = 0; i < 100; i++) {
+            admission.adapt(200 * MS, now + i * 100 * MS);
+        }
+        assertEquals(40, admission.getLimit());
+    }
+
+    @Test
+    public void shouldAnswerWithRetryAfter() throws Exception {
+        AdmissionControl admission = new AdmissionControl(100, 1, 10, 50, 1000, 3);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        admission.writeOverloaded(out);
+        String response = out.toString("US-ASCII");
+        assertTrue(response, response.startsWith("HTTP/1.1 503 Service Unavailable\r\n"));
+        assertTrue(response, response.contains("Retry-After: 3\r\n"));
+        assertTrue(response, response.contains("Connection: close\r\n"));
+        assertTrue(response, response.contains("Date: "));
+        assertTrue(response, response.endsWith("\r\n\r\n"));
+    }
+}
@@ -0,0 +1,93 @@
+package co.edu.escuelaing.httpserver;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+
+public class TestBodyDecoder {
+
+    private static int feed(BodyDecoder decoder, String data) throws IOException {
+        byte[] bytes = data.getBytes(StandardCharsets.US_ASCII);
+        return decoder.feed(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void shouldReadABodyOfDeclaredLengthAndLeaveTheRest() throws IOException {
+        BodyDecoder decoder = new BodyDecoder(5, false, 1024, 64);
+        assertEquals(3, feed(decoder, "hel"));
+        assertFalse(decoder.isComplete());
+        assertEquals(2, feed(decoder, "loGET / HTTP/1.1"));
+        assertTrue(decoder.isComplete());
+        HttpRequestBody body = decoder.finish();
+        assertEquals(5, body.getLength());
+        assertFalse(body.isSpilled());
+        assertEquals("hello", body.getString());
+    }
+
+    @Test
+    public void shouldDecodeChunksFedOneByteAtATime() throws IOException {
+        String raw = "5;name=value\r\nhello\r\n7\r\n, world\r\n0\r\nX-Trailer: yes\r\n\r\nGET";
+        BodyDecoder decoder = new BodyDecoder(0, true, 1024, 64);
+        int used = 0;
+        for (int i = 0; i < raw.length() && !decoder.isComplete(); i++) {
+            used += feed(decoder, raw.substring(i, i + 1));
+        }
+        assertTrue(decoder.isComplete());
+        assertEquals(raw.length() - 3, used);
+        assertEquals("hello, world", decoder.finish().getString());
+    }
+
+    @Test
+    public void shouldSpillLargeBodiesToATemporaryFile() throws IOException {
+        BodyDecoder decoder = new BodyDecoder(0, true, 1024, 8);
+        feed(decoder, "6\r\nabcdef\r\n6\r\nghijkl\r\n0\r\n\r\n");
+        HttpRequestBody body = decoder.finish();
+        assertTrue(body.isSpilled());
+        assertEquals(12, body.getLength());
+        try (InputStream in = body.getInputStream()) {
+            assertEquals("abcdefghijkl", new String(in.readAllBytes(), StandardCharsets.US_ASCII));
+        }
+        body.release();
+        try {
+            body.getInputStream();
+            fail("The temporary file must be deleted with the body");
+        } catch (NoSuchFileException e) {
+            // Deleted
+        }
+    }
+
+    @Test
+    public void shouldRefuseBodiesOverTheLimit() throws IOException {
+        try {
+            new BodyDecoder(2048, false, 1024, 64);
+            fail("A declared length over the limit must be refused");
+        } catch (HttpParseException e) {
+            assertEquals(413, e.getStatusCode());
+        }
+        BodyDecoder chunked = new BodyDecoder(0, true, 1024, 64);
+        feed(chunked, "200\r\n" + "x".repeat(512) + "\r\n");
+        try {
+            feed(chunked, "201\r\n");
+            fail("Chunks adding up to more than the limit must be refused");
+        } catch (HttpParseException e) {
+            assertEquals(413, e.getStatusCode());
+        }
+        chunked.discard();
+    }
+
+    @Test
+    public void shouldRejectBrokenChunkedFraming() throws IOException {
+        for (String raw : new String[] { "zz\r\n", "\r\n", "3\r\nabcX\r\n", "3\rX" }) {
+            try {
+                feed(new BodyDecoder(0, true, 1024, 64), raw);
+                fail(raw);
+            } catch (HttpParseException e) {
+                assertEquals(400, e.getStatusCode());
+            }
+        }
+    }
+}
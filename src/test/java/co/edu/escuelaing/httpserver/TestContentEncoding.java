@@ -0,0 +1,140 @@
+package co.edu.escuelaing.httpserver;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+public class TestContentEncoding {
+
+    private static HttpRequest request(String head) throws Exception {
+        HttpRequestParser parser = new HttpRequestParser();
+        byte[] bytes = head.getBytes(StandardCharsets.US_ASCII);
+        parser.feed(bytes, 0, bytes.length);
+        assertTrue(parser.parse());
+        return parser.request();
+    }
+
+    private static String accepting(String acceptEncoding) throws Exception {
+        return ContentEncoding.negotiate(request("GET / HTTP/1.1\r\nAccept-Encoding: " + acceptEncoding + "\r\n\r\n"));
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            sb.append(text);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void shouldNegotiateByQuality() throws Exception {
+        assertNull(ContentEncoding.negotiate(request("GET / HTTP/1.1\r\n\r\n")));
+        assertEquals("gzip", accepting("gzip, deflate, br"));
+        assertEquals("deflate", accepting("deflate"));
+        assertEquals("deflate", accepting("gzip;q=0.5, deflate"));
+        assertEquals("gzip", accepting("*"));
+        assertEquals("deflate", accepting("gzip;q=0, *"));
+        assertNull(accepting("gzip;q=0, deflate;q=0"));
+        assertNull(accepting("identity, br"));
+    }
+
+    @Test
+    public void shouldRoundTripBothCodings() throws Exception {
+        byte[] data = repeat("hola mundo ", 500).getBytes(StandardCharsets.UTF_8);
+        byte[] gzip = ContentEncoding.encode(data, ContentEncoding.GZIP);
+        byte[] deflate = ContentEncoding.encode(data, ContentEncoding.DEFLATE);
+        assertTrue(gzip.length < data.length);
+        assertArrayEquals(data, new GZIPInputStream(new ByteArrayInputStream(gzip)).readAllBytes());
+        assertArrayEquals(data, new InflaterInputStream(new ByteArrayInputStream(deflate)).readAllBytes());
+    }
+
+    @Test
+    public void shouldWriteChunkedBodies() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ChunkedOutputStream chunked = new ChunkedOutputStream(out)) {
+            chunked.write("hello".getBytes(StandardCharsets.US_ASCII));
+            chunked.write(new byte[0]);
+            chunked.write("0123456789abcdefXYZ".getBytes(StandardCharsets.US_ASCII));
+        }
+        assertEquals("5\r\nhello\r\n13\r\n0123456789abcdefXYZ\r\n0\r\n\r\n", out.toString("US-ASCII"));
+    }
+
+    @Test
+    public void shouldCompressOnlyLargeServiceResponses() throws Exception {
+        HttpRequest request = request("GET /app/x HTTP/1.1\r\nAccept-Encoding: gzip\r\n\r\n");
+        HttpResponse small = new HttpResponse();
+        small.setBody("short");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpServer.writeResponse(request, small, out);
+        assertFalse(out.toString("UTF-8").contains("Content-Encoding"));
+        assertFalse(out.toString("UTF-8").contains("Vary"));
+
+        String text = repeat("x", HttpServer.COMPRESSION_MIN_BYTES);
+        HttpResponse large = new HttpResponse();
+        large.setBody(text);
+        out.reset();
+        HttpServer.writeResponse(request, large, out);
+        byte[] bytes = out.toByteArray();
+        String raw = new String(bytes, StandardCharsets.ISO_8859_1);
+        int bodyStart = raw.indexOf("\r\n\r\n") + 4;
+        String head = raw.substring(0, bodyStart);
+        assertTrue(head, head.contains("Content-Encoding: gzip\r\n"));
+        assertTrue(head, head.contains("Vary: Accept-Encoding\r\n"));
+        assertTrue(head, head.contains("Content-Length: " + (bytes.length - bodyStart) + "\r\n"));
+        InputStream body = new GZIPInputStream(new ByteArrayInputStream(bytes, bodyStart, bytes.length - bodyStart));
+        assertEquals(text, new String(body.readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldStreamVeryLargeServiceResponses() throws Exception {
+        HttpRequest request = request("GET /app/x HTTP/1.1\r\nAccept-Encoding: deflate\r\n\r\n");
+        HttpResponse response = new HttpResponse();
+        response.setBody(repeat("y", HttpServer.COMPRESSION_STREAM_BYTES));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpServer.writeResponse(request, response, out);
+        String raw = out.toString("ISO-8859-1");
+        assertTrue(raw, raw.contains("Transfer-Encoding: chunked\r\n"));
+        assertFalse(raw, raw.contains("Content-Length"));
+        assertTrue(raw.endsWith("\r\n0\r\n\r\n"));
+    }
+
+    @Test
+    public void shouldServeCompressedStaticVariants() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpServer.handleRequest(request("GET /style.css HTTP/1.1\r\nAccept-Encoding: gzip\r\n\r\n"), out, true);
+        byte[] bytes = out.toByteArray();
+        String raw = new String(bytes, StandardCharsets.ISO_8859_1);
+        int bodyStart = raw.indexOf("\r\n\r\n") + 4;
+        String head = raw.substring(0, bodyStart);
+        assertTrue(head, head.contains("Content-Encoding: gzip\r\n"));
+        assertTrue(head, head.contains("Vary: Accept-Encoding\r\n"));
+        int start = head.indexOf("ETag: ") + 6;
+        String etag = head.substring(start, head.indexOf("\r\n", start));
+        assertTrue(etag, etag.endsWith("-gzip\""));
+
+        out.reset();
+        HttpServer.handleRequest(new HttpRequest(new URI("/style.css")), out, true);
+        String identity = out.toString("UTF-8");
+        assertFalse(identity.contains("Content-Encoding"));
+        assertTrue(identity.contains("Vary: Accept-Encoding\r\n"));
+        String css = new String(new GZIPInputStream(new ByteArrayInputStream(bytes, bodyStart,
+                bytes.length - bodyStart)).readAllBytes(), StandardCharsets.UTF_8);
+        assertTrue(identity.endsWith(css));
+
+        out.reset();
+        HttpServer.handleRequest(request("GET /style.css HTTP/1.1\r\nAccept-Encoding: gzip\r\nIf-None-Match: "
+                + etag + "\r\n\r\n"), out, true);
+        assertTrue(out.toString("UTF-8").startsWith("HTTP/1.1 304 Not Modified"));
+
+        out.reset();
+        HttpServer.handleRequest(request("GET /img/logo.jpg HTTP/1.1\r\nAccept-Encoding: gzip\r\n\r\n"), out, true);
+        assertFalse(out.toString("ISO-8859-1").contains("Content-Encoding"));
+    }
+}
@@ -0,0 +1,88 @@
+package co.edu.escuelaing.httpserver;
+
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class TestExecutorStrategy {
+
+    @After
+    public void clearProperties() {
+        System.clearProperty("EXECUTOR");
+        System.clearProperty("MAX_WORKER_THREADS");
+        System.clearProperty("WORKER_THREADS");
+        System.clearProperty("WORKER_QUEUE_SIZE");
+    }
+
+    @Test
+    public void shouldDefaultToFixedStrategy() {
+        assertEquals(ExecutorStrategy.FIXED, ExecutorStrategy.fromConfig());
+    }
+
+    @Test
+    public void shouldReadStrategyFromConfiguration() {
+        System.setProperty("EXECUTOR", "elastic");
+        assertEquals(ExecutorStrategy.ELASTIC, ExecutorStrategy.fromConfig());
+    }
+
+    @Test
+    public void shouldReportThePoolSizeOfEachStrategy() {
+        System.setProperty("WORKER_THREADS", "12");
+        System.setProperty("MAX_WORKER_THREADS", "40");
+        assertEquals(12, ExecutorStrategy.FIXED.threads());
+        assertEquals(40, ExecutorStrategy.ELASTIC.threads());
+        assertEquals(Runtime.getRuntime().availableProcessors(), ExecutorStrategy.VIRTUAL.threads());
+    }
+
+    @Test
+    public void shouldFallBackToFixedForUnknownStrategy() {
+        System.setProperty("EXECUTOR", "bogus");
+        assertEquals(ExecutorStrategy.FIXED, ExecutorStrategy.fromConfig());
+    }
+
+    @Test
+    public void shouldRejectTasksWhenElasticPoolIsSaturated() throws InterruptedException {
+        System.setProperty("MAX_WORKER_THREADS", "1");
+        System.setProperty("WORKER_QUEUE_SIZE", "1");
+        ExecutorService pool = ExecutorStrategy.ELASTIC.create();
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            pool.execute(() -> awaitQuietly(release));
+            pool.execute(() -> awaitQuietly(release));
+            try {
+                pool.execute(() -> awaitQuietly(release));
+                fail("A third task should not fit in a pool of one thread and a queue of one");
+            } catch (RejectedExecutionException e) {
+                assertEquals(1, ((ThreadPoolExecutor) pool).getPoolSize());
+            }
+        } finally {
+            release.countDown();
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void shouldRunTasksOnVirtualStrategy() throws Exception {
+        ExecutorService pool = ExecutorStrategy.VIRTUAL.create();
+        try {
+            assertEquals("done", pool.submit(() -> "done").get(1, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package co.edu.escuelaing.httpserver;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+public class TestHttpRequestParser {
+
+    private static void feed(HttpRequestParser parser, String data) throws IOException {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        parser.feed(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void shouldParseRequestLineAndHeaders() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser();
+        feed(parser, "GET /app/greeting?name=Ana HTTP/1.1\r\nHost: localhost\r\nX-Test:  value \r\n\r\n");
+
+        assertTrue(parser.parse());
+        HttpRequest request = parser.request();
+        assertEquals("GET", request.getMethod());
+        assertEquals("/app/greeting", request.getPath());
+        assertEquals("name=Ana", request.getQuery());
+        assertEquals("HTTP/1.1", request.getVersion());
+        assertEquals(2, request.getHeaderCount());
+        assertEquals("localhost", request.getHeader("host"));
+        assertEquals("value", request.getHeader("X-TEST"));
+        assertNull(request.getHeader("Accept"));
+    }
+
+    @Test
+    public void shouldResumeWhenRequestArrivesInPieces() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser();
+        String raw = "GET /index.html HTTP/1.1\r\nHost: localhost\r\n\r\n";
+        for (int i = 0; i < raw.length() - 1; i++) {
+            feed(parser, raw.substring(i, i + 1));
+            assertFalse(parser.parse());
+        }
+        feed(parser, raw.substring(raw.length() - 1));
+        assertTrue(parser.parse());
+        assertEquals("/index.html", parser.request().getPath());
+    }
+
+    @Test
+    public void shouldParsePipelinedRequestsAndSkipBodies() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser();
+        feed(parser, "GET /a HTTP/1.1\r\nContent-Length: 5\r\n\r\nhelloGET /b HTTP/1.1\r\n\r\n");
+
+        assertTrue(parser.parse());
+        assertEquals("/a", parser.request().getPath());
+        assertEquals(5, parser.request().getContentLength());
+        parser.next();
+        assertTrue(parser.hasBufferedData());
+        assertTrue(parser.parse());
+        assertEquals("/b", parser.request().getPath());
+        parser.next();
+        assertFalse(parser.hasBufferedData());
+    }
+
+    @Test
+    public void shouldSkipBodyThatArrivesAfterTheHeaders() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser();
+        feed(parser, "GET /a HTTP/1.1\r\nContent-Length: 4\r\n\r\nab");
+        assertTrue(parser.parse());
+        parser.next();
+        feed(parser, "cdGET /b HTTP/1.1\r\n\r\n");
+        assertTrue(parser.parse());
+        assertEquals("/b", parser.request().getPath());
+    }
+
+    @Test
+    public void shouldFillFromStreamInSmallReads() throws IOException {
+        byte[] raw = "GET /x?q=1 HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        InputStream in = new ByteArrayInputStream(raw) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        };
+        HttpRequestParser parser = new HttpRequestParser();
+        while (!parser.parse()) {
+            assertTrue(parser.fill(in) > 0);
+        }
+        assertEquals("HTTP/1.0", parser.request().getVersion());
+        assertEquals("q=1", parser.request().getQuery());
+    }
+
+    @Test
+    public void shouldDecodePercentEncodedPathAndQuery() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser();
+        feed(parser, "GET /img/my%20logo.png?name=Jos%C3%A9 HTTP/1.1\r\n\r\n");
+        assertTrue(parser.parse());
+        assertEquals("/img/my logo.png", parser.request().getPath());
+        assertEquals("name=José", parser.request().getQuery());
+    }
+
+    @Test
+    public void shouldIndexEveryQueryParameter() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser();
+        feed(parser, "GET /app/search?a=1&n=5&&tag=x&flag&tag=y HTTP/1.1\r\n\r\n");
+        assertTrue(parser.parse());
+        HttpRequest request = parser.request();
+        assertEquals(5, request.getParameterCount());
+        assertEquals("5", request.getValue("n"));
+        assertEquals("1", request.getParameter("a"));
+        assertEquals("", request.getParameter("flag"));
+        assertNull(request.getParameter("missing"));
+        assertArrayEquals(new String[] { "x", "y" }, request.getParameterValues("tag"));
+        assertEquals("flag", request.getParameterName(3));
+    }
+
+    @Test
+    public void shouldDecodeParameterNamesAndValuesSeparately() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser();
+        feed(parser, "GET /?q=a%26b%3Dc&full+name=Jos%C3%A9+P%C3%A9rez&t%C3%ADtulo=x&bad=%4 HTTP/1.1\r\n\r\n");
+        assertTrue(parser.parse());
+        HttpRequest request = parser.request();
+        assertEquals("a&b=c", request.getParameter("q"));
+        assertEquals("José Pérez", request.getParameter("full name"));
+        assertEquals("x", request.getParameter("título"));
+        assertEquals("%4", request.getParameter("bad"));
+    }
+
+    @Test
+    public void shouldReadNumericParametersFromTheRequestBytes() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser();
+        feed(parser, "GET /?n=42&neg=-9223372036854775808&big=3000000000&esc=%2012&word=4x HTTP/1.1\r\n\r\n");
+        assertTrue(parser.parse());
+        HttpRequest request = parser.request();
+        assertEquals(42, request.getIntParameter("n", 0));
+        assertEquals(7, request.getIntParameter("missing", 7));
+        assertEquals(Long.MIN_VALUE, request.getLongParameter("neg", 0));
+        assertEquals(3000000000L, request.getLongParameter("big", 0));
+        assertEquals(12, request.getIntParameter("esc", 0));
+        for (String name : new String[] { "big", "word" }) {
+            try {
+                request.getIntParameter(name, 0);
+                fail(name + " is not an int");
+            } catch (NumberFormatException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void shouldReindexParametersForTheNextRequest() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser();
+        feed(parser, "GET /?n=1 HTTP/1.1\r\n\r\nGET /other HTTP/1.1\r\n\r\n");
+        assertTrue(parser.parse());
+        assertEquals("1", parser.request().getParameter("n"));
+        parser.next();
+        assertTrue(parser.parse());
+        assertEquals(0, parser.request().getParameterCount());
+        assertNull(parser.request().getParameter("n"));
+    }
+
+    @Test
+    public void shouldRejectMalformedRequestLine() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser();
+        feed(parser, "GARBAGE\r\n\r\n");
+        try {
+            parser.parse();
+            fail("A request line without a target should be rejected");
+        } catch (HttpParseException e) {
+            assertEquals(400, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void shouldRejectOversizedHeaders() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser(64);
+        try {
+            feed(parser, "GET / HTTP/1.1\r\nX-Long: " + "a".repeat(100) + "\r\n\r\n");
+            parser.parse();
+            fail("Headers larger than the limit should be rejected");
+        } catch (HttpParseException e) {
+            assertEquals(431, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void shouldFeedAChunkedBodyAndKeepThePipelinedRequest() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser();
+        feed(parser, "POST /a HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n3\r\nabc\r\n");
+        assertTrue(parser.parse());
+        assertTrue(parser.hasBody());
+        BodyDecoder decoder = parser.bodyDecoder();
+        assertFalse(parser.feedBody(decoder));
+        feed(parser, "0\r\n\r\nGET /b HTTP/1.1\r\n\r\n");
+        assertTrue(parser.feedBody(decoder));
+        assertEquals("POST", parser.request().getMethod());
+        assertEquals("abc", decoder.finish().getString());
+        assertFalse(parser.hasBody());
+
+        parser.next();
+        assertTrue(parser.parse());
+        assertEquals("/b", parser.request().getPath());
+    }
+
+    @Test
+    public void shouldRejectAmbiguousBodyFraming() throws IOException {
+        String[] heads = {
+            "POST /a HTTP/1.1\r\nTransfer-Encoding: chunked\r\nContent-Length: 5\r\n\r\n",
+            "POST /a HTTP/1.1\r\nContent-Length: 5\r\nTransfer-Encoding: chunked\r\n\r\n",
+            "POST /a HTTP/1.1\r\nContent-Length: 5\r\nContent-Length: 7\r\n\r\n",
+            "POST /a HTTP/1.1\r\nContent-Length: 5\r\ncontent-length: 5\r\n\r\n"
+        };
+        for (String head : heads) {
+            HttpRequestParser parser = new HttpRequestParser();
+            feed(parser, head);
+            try {
+                parser.parse();
+                fail(head);
+            } catch (HttpParseException e) {
+                assertEquals(400, e.getStatusCode());
+            }
+        }
+    }
+
+    @Test
+    public void shouldRefuseUnsupportedTransferCodings() throws IOException {
+        String[] codings = {"gzip", "gzip, chunked", "xchunked", "chunked, chunked"};
+        for (String coding : codings) {
+            HttpRequestParser parser = new HttpRequestParser();
+            feed(parser, "POST /a HTTP/1.1\r\nTransfer-Encoding: " + coding + "\r\n\r\n3\r\nabc\r\n0\r\n\r\n");
+            try {
+                parser.parse();
+                fail("Expected a parse error for " + coding);
+            } catch (HttpParseException e) {
+                assertEquals(coding, 501, e.getStatusCode());
+            }
+        }
+        HttpRequestParser parser = new HttpRequestParser();
+        feed(parser, "POST /a HTTP/1.1\r\nTransfer-Encoding: chunked\r\nTransfer-Encoding: chunked\r\n\r\n");
+        try {
+            parser.parse();
+            fail("Expected a parse error for a repeated coding");
+        } catch (HttpParseException e) {
+            assertEquals(501, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void shouldAcceptChunkedInAnyCase() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser();
+        feed(parser, "POST /a HTTP/1.1\r\nTransfer-Encoding:  Chunked \r\n\r\n3\r\nabc\r\n0\r\n\r\n");
+        assertTrue(parser.parse());
+        assertTrue(parser.hasBody());
+    }
+}
@@ -3,6 +3,7 @@ package co.edu.escuelaing.httpserver;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.URISyntaxException;
@@ -14,7 +15,7 @@ public class TestHttpServer {
     public void shouldLoadServicesWithoutErrors() {
         try {
             HttpServer.loadServices();
-            assertNotNull(HttpServer.services);
+            assertFalse(HttpServer.router.getRoutes().isEmpty());
         } catch (Exception e) {
             fail("loadServices lanzó una excepción: " + e.getMessage());
         }
@@ -63,12 +64,13 @@ public class TestHttpServer {
     }
 
     @Test
-    public void shouldNotModifyServicesMapWhenLoadServicesIsCalledTwice() {
+    public void shouldNotDuplicateRoutesWhenLoadServicesIsCalledTwice() {
         try {
             HttpServer.loadServices();
-            int sizeBefore = HttpServer.services.size();
+            int sizeBefore = HttpServer.router.getRoutes().size();
             HttpServer.loadServices();
-            int sizeAfter = HttpServer.services.size();
+            int sizeAfter = HttpServer.router.getRoutes().size();
+            assertTrue(sizeBefore > 0);
             assertEquals(sizeBefore, sizeAfter);
         } catch (Exception e) {
             fail("loadServices lanzó una excepción inesperada: " + e.getMessage());
@@ -140,4 +142,109 @@ public class TestHttpServer {
         assertTrue(built.contains("Content-Length: 8"));
         assertTrue(built.endsWith("Success!"));
     }
+
+    private static HttpRequest parse(String head) throws IOException {
+        HttpRequestParser parser = new HttpRequestParser();
+        byte[] bytes = head.getBytes();
+        parser.feed(bytes, 0, bytes.length);
+        assertTrue(parser.parse());
+        return parser.request();
+    }
+
+    @Test
+    public void shouldKeepHttp11ConnectionsAliveUnlessClosed() throws IOException {
+        assertTrue(HttpServer.isKeepAlive(parse("GET / HTTP/1.1\r\n\r\n")));
+        assertTrue(HttpServer.isKeepAlive(parse("GET / HTTP/1.1\r\nConnection: keep-alive\r\n\r\n")));
+        assertFalse(HttpServer.isKeepAlive(parse("GET / HTTP/1.1\r\nConnection: close\r\n\r\n")));
+    }
+
+    @Test
+    public void shouldKeepHttp10ConnectionsAliveOnlyWhenAsked() throws IOException {
+        assertFalse(HttpServer.isKeepAlive(parse("GET / HTTP/1.0\r\n\r\n")));
+        assertTrue(HttpServer.isKeepAlive(parse("GET / HTTP/1.0\r\nConnection: Keep-Alive\r\n\r\n")));
+    }
+
+    @Test
+    public void shouldStreamBatchResultsAsChunks() throws Exception {
+        HttpServer.loadServices();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpServer.handleRequest(new HttpRequest(new URI("/app/square/batch?n=2,3,4")), out, true);
+        String response = out.toString("UTF-8");
+        assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+        assertTrue(response, response.contains("Transfer-Encoding: chunked"));
+        assertFalse(response, response.contains("Content-Length"));
+        assertTrue(response, response.contains("El cuadrado de 2 es 4\n\r\n"));
+        assertTrue(response.indexOf("es 4\n") < response.indexOf("es 9\n"));
+        assertTrue(response.indexOf("es 9\n") < response.indexOf("es 16\n"));
+        assertTrue(response, response.endsWith("\r\n0\r\n\r\n"));
+    }
+
+    @Test
+    public void shouldWaitForAsyncServicesOnTheBlockingPath() throws Exception {
+        HttpServer.loadServices();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpServer.handleRequest(new HttpRequest(new URI("/app/greeting/delayed?name=Later&delay=20")), out, true);
+        String response = out.toString("UTF-8");
+        assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+        assertTrue(response, response.endsWith("Hello Later"));
+    }
+
+    private static String dechunk(String body) {
+        StringBuilder out = new StringBuilder();
+        int pos = 0;
+        while (true) {
+            int eol = body.indexOf("\r\n", pos);
+            int size = Integer.parseInt(body.substring(pos, eol), 16);
+            if (size == 0) {
+                return out.toString();
+            }
+            out.append(body, eol + 2, eol + 2 + size);
+            pos = eol + 2 + size + 2;
+        }
+    }
+
+    @Test
+    public void shouldStreamBodiesOfUnknownLength() throws Exception {
+        HttpResponse response = new HttpResponse();
+        response.setBody(out -> {
+            for (int i = 0; i < 10_000; i++) {
+                out.write(("line " + i + "\n").getBytes());
+            }
+            out.close();
+        });
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpServer.writeResponse(parse("GET /app/x HTTP/1.1\r\n\r\n"), response, out);
+        String raw = out.toString("ISO-8859-1");
+        int bodyStart = raw.indexOf("\r\n\r\n") + 4;
+        assertTrue(raw, raw.substring(0, bodyStart).contains("Transfer-Encoding: chunked\r\n"));
+        assertFalse(raw.substring(0, bodyStart).contains("Content-Length"));
+        String body = dechunk(raw.substring(bodyStart));
+        assertTrue(body.startsWith("line 0\nline 1\n"));
+        assertTrue(body.endsWith("line 9999\n"));
+        assertEquals(10_000, body.split("\n").length);
+        // Small writes are coalesced into chunks of the stream buffer size
+        assertTrue(raw.contains("\r\n" + Integer.toHexString(HttpServer.STREAM_BUFFER_BYTES) + "\r\n"));
+    }
+
+    @Test
+    public void shouldFrameStreamedBodiesForHttp10() throws Exception {
+        HttpResponse closing = new HttpResponse();
+        closing.setBody(out -> out.write("streamed".getBytes()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpServer.writeResponse(parse("GET /app/x HTTP/1.0\r\n\r\n"), closing, out);
+        String raw = out.toString("ISO-8859-1");
+        assertFalse(raw, raw.contains("Transfer-Encoding"));
+        assertTrue(raw, raw.endsWith("\r\n\r\nstreamed"));
+
+        HttpResponse keepAlive = new HttpResponse();
+        keepAlive.setHeader("Connection", "keep-alive");
+        keepAlive.setBody(o -> o.write("streamed".getBytes()));
+        out.reset();
+        HttpServer.writeResponse(parse("GET /app/x HTTP/1.0\r\nConnection: keep-alive\r\n\r\n"), keepAlive, out);
+        raw = out.toString("ISO-8859-1");
+        // The body is never collected to compute its length
+        assertFalse(raw, raw.contains("Content-Length"));
+        assertTrue(raw, raw.contains("Connection: close\r\n"));
+        assertTrue(raw, raw.endsWith("\r\n\r\nstreamed"));
+    }
 }
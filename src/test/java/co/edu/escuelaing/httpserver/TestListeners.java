@@ -0,0 +1,75 @@
+package co.edu.escuelaing.httpserver;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class TestListeners {
+
+    private static boolean reusePortSupported() throws IOException {
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        }
+    }
+
+    @Test
+    public void shouldBindOneSocketPerAcceptorOnTheSamePort() throws IOException {
+        ServerSocketChannel[] channels = Listeners.open(0, 3);
+        try {
+            if (reusePortSupported()) {
+                assertEquals(3, channels.length);
+                assertFalse(Listeners.isShared(channels, 3));
+            } else {
+                assertEquals(1, channels.length);
+                assertTrue(Listeners.isShared(channels, 3));
+            }
+            int port = ((InetSocketAddress) channels[0].getLocalAddress()).getPort();
+            for (ServerSocketChannel channel : channels) {
+                assertEquals(port, ((InetSocketAddress) channel.getLocalAddress()).getPort());
+            }
+        } finally {
+            Listeners.close(channels);
+        }
+    }
+
+    @Test
+    public void shouldOpenASingleSocketForOneAcceptor() throws IOException {
+        ServerSocketChannel[] channels = Listeners.open(0, 1);
+        try {
+            assertEquals(1, channels.length);
+        } finally {
+            Listeners.close(channels);
+        }
+    }
+
+    @Test
+    public void shouldServeEveryConnectionWithSeveralAcceptors() throws IOException {
+        HttpServer.loadServices();
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        NioServer server = new NioServer(0, 3, 3, workers);
+        server.start();
+        try {
+            for (int i = 0; i < 30; i++) {
+                try (Socket socket = new Socket("localhost", server.getPort())) {
+                    OutputStream out = socket.getOutputStream();
+                    out.write(("GET /app/square?n=" + i + " HTTP/1.1\r\nConnection: close\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+                    String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                    assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+                }
+            }
+        } finally {
+            server.stop();
+            workers.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package co.edu.escuelaing.httpserver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class TestNioServer {
+
+    private ExecutorService workers;
+    private NioServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        HttpServer.loadServices();
+        workers = Executors.newFixedThreadPool(2);
+        server = new NioServer(0, 2, workers);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+        workers.shutdownNow();
+    }
+
+    private String request(String raw) throws IOException {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(raw.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void shouldInvokeServiceOverNonBlockingTransport() throws IOException {
+        String response = request("GET /app/square?n=5 HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+        assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+        assertTrue(response.contains("El cuadrado de 5 es 25"));
+    }
+
+    @Test
+    public void shouldServeStaticFileOverNonBlockingTransport() throws IOException {
+        String response = request("GET /index.html HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+        assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+        assertTrue(response.contains("Content-Type: text/html"));
+    }
+
+    @Test
+    public void shouldHandleRequestSplitAcrossWrites() throws IOException, InterruptedException {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /app/greeting?name=Nio HTTP/1.1\r\nHo".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            Thread.sleep(50);
+            out.write("st: localhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(response.contains("Hello Nio"));
+        }
+    }
+
+    @Test
+    public void shouldServeSeveralRequestsOnOneConnection() throws IOException {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            out.write("GET /app/square?n=3 HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            String first = readResponse(in);
+            assertTrue(first.contains("Connection: keep-alive"));
+            assertTrue(first.endsWith("El cuadrado de 3 es 9"));
+
+            out.write("GET /app/square?n=4 HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            assertTrue(readResponse(in).endsWith("El cuadrado de 4 es 16"));
+        }
+    }
+
+    @Test
+    public void shouldAnswerPipelinedRequestsInOrder() throws IOException {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            out.write(("GET /app/square?n=6 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /nope.css HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /app/greeting?name=Last HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            assertTrue(readResponse(in).endsWith("El cuadrado de 6 es 36"));
+            assertTrue(readResponse(in).startsWith("HTTP/1.1 404 Not Found"));
+            String last = readResponse(in);
+            assertTrue(last.contains("Connection: close"));
+            assertTrue(last.endsWith("Hello Last"));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void shouldServeByteRanges() throws IOException {
+        String response = request("GET /index.html HTTP/1.1\r\nHost: localhost\r\nRange: bytes=0-4\r\n"
+                + "Connection: close\r\n\r\n");
+        assertTrue(response, response.startsWith("HTTP/1.1 206 Partial Content"));
+        assertTrue(response, response.contains("Content-Length: 5\r\n"));
+        assertTrue(response, response.matches("(?s).*Content-Range: bytes 0-4/\\d+\r\n.*"));
+        assertTrue(response, response.endsWith("\r\n\r\n<!DOC"));
+    }
+
+    @Test
+    public void shouldCloseHttp10ConnectionsByDefault() throws IOException {
+        String response = request("GET /app/square?n=2 HTTP/1.0\r\n\r\n");
+        assertTrue(response.contains("Connection: close"));
+    }
+
+    /**
+     * Reads one response framed by Content-Length.
+     */
+    static String readResponse(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        while (!head.toString().endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Connection closed before the response headers");
+            }
+            head.append((char) b);
+        }
+        int length = 0;
+        for (String line : head.toString().split("\r\n")) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                length = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        byte[] body = in.readNBytes(length);
+        return head + new String(body, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void shouldStreamLargeResponsesToSlowClients() throws Exception {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /app/primes?limit=2000000 HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            byte[] first = in.readNBytes(1024);
+            String head = new String(first, StandardCharsets.ISO_8859_1);
+            assertTrue(head, head.startsWith("HTTP/1.1 200 OK"));
+            assertTrue(head, head.contains("Transfer-Encoding: chunked"));
+            // The worker is now held back by the unread response
+            Thread.sleep(200);
+            String rest = new String(in.readAllBytes(), StandardCharsets.ISO_8859_1);
+            String raw = head + rest;
+            assertTrue(raw.endsWith("\r\n0\r\n\r\n"));
+            assertTrue(raw.contains("\n1999993\n"));
+        }
+    }
+
+    @Test
+    public void shouldCloseHttp10StreamedResponsesEvenWhenKeptAlive() throws IOException {
+        String response = request("GET /app/primes?limit=20 HTTP/1.0\r\nConnection: keep-alive\r\n\r\n");
+        assertTrue(response, response.contains("Connection: close\r\n"));
+        assertTrue(response, response.endsWith("\r\n\r\n2\n3\n5\n7\n11\n13\n17\n19\n"));
+    }
+
+    @Test
+    public void shouldPassRequestBodiesToPostMappings() throws IOException {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            out.write(("POST /app/hellopost HTTP/1.1\r\nHost: localhost\r\nContent-Length: 3\r\n\r\nAna"
+                    + "POST /app/hellopost HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n"
+                    + "2\r\nLu").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            assertTrue(readResponse(in).endsWith("Hello Ana"));
+            out.write("\r\n1\r\nz\r\n0\r\n\r\nGET /app/hellopost HTTP/1.1\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            assertTrue(readResponse(in).endsWith("Hello Luz"));
+            assertTrue(readResponse(in).startsWith("HTTP/1.1 405 Method Not Allowed"));
+        }
+    }
+
+    @Test
+    public void shouldNotHoldWorkersWhileAsyncResponsesWait() throws Exception {
+        Socket[] slow = new Socket[4];
+        try {
+            for (int i = 0; i < slow.length; i++) {
+                slow[i] = new Socket("localhost", server.getPort());
+                slow[i].getOutputStream().write(("GET /app/greeting/delayed?name=S" + i + "&delay=1000 HTTP/1.1\r\n"
+                        + "Host: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            }
+            Thread.sleep(100);
+            // Both workers would still be waiting if the delayed greetings held them
+            long start = System.nanoTime();
+            String response = request("GET /app/square?n=5 HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+            assertTrue(response.endsWith("El cuadrado de 5 es 25"));
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+            for (int i = 0; i < slow.length; i++) {
+                String greeting = readResponse(slow[i].getInputStream());
+                assertTrue(greeting, greeting.contains("Connection: keep-alive"));
+                assertTrue(greeting, greeting.endsWith("Hello S" + i));
+            }
+        } finally {
+            for (Socket socket : slow) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldAnswerAsyncServicesThatRunOutOfTimeWith503() throws IOException {
+        CompletableFuture<String> shared = new CompletableFuture<>();
+        Router previous = HttpServer.router;
+        HttpServer.router = Router.builder()
+                .add("GET", "/never", new Route("/never", args -> shared).withTimeout(50))
+                .build();
+        try {
+            for (int i = 0; i < 2; i++) {
+                String response = request("GET /app/never HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+                assertTrue(response, response.startsWith("HTTP/1.1 503 Service Unavailable"));
+            }
+            // The timeout fails each request's copy, not the future the controller shares
+            assertFalse(shared.isDone());
+        } finally {
+            HttpServer.router = previous;
+        }
+    }
+
+    @Test
+    public void shouldStopWaitingWithoutCancellingSharedFuturesWhenTheClientLeaves() throws Exception {
+        CompletableFuture<String> shared = new CompletableFuture<>();
+        Router previous = HttpServer.router;
+        HttpServer.router = Router.builder()
+                .add("GET", "/wait", new Route("/wait", args -> shared))
+                .build();
+        try {
+            try (Socket socket = new Socket("localhost", server.getPort())) {
+                socket.getOutputStream().write("GET /app/wait HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                        .getBytes(StandardCharsets.US_ASCII));
+                Thread.sleep(100);
+            }
+            Thread.sleep(100);
+            assertFalse(shared.isDone());
+            // Later requests for the same future are still answered once it completes
+            shared.complete("done");
+            String response = request("GET /app/wait HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+            assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+            assertTrue(response, response.endsWith("done"));
+        } finally {
+            HttpServer.router = previous;
+        }
+    }
+
+    @Test
+    public void shouldCloseConnectionsWithAmbiguousBodyFraming() throws IOException {
+        // Without Connection: close, the response only ends because the server closes
+        String response = request("POST /app/hellopost HTTP/1.1\r\nHost: localhost\r\nContent-Length: 4\r\n"
+                + "Transfer-Encoding: chunked\r\n\r\n0\r\n\r\nGET /app/greeting HTTP/1.1\r\n\r\n");
+        assertTrue(response, response.startsWith("HTTP/1.1 400 Bad Request"));
+        assertFalse(response, response.contains("Hello"));
+    }
+
+    @Test
+    public void shouldSpillLargeBodiesOffTheEventLoop() throws IOException {
+        Router previous = HttpServer.router;
+        HttpServer.router = Router.builder()
+                .add("POST", "/spill", new Route("/spill", args -> {
+                    HttpRequestBody body = (HttpRequestBody) args[0];
+                    return body.isSpilled() + " " + body.getLength() + " " + body.getString().replace("x", "");
+                }, ParameterBinder.requestBody(HttpRequestBody.class)))
+                .build();
+        try {
+            int size = BodyDecoder.BODY_MEMORY_BYTES * 3 + 5;
+            String body = "x".repeat(size - 3) + "end";
+            String response = request("POST /app/spill HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n"
+                    + "Content-Length: " + size + "\r\n\r\n" + body);
+            assertTrue(response, response.endsWith("true " + size + " end"));
+            String chunked = request("POST /app/spill HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n"
+                    + "Transfer-Encoding: chunked\r\n\r\n" + Integer.toHexString(size) + "\r\n" + body
+                    + "\r\n0\r\n\r\n");
+            assertTrue(chunked, chunked.endsWith("true " + size + " end"));
+        } finally {
+            HttpServer.router = previous;
+        }
+    }
+
+    @Test
+    public void shouldRefuseBodiesOverTheLimit() throws IOException {
+        String response = request("POST /app/hellopost HTTP/1.1\r\nHost: localhost\r\nContent-Length: "
+                + (BodyDecoder.MAX_BODY_BYTES + 1) + "\r\n\r\n");
+        assertTrue(response, response.startsWith("HTTP/1.1 413 Payload Too Large"));
+    }
+}
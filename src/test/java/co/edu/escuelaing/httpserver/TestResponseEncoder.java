@@ -0,0 +1,122 @@
+package co.edu.escuelaing.httpserver;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestResponseEncoder {
+
+    /**
+     * Records every write call it receives.
+     */
+    private static final class RecordingStream extends OutputStream {
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final List<Integer> writes = new ArrayList<>();
+
+        @Override
+        public void write(int b) {
+            writes.add(1);
+            bytes.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writes.add(len);
+            bytes.write(b, off, len);
+        }
+
+        String text() {
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void shouldCountUtf8BytesInContentLength() throws Exception {
+        HttpResponse response = new HttpResponse();
+        response.setBody("El número");
+        RecordingStream out = new RecordingStream();
+        ResponseEncoder.write(response, response.getBodyBytes(), 0, response.getBodyBytes().length, out);
+        String text = out.text();
+        assertTrue(text, text.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(text, text.contains("Content-Length: 10\r\n"));
+        assertTrue(text, text.contains("Content-Type: text/plain; charset=UTF-8\r\n"));
+        assertTrue(text, text.endsWith("\r\n\r\nEl número"));
+    }
+
+    @Test
+    public void shouldSendSmallResponsesInOneWrite() throws Exception {
+        HttpResponse response = new HttpResponse();
+        response.setBody("hello");
+        RecordingStream out = new RecordingStream();
+        ResponseEncoder.write(response, response.getBodyBytes(), 0, 5, out);
+        assertEquals(1, out.writes.size());
+
+        byte[] large = new byte[BufferPool.BUFFER_SIZE];
+        response.setHeader("Content-Length", String.valueOf(large.length));
+        out = new RecordingStream();
+        ResponseEncoder.write(response, large, 0, large.length, out);
+        assertEquals(2, out.writes.size());
+        assertEquals(large.length, (int) out.writes.get(1));
+    }
+
+    @Test
+    public void shouldAddACachedDateHeader() throws Exception {
+        byte[] first = ResponseEncoder.dateLine();
+        String line = new String(first, StandardCharsets.US_ASCII);
+        assertTrue(line, line.matches("Date: \\w{3}, \\d{1,2} \\w{3} \\d{4} \\d{2}:\\d{2}:\\d{2} GMT\r\n"));
+
+        RecordingStream out = new RecordingStream();
+        byte[] head = "HTTP/1.1 304 Not Modified\r\nETag: \"x\"\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        ResponseEncoder.write(head, null, 0, 0, out);
+        String text = out.text();
+        assertTrue(text, text.startsWith("HTTP/1.1 304 Not Modified\r\nETag: \"x\"\r\nDate: "));
+        assertTrue(text, text.endsWith(" GMT\r\n\r\n"));
+    }
+
+    @Test
+    public void shouldEncodeUncommonStatusesAndHeaders() {
+        HttpResponse response = new HttpResponse();
+        response.setStatus(418, "I'm a teapot");
+        response.setHeader("X-Injected", "a\r\nSet-Cookie: b");
+        String head = response.buildHead();
+        assertTrue(head, head.startsWith("HTTP/1.1 418 I'm a teapot\r\n"));
+        assertTrue(head, head.contains("X-Injected: a??Set-Cookie: b\r\n"));
+        assertFalse(head, head.contains("\nSet-Cookie"));
+    }
+
+    @Test
+    public void shouldKeepHeadersCaseInsensitive() {
+        HttpResponse response = new HttpResponse();
+        response.setHeader("content-type", "text/html");
+        assertEquals("text/html", response.getHeader("Content-Type"));
+        response.setHeader("Content-Length", "12");
+        assertEquals("12", response.getHeader("content-length"));
+        response.removeHeader("CONTENT-LENGTH");
+        assertNull(response.getHeader("Content-Length"));
+        response.removeHeader("Connection");
+        assertNull(response.getHeader("Connection"));
+        assertEquals("text/html", response.getHeader("Content-Type"));
+        assertFalse(response.buildHead().contains("Connection"));
+    }
+
+    @Test
+    public void shouldReuseReleasedBuffers() {
+        ByteBuffer buffer = BufferPool.acquire();
+        buffer.put((byte) 1);
+        BufferPool.release(buffer);
+        ByteBuffer again = BufferPool.acquire();
+        assertEquals(0, again.position());
+        assertEquals(BufferPool.BUFFER_SIZE, again.remaining());
+        BufferPool.release(again);
+        int idle = BufferPool.idle();
+        BufferPool.release(ByteBuffer.allocate(10));
+        assertEquals(idle, BufferPool.idle());
+    }
+}
@@ -0,0 +1,84 @@
+package co.edu.escuelaing.httpserver;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class TestResponseStream {
+
+    /**
+     * Socket stand-in that takes a while for every slice and checks, when the
+     * next one starts, that the WRITE deadline was restarted. A deadline set
+     * once for the whole response would already be 30 ms old.
+     */
+    private static final class SlowClient extends OutputStream {
+
+        final TimerWheel wheel;
+        final TimerWheel.Timeout timeout;
+        long received;
+        int writes;
+
+        SlowClient(TimerWheel wheel, TimerWheel.Timeout timeout) {
+            this.wheel = wheel;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            assertTrue(len <= ResponseStream.WRITE_SLICE_BYTES);
+            if (received % ResponseStream.WRITE_SLICE_BYTES == 0) {
+                // A new slice starts with almost the whole limit ahead of it
+                wheel.expire(TimerWheel.now() + ConnectionPhase.WRITE.getTimeoutMillis() - 10);
+                assertFalse(timeout.hasExpired());
+                try {
+                    Thread.sleep(30);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            received += len;
+            writes++;
+        }
+    }
+
+    @Test
+    public void shouldRestartTheWriteDeadlineForEverySlice() throws IOException {
+        TimerWheel wheel = new TimerWheel(1, 64);
+        TimerWheel.Timeout timeout = new TimerWheel.Timeout(() -> { });
+        SlowClient client = new SlowClient(wheel, timeout);
+        OutputStream out = new ResponseStream.TimedOutputStream(client, wheel, timeout);
+        byte[] body = new byte[4 * ResponseStream.WRITE_SLICE_BYTES + 1];
+        out.write(body, 0, body.length);
+        assertEquals(body.length, client.received);
+        assertEquals(5, client.writes);
+        assertFalse(timeout.hasExpired());
+    }
+
+    @Test
+    public void shouldRestartTheWriteDeadlineWhileSendingAFile() throws IOException {
+        Path file = Files.createTempFile("response-stream-", ".bin");
+        try {
+            Files.write(file, new byte[3 * ResponseStream.WRITE_SLICE_BYTES + 7]);
+            TimerWheel wheel = new TimerWheel(1, 64);
+            TimerWheel.Timeout timeout = new TimerWheel.Timeout(() -> { });
+            SlowClient client = new SlowClient(wheel, timeout);
+            ResponseStream out = new ResponseStream.Blocking(OutputStream.nullOutputStream(),
+                    Channels.newChannel(client), wheel, timeout);
+            out.transferFile(file, 0, Files.size(file));
+            assertEquals(Files.size(file), client.received);
+            assertFalse(timeout.hasExpired());
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package co.edu.escuelaing.httpserver;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestResultCache {
+
+    @Test
+    public void shouldCountHitsAndMisses() throws Exception {
+        ResultCache cache = new ResultCache("test", 0, 10, 10_000);
+        AtomicInteger calls = new AtomicInteger();
+        assertEquals("a", cache.get("k", () -> {
+            calls.incrementAndGet();
+            return "a";
+        }));
+        assertEquals("a", cache.get("k", () -> "b"));
+        assertEquals(1, calls.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void shouldNotCacheNullsOrFailures() throws Exception {
+        ResultCache cache = new ResultCache("test", 0, 10, 10_000);
+        assertNull(cache.get("k", () -> null));
+        try {
+            cache.get("k", () -> {
+                throw new IllegalStateException("boom");
+            });
+            fail("Expected the loader failure");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals("ok", cache.get("k", () -> "ok"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void shouldProtectEntriesThatWereHitAgain() throws Exception {
+        ResultCache cache = new ResultCache("test", 0, 5, 10_000);
+        cache.get("hot", () -> "hot");
+        cache.get("hot", () -> "hot");
+        for (int i = 0; i < 20; i++) {
+            String key = "cold" + i;
+            cache.get(key, () -> key);
+        }
+        assertEquals(5, cache.size());
+        long misses = cache.getMisses();
+        cache.get("hot", () -> "recomputed");
+        assertEquals(misses, cache.getMisses());
+        assertTrue(cache.getEvictions() >= 16);
+    }
+
+    @Test
+    public void shouldBoundTheEstimatedSize() throws Exception {
+        ResultCache cache = new ResultCache("test", 0, 100, 500);
+        for (int i = 0; i < 20; i++) {
+            String key = "key" + i;
+            cache.get(key, () -> "value-value-value-value-" + key);
+        }
+        assertTrue(cache.getBytes() <= 500);
+        assertTrue(cache.size() < 20);
+    }
+
+    @Test
+    public void shouldExpireEntries() throws Exception {
+        ResultCache cache = new ResultCache("test", 1, 10, 10_000);
+        cache.get("k", () -> "a");
+        Thread.sleep(1100);
+        assertEquals("b", cache.get("k", () -> "b"));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void shouldComputeAHotKeyOnlyOnce() throws Exception {
+        ResultCache cache = new ResultCache("test", 0, 10, 10_000);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            Future<?>[] results = new Future<?>[8];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = pool.submit(() -> cache.get(Arrays.asList("n", 97), () -> {
+                    calls.incrementAndGet();
+                    started.countDown();
+                    release.await(5, TimeUnit.SECONDS);
+                    return "slow";
+                }));
+            }
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<?> result : results) {
+                assertEquals("slow", result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void shouldKeepTheBoundsAcrossShards() throws Exception {
+        ResultCache cache = new ResultCache("test", 0, 1024, 1024 * 1024);
+        for (int i = 0; i < 5000; i++) {
+            Integer key = i;
+            cache.get(key, () -> "value" + key);
+        }
+        assertTrue(cache.size() <= 1024);
+        assertTrue(cache.size() > 512);
+        long hits = cache.getHits();
+        assertEquals("value4999", cache.get(4999, () -> "reloaded"));
+        assertEquals(hits + 1, cache.getHits());
+    }
+
+    @Test
+    public void shouldCacheAnnotatedControllerMethods() throws Exception {
+        HttpServer.loadServices();
+        ResultCache square = null;
+        for (ResultCache cache : HttpServer.getResultCaches()) {
+            if (cache.getName().equals("/square")) {
+                square = cache;
+            }
+        }
+        assertNotNull(square);
+        long hits = square.getHits();
+        HttpServer.handleRequest(new HttpRequest(new URI("/app/square?n=12")), new ByteArrayOutputStream(),
+                false);
+        HttpServer.handleRequest(new HttpRequest(new URI("/app/square?n=12")), new ByteArrayOutputStream(),
+                false);
+        assertEquals(hits + 1, square.getHits());
+    }
+}
@@ -0,0 +1,131 @@
+package co.edu.escuelaing.httpserver;
+
+import co.edu.escuelaing.microspringboot.annotations.Cacheable;
+import co.edu.escuelaing.microspringboot.annotations.RequestParam;
+import co.edu.escuelaing.microspringboot.examples.GreetingController;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestRoute {
+
+    public static class SampleController {
+
+        public static int sum(@RequestParam("a") int a, @RequestParam(value = "b", defaultValue = "10") int b) {
+            return a + b;
+        }
+
+        public static String join(@RequestParam("a") String a, @RequestParam("b") String b,
+                @RequestParam("c") String c, @RequestParam("d") String d) {
+            return a + b + c + d;
+        }
+
+        public String describe(@RequestParam(value = "flag", defaultValue = "false") boolean flag) {
+            return "flag=" + flag;
+        }
+
+        public static String unannotated(String value) {
+            return value;
+        }
+
+        @Cacheable
+        public static CompletableFuture<String> cachedLater(@RequestParam("a") String a) {
+            return CompletableFuture.completedFuture(a);
+        }
+    }
+
+    private static Method method(Class<?> type, String name) {
+        for (Method m : type.getDeclaredMethods()) {
+            if (m.getName().equals(name)) {
+                return m;
+            }
+        }
+        throw new AssertionError("No method " + name);
+    }
+
+    private static HttpRequest request(String uri) {
+        return new HttpRequest(URI.create(uri));
+    }
+
+    @Test
+    public void shouldInvokeCompiledControllerMethod() throws Exception {
+        Route route = Route.compile("/greeting", method(GreetingController.class, "greeting"));
+        assertEquals("Hello Ana", route.invoke(request("/app/greeting?name=Ana")));
+        assertEquals("Hello World", route.invoke(request("/app/greeting")));
+    }
+
+    @Test
+    public void shouldBindSeveralConvertedParameters() throws Exception {
+        Route route = Route.compile("/sum", method(SampleController.class, "sum"));
+        assertEquals(3, route.invoke(request("/app/sum?a=1&b=2")));
+        assertEquals(15, route.invoke(request("/app/sum?a=5")));
+    }
+
+    @Test
+    public void shouldInvokeMethodsWithManyParameters() throws Exception {
+        Route route = Route.compile("/join", method(SampleController.class, "join"));
+        assertEquals("wxyz", route.invoke(request("/app/join?d=z&c=y&b=x&a=w")));
+    }
+
+    @Test
+    public void shouldInvokeInstanceMethods() throws Exception {
+        Route route = Route.compile("/describe", method(SampleController.class, "describe"));
+        assertEquals("flag=true", route.invoke(request("/app/describe?flag=true")));
+    }
+
+    @Test
+    public void shouldRejectValuesThatCannotBeConverted() throws Exception {
+        Route route = Route.compile("/sum", method(SampleController.class, "sum"));
+        try {
+            route.invoke(request("/app/sum?a=one"));
+            fail("A non numeric value should not bind to an int");
+        } catch (HttpParseException e) {
+            assertEquals(400, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void shouldReadTheTimeoutOfAsyncMethods() throws Exception {
+        Route route = Route.compile("/greeting/delayed", method(GreetingController.class, "delayedGreeting"));
+        assertEquals(5000, route.getTimeoutMillis());
+        Object result = route.invoke(request("/app/greeting/delayed?name=Ana&delay=0"));
+        assertEquals("Hello Ana", ((CompletableFuture<?>) result).get());
+        assertEquals(0, Route.compile("/sum", method(SampleController.class, "sum")).getTimeoutMillis());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRefuseParametersWithoutRequestParam() {
+        Route.compile("/unannotated", method(SampleController.class, "unannotated"));
+    }
+
+    @Test
+    public void shouldNotCacheTimeouts() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        Route route = new Route("/slow", args -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new TimeoutException();
+            }
+            return "done";
+        }).withCache(new ResultCache("/slow", 300, 10, 1024));
+        HttpResponse response = new HttpResponse();
+        try {
+            route.invoke(request("/app/slow"));
+            fail("Expected the timeout");
+        } catch (TimeoutException e) {
+            HttpServer.complete(response, null, e);
+        }
+        assertEquals(503, response.getStatusCode());
+        assertEquals("done", route.invoke(request("/app/slow")));
+        assertEquals(2, calls.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRefuseToCacheResultsThatCompleteLater() {
+        Route.compile("/cachedLater", method(SampleController.class, "cachedLater"));
+    }
+}
@@ -0,0 +1,114 @@
+package co.edu.escuelaing.httpserver;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+
+public class TestRouter {
+
+    private static Route route(String name) {
+        return new Route(name, args -> name);
+    }
+
+    private static Router sample() {
+        return Router.builder()
+                .add("GET", "/square", route("square"))
+                .add("GET", "/factors", route("factors"))
+                .add("GET", "/factors/{n}", route("factorsOf"))
+                .add("GET", "/factors/primes", route("primes"))
+                .add("GET", "/users/{id}/orders/{order}", route("order"))
+                .add("POST", "/users/{id}", route("updateUser"))
+                .add("GET", "/files/{path*}", route("files"))
+                .build();
+    }
+
+    @Test
+    public void shouldMatchStaticRoutesSharingPrefixes() {
+        Router router = sample();
+        RouteMatch match = new RouteMatch();
+        assertEquals(RouteMatch.FOUND, router.find("GET", "/square", 0, match).getStatus());
+        assertEquals("square", match.getRoute().getPath());
+        assertEquals("factors", router.find("GET", "/factors", 0, match).getRoute().getPath());
+        assertEquals("primes", router.find("GET", "/factors/primes", 0, match).getRoute().getPath());
+    }
+
+    @Test
+    public void shouldBindPathVariables() {
+        Router router = sample();
+        RouteMatch match = new RouteMatch();
+        router.find("GET", "/factors/84", 0, match);
+        assertEquals("factorsOf", match.getRoute().getPath());
+        assertEquals("84", match.getVariable("n"));
+
+        router.find("GET", "/users/7/orders/42", 0, match);
+        assertEquals("order", match.getRoute().getPath());
+        assertEquals("7", match.getVariable("id"));
+        assertEquals("42", match.getVariable("order"));
+        assertNull(match.getVariable("n"));
+    }
+
+    @Test
+    public void shouldMatchWildcardsToTheEndOfThePath() {
+        Router router = sample();
+        RouteMatch match = new RouteMatch();
+        router.find("GET", "/files/css/site.css", 0, match);
+        assertEquals("files", match.getRoute().getPath());
+        assertEquals("css/site.css", match.getVariable("path"));
+    }
+
+    @Test
+    public void shouldReportNotFoundAndMethodNotAllowed() {
+        Router router = sample();
+        RouteMatch match = new RouteMatch();
+        assertEquals(RouteMatch.NOT_FOUND, router.find("GET", "/missing", 0, match).getStatus());
+        assertEquals(RouteMatch.NOT_FOUND, router.find("GET", "/factors/", 0, match).getStatus());
+        assertNull(match.getRoute());
+
+        assertEquals(RouteMatch.METHOD_NOT_ALLOWED, router.find("DELETE", "/factors", 0, match).getStatus());
+        assertEquals("GET", match.getAllow());
+        assertEquals(RouteMatch.METHOD_NOT_ALLOWED, router.find("GET", "/users/7", 0, match).getStatus());
+        assertEquals("POST", match.getAllow());
+    }
+
+    @Test
+    public void shouldMatchFromAnOffset() {
+        Router router = sample();
+        RouteMatch match = new RouteMatch();
+        router.find("GET", "/app/factors/12", 4, match);
+        assertEquals("factorsOf", match.getRoute().getPath());
+        assertEquals("12", match.getVariable("n"));
+    }
+
+    @Test
+    public void shouldRejectConflictingRoutes() {
+        Router.Builder builder = Router.builder().add("GET", "/factors/{n}", route("a"));
+        try {
+            builder.add("GET", "/factors/{m}", route("b"));
+            fail("Expected a conflict");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            builder.add("GET", "/factors/{n}", route("c"));
+            fail("Expected a duplicate");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            builder.add("GET", "/files/*/more", route("d"));
+            fail("Expected an invalid wildcard");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void shouldServePathVariablesThroughTheServer() throws Exception {
+        HttpServer.loadServices();
+        HttpRequest request = new HttpRequest(new URI("/app/factors/84"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpServer.handleRequest(request, out, false);
+        String response = out.toString("UTF-8");
+        assertTrue(response, response.startsWith("HTTP/1.1 200"));
+        assertTrue(response, response.contains("[2, 2, 3, 7]"));
+    }
+}
@@ -0,0 +1,85 @@
+package co.edu.escuelaing.httpserver;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+
+public class TestServerMetrics {
+
+    @Test
+    public void shouldBucketLatenciesWithBoundedRelativeError() {
+        for (long micros = 1; micros < 1L << 30; micros = micros * 3 + 1) {
+            int index = LatencyHistogram.index(micros);
+            long upper = LatencyHistogram.upperBound(index);
+            assertTrue(micros + " < " + upper, micros < upper);
+            assertTrue(micros + " within 25% of " + upper, upper - micros <= Math.max(1, micros / 4));
+            if (index > 0) {
+                assertTrue(micros >= LatencyHistogram.upperBound(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void shouldEstimatePercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(100, histogram.count());
+        assertEquals(5_050_000L, histogram.sumNanos());
+        long median = histogram.percentile(0.5);
+        assertTrue(String.valueOf(median), median >= 50 && median <= 64);
+        long p99 = histogram.percentile(0.99);
+        assertTrue(String.valueOf(p99), p99 >= 99 && p99 <= 128);
+        assertEquals(0, new LatencyHistogram().percentile(0.5));
+    }
+
+    @Test
+    public void shouldExportCumulativePrometheusBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(500);
+        histogram.record(3_000);
+        histogram.record(3_000_000_000_000L);
+        StringBuilder out = new StringBuilder();
+        histogram.writePrometheus(out, "t", ServerMetrics.label("route", "/a\"b"));
+        String text = out.toString();
+        assertTrue(text, text.contains("t_bucket{route=\"/a\\\"b\",le=\"1.0E-6\"} 1\n"));
+        assertTrue(text, text.contains("t_bucket{route=\"/a\\\"b\",le=\"4.0E-6\"} 2\n"));
+        assertTrue(text, text.contains("t_bucket{route=\"/a\\\"b\",le=\"+Inf\"} 3\n"));
+        assertTrue(text, text.contains("t_count{route=\"/a\\\"b\"} 3\n"));
+    }
+
+    @Test
+    public void shouldRecordServedRequests() throws Exception {
+        HttpServer.loadServices();
+        Route square = HttpServer.router.find("GET", "/square", 0, new RouteMatch()).getRoute();
+        long requests = square.getMetrics().getRequests();
+        long ok = ServerMetrics.getStatusCount(200);
+        long notFound = ServerMetrics.getStatusCount(404);
+
+        HttpServer.handleRequest(new HttpRequest(new URI("/app/square?n=7")), new ByteArrayOutputStream(), true);
+        HttpServer.handleRequest(new HttpRequest(new URI("/app/missing")), new ByteArrayOutputStream(), true);
+
+        assertEquals(requests + 1, square.getMetrics().getRequests());
+        assertTrue(ServerMetrics.getStatusCount(200) > ok);
+        assertTrue(ServerMetrics.getStatusCount(404) > notFound);
+    }
+
+    @Test
+    public void shouldServeMetricsInPrometheusFormat() throws Exception {
+        HttpServer.loadServices();
+        HttpServer.handleRequest(new HttpRequest(new URI("/app/square?n=3")), new ByteArrayOutputStream(), true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpServer.handleRequest(new HttpRequest(new URI("/metrics")), out, true);
+        String response = out.toString("UTF-8");
+        assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+        assertTrue(response, response.contains("Content-Type: text/plain; version=0.0.4; charset=utf-8"));
+        assertTrue(response, response.contains("# TYPE http_dispatch_seconds histogram"));
+        assertTrue(response, response.contains("http_dispatch_seconds_count{route=\"/square\"}"));
+        assertTrue(response, response.contains("http_write_seconds_bucket{route=\"static\",le=\"+Inf\"}"));
+        assertTrue(response, response.contains("http_responses_total{code=\"200\"}"));
+        assertTrue(response, response.contains("http_active_connections "));
+    }
+}
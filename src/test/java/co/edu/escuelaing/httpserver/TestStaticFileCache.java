@@ -0,0 +1,185 @@
+package co.edu.escuelaing.httpserver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class TestStaticFileCache {
+
+    private File dir;
+
+    @Before
+    public void createDirectory() throws Exception {
+        File classes = new File(TestStaticFileCache.class.getResource("/").toURI());
+        dir = new File(classes, "cachetest");
+        dir.mkdirs();
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private File write(String name, String content) throws Exception {
+        File file = new File(dir, name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static HttpRequest request(String head) throws Exception {
+        HttpRequestParser parser = new HttpRequestParser();
+        byte[] bytes = head.getBytes(StandardCharsets.US_ASCII);
+        parser.feed(bytes, 0, bytes.length);
+        assertTrue(parser.parse());
+        return parser.request();
+    }
+
+    @Test
+    public void shouldServeRepeatedRequestsFromMemory() throws Exception {
+        File file = write("a.html", "<p>a</p>");
+        StaticFileCache cache = new StaticFileCache("cachetest", 1024, 1024, 60_000);
+        StaticFileCache.Entry first = cache.get("/a.html");
+        assertNotNull(first);
+        assertEquals("<p>a</p>", new String(first.body(), StandardCharsets.UTF_8));
+        assertEquals("text/html", first.contentType);
+
+        assertTrue(file.delete());
+        assertSame(first, cache.get("/a.html"));
+        assertNull(cache.get("/missing.html"));
+    }
+
+    @Test
+    public void shouldReloadChangedFiles() throws Exception {
+        File file = write("b.css", "body {}");
+        StaticFileCache cache = new StaticFileCache("cachetest", 1024, 1024, 0);
+        StaticFileCache.Entry first = cache.get("/b.css");
+        write("b.css", "body { color: red; }");
+        assertTrue(file.setLastModified(first.lastModified + 5000));
+        StaticFileCache.Entry second = cache.get("/b.css");
+        assertNotSame(first, second);
+        assertEquals("body { color: red; }", new String(second.body(), StandardCharsets.UTF_8));
+        assertNotEquals(first.etag, second.etag);
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedEntriesBySize() throws Exception {
+        write("one.js", "1111111111");
+        write("two.js", "2222222222");
+        write("three.js", "3333333333");
+        StaticFileCache cache = new StaticFileCache("cachetest", 25, 25, 60_000);
+        StaticFileCache.Entry one = cache.get("/one.js");
+        cache.get("/two.js");
+        assertSame(one, cache.get("/one.js"));
+        cache.get("/three.js");
+        assertEquals(2, cache.size());
+        assertEquals(20, cache.weight());
+        assertSame(one, cache.get("/one.js"));
+    }
+
+    @Test
+    public void shouldKeepOnlyHeadersOfLargeFiles() throws Exception {
+        write("big.js", "0123456789");
+        StaticFileCache cache = new StaticFileCache("cachetest", 1024, 4, 60_000);
+        StaticFileCache.Entry entry = cache.get("/big.js");
+        assertNull(entry.body());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseStream.transfer(out, entry.file.toPath(), 2, 5);
+        assertEquals("23456", out.toString("UTF-8"));
+        assertEquals(0, cache.weight());
+    }
+
+    @Test
+    public void shouldAnswerConditionalRequests() throws Exception {
+        write("c.html", "<p>c</p>");
+        StaticFileCache cache = new StaticFileCache("cachetest", 1024, 1024, 60_000);
+        StaticFileCache.Entry entry = cache.get("/c.html");
+
+        assertTrue(entry.isNotModified(request("GET /c.html HTTP/1.1\r\nIf-None-Match: \"x\", "
+                + entry.etag + "\r\n\r\n")));
+        assertTrue(entry.isNotModified(request("GET /c.html HTTP/1.1\r\nIf-None-Match: W/" + entry.etag
+                + "\r\n\r\n")));
+        assertFalse(entry.isNotModified(request("GET /c.html HTTP/1.1\r\nIf-None-Match: \"x\"\r\n"
+                + "If-Modified-Since: " + entry.lastModifiedHeader + "\r\n\r\n")));
+        assertTrue(entry.isNotModified(request("GET /c.html HTTP/1.1\r\nIf-Modified-Since: "
+                + entry.lastModifiedHeader + "\r\n\r\n")));
+        assertFalse(entry.isNotModified(request("GET /c.html HTTP/1.1\r\n"
+                + "If-Modified-Since: Thu, 01 Jan 1970 00:00:00 GMT\r\n\r\n")));
+        assertFalse(entry.isNotModified(request("GET /c.html HTTP/1.1\r\nIf-Modified-Since: yesterday\r\n\r\n")));
+    }
+
+    @Test
+    public void shouldParseSingleByteRanges() {
+        ByteRange range = ByteRange.parse("bytes=10-19", 100);
+        assertEquals(10, range.start);
+        assertEquals(19, range.end);
+        assertEquals(10, range.length());
+        assertEquals(90, ByteRange.parse("bytes=90-", 100).start);
+        assertEquals(99, ByteRange.parse("bytes=90-500", 100).end);
+        assertEquals(80, ByteRange.parse("bytes=-20", 100).start);
+        assertEquals(0, ByteRange.parse("bytes=-500", 100).start);
+        assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=100-", 100));
+        assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=-0", 100));
+        assertNull(ByteRange.parse("bytes=5-1", 100));
+        assertNull(ByteRange.parse("bytes=0-1,5-6", 100));
+        assertNull(ByteRange.parse("items=0-1", 100));
+        assertNull(ByteRange.parse("bytes=a-b", 100));
+    }
+
+    @Test
+    public void shouldServePartialContent() throws Exception {
+        write("d.js", "0123456789");
+        StaticFileCache cache = new StaticFileCache("cachetest", 1024, 1024, 60_000);
+        StaticFileCache.Entry entry = cache.get("/d.js");
+        String head = new String(entry.partialHead(ByteRange.parse("bytes=2-5", 10), false),
+                StandardCharsets.US_ASCII);
+        assertTrue(head, head.startsWith("HTTP/1.1 206 Partial Content\r\n"));
+        assertTrue(head, head.contains("Content-Length: 4\r\n"));
+        assertTrue(head, head.contains("Content-Range: bytes 2-5/10\r\n"));
+
+        assertTrue(entry.isRangeValid(request("GET /d.js HTTP/1.1\r\n\r\n")));
+        assertTrue(entry.isRangeValid(request("GET /d.js HTTP/1.1\r\nIf-Range: " + entry.etag + "\r\n\r\n")));
+        assertFalse(entry.isRangeValid(request("GET /d.js HTTP/1.1\r\nIf-Range: \"old\"\r\n\r\n")));
+        assertTrue(entry.isRangeValid(request("GET /d.js HTTP/1.1\r\nIf-Range: " + entry.lastModifiedHeader
+                + "\r\n\r\n")));
+    }
+
+    @Test
+    public void shouldAnswerUnsatisfiableRanges() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpServer.handleRequest(request("GET /index.html HTTP/1.1\r\nRange: bytes=99999999-\r\n\r\n"), out, true);
+        String response = out.toString("UTF-8");
+        assertTrue(response, response.startsWith("HTTP/1.1 416 Range Not Satisfiable\r\n"));
+        assertTrue(response, response.contains("Content-Range: bytes */"));
+    }
+
+    @Test
+    public void shouldSendNotModifiedWithoutBody() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpServer.handleRequest(new HttpRequest(new URI("/index.html")), out, true);
+        String first = out.toString("UTF-8");
+        assertTrue(first, first.startsWith("HTTP/1.1 200 OK"));
+        int start = first.indexOf("ETag: ") + 6;
+        String etag = first.substring(start, first.indexOf("\r\n", start));
+
+        out.reset();
+        HttpServer.handleRequest(request("GET /index.html HTTP/1.1\r\nIf-None-Match: " + etag + "\r\n\r\n"),
+                out, true);
+        String second = out.toString("UTF-8");
+        assertTrue(second, second.startsWith("HTTP/1.1 304 Not Modified\r\n"));
+        assertTrue(second, second.endsWith("\r\n\r\n"));
+        assertFalse(second, second.contains("Content-Length"));
+    }
+}
@@ -0,0 +1,85 @@
+package co.edu.escuelaing.httpserver;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestTimerWheel {
+
+    @Test
+    public void shouldFireOnlyOnceTheDeadlineHasPassed() {
+        TimerWheel wheel = new TimerWheel(10, 8);
+        AtomicInteger fired = new AtomicInteger();
+        TimerWheel.Timeout timeout = new TimerWheel.Timeout(fired::incrementAndGet);
+        long now = TimerWheel.now();
+        wheel.schedule(timeout, ConnectionPhase.HEADER, now + 50);
+
+        assertEquals(0, wheel.expire(now + 49));
+        assertFalse(timeout.hasExpired());
+        assertEquals(1, wheel.expire(now + 70));
+        assertTrue(timeout.hasExpired());
+        assertEquals(1, fired.get());
+        assertEquals(0, wheel.size());
+        assertEquals(0, wheel.expire(now + 200));
+    }
+
+    @Test
+    public void shouldKeepDeadlinesBeyondOneTurnOfTheWheel() {
+        TimerWheel wheel = new TimerWheel(10, 8);
+        AtomicInteger fired = new AtomicInteger();
+        TimerWheel.Timeout timeout = new TimerWheel.Timeout(fired::incrementAndGet);
+        long now = TimerWheel.now();
+        // Eight buckets of 10 ms turn every 80 ms
+        wheel.schedule(timeout, ConnectionPhase.IDLE, now + 250);
+
+        for (long t = now; t < now + 240; t += 10) {
+            assertEquals(0, wheel.expire(t));
+        }
+        assertEquals(1, wheel.expire(now + 270));
+        assertEquals(1, fired.get());
+    }
+
+    @Test
+    public void shouldMoveARescheduledTimeoutAndIgnoreACancelledOne() {
+        TimerWheel wheel = new TimerWheel(10, 8);
+        AtomicInteger fired = new AtomicInteger();
+        TimerWheel.Timeout moved = new TimerWheel.Timeout(fired::incrementAndGet);
+        TimerWheel.Timeout cancelled = new TimerWheel.Timeout(fired::incrementAndGet);
+        long now = TimerWheel.now();
+        wheel.schedule(moved, ConnectionPhase.HEADER, now + 20);
+        wheel.schedule(cancelled, ConnectionPhase.HEADER, now + 20);
+        wheel.schedule(moved, ConnectionPhase.WRITE, now + 100);
+        wheel.cancel(cancelled);
+        assertEquals(1, wheel.size());
+
+        assertEquals(0, wheel.expire(now + 60));
+        assertEquals(ConnectionPhase.WRITE, moved.getPhase());
+        assertEquals(1, wheel.expire(now + 120));
+        assertEquals(1, fired.get());
+        assertFalse(cancelled.hasExpired());
+    }
+
+    @Test
+    public void shouldFireEverythingDueAfterALongPause() {
+        TimerWheel wheel = new TimerWheel(10, 8);
+        AtomicInteger fired = new AtomicInteger();
+        long now = TimerWheel.now();
+        for (int i = 0; i < 100; i++) {
+            wheel.schedule(new TimerWheel.Timeout(fired::incrementAndGet), ConnectionPhase.BODY, now + i * 7);
+        }
+        assertEquals(100, wheel.expire(now + 5000));
+        assertEquals(100, fired.get());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void shouldCountExpiredConnectionsByPhase() {
+        TimerWheel wheel = new TimerWheel(10, 8);
+        long before = ServerMetrics.getTimeouts("write");
+        long now = TimerWheel.now();
+        wheel.schedule(new TimerWheel.Timeout(() -> { }), ConnectionPhase.WRITE, now);
+        assertEquals(1, wheel.expire(now + 20));
+        assertEquals(before + 1, ServerMetrics.getTimeouts("write"));
+    }
+}
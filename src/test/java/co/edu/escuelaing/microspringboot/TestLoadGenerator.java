@@ -0,0 +1,92 @@
+package co.edu.escuelaing.microspringboot;
+
+import co.edu.escuelaing.httpserver.HttpServer;
+import co.edu.escuelaing.httpserver.NioServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class TestLoadGenerator {
+
+    private ExecutorService workers;
+    private NioServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        HttpServer.loadServices();
+        workers = Executors.newFixedThreadPool(2);
+        server = new NioServer(0, 1, workers);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+        workers.shutdownNow();
+    }
+
+    @Test
+    public void shouldPickOnlyTargetsWithAPositiveWeight() {
+        LoadGenerator.Workload workload = LoadGenerator.Workload.mix("/a:3, /b?x=1:1, /c:0");
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            seen.add(workload.next());
+        }
+        assertEquals(Set.of("/a", "/b?x=1"), seen);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectTargetsWithoutALeadingSlash() {
+        LoadGenerator.Workload.mix("index.html:1");
+    }
+
+    @Test
+    public void shouldReplayRecordedRequestsInOrder() throws IOException {
+        Path file = Files.createTempFile("workload", ".txt");
+        try {
+            Files.write(file, ("# recorded\n"
+                    + "/app/square?n=2\n"
+                    + "GET /index.html HTTP/1.1\n"
+                    + "\n"
+                    + "2026-01-01T00:00:00Z GET \"/app/greeting\" 200 18 120us\n").getBytes(StandardCharsets.UTF_8));
+            LoadGenerator.Workload workload = LoadGenerator.Workload.replay(file);
+            assertEquals("/app/square?n=2", workload.next());
+            assertEquals("/index.html", workload.next());
+            assertEquals("/app/greeting", workload.next());
+            assertEquals("/app/square?n=2", workload.next());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void shouldMeasureAClosedLoop() throws Exception {
+        LoadGenerator.Report report = LoadGenerator.builder().port(server.getPort()).connections(2)
+                .warmupMillis(100).durationMillis(300).build().run();
+        assertTrue(report.getRequests() > 0);
+        assertEquals(0, report.getErrors());
+        assertEquals(report.getRequests(), report.getStatusCount(2));
+        assertTrue(report.getPercentileMicros(0.5) <= report.getPercentileMicros(1.0));
+    }
+
+    @Test
+    public void shouldHoldTheArrivalRateOfAnOpenLoop() throws Exception {
+        LoadGenerator.Report report = LoadGenerator.builder().port(server.getPort())
+                .mode(LoadGenerator.Mode.OPEN).rate(200).connections(2).keepAlive(false)
+                .workload(LoadGenerator.Workload.mix("/app/square?n=3"))
+                .warmupMillis(100).durationMillis(500).build().run();
+        assertEquals(0, report.getErrors());
+        assertEquals(100, report.getRequests(), 2);
+        assertEquals(report.getRequests(), report.getStatusCount(2));
+    }
+}
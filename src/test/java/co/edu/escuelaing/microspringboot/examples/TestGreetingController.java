@@ -3,6 +3,8 @@ package co.edu.escuelaing.microspringboot.examples;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.util.concurrent.CompletableFuture;
+
 public class TestGreetingController {
 
     @Test
@@ -16,4 +18,19 @@ public class TestGreetingController {
         String result = GreetingController.greeting("World");
         assertEquals("Hello World", result);
     }
+
+    @Test
+    public void shouldGreetAfterTheDelay() throws Exception {
+        long start = System.nanoTime();
+        CompletableFuture<String> result = GreetingController.delayedGreeting("Sergio", 100);
+        assertFalse(result.isDone());
+        assertEquals("Hello Sergio", result.get());
+        assertTrue(System.nanoTime() - start >= 100_000_000L);
+    }
+
+    @Test
+    public void shouldGreetTheNamePosted() {
+        assertEquals("Hello Sergio", GreetingController.helloPost("Sergio\n"));
+        assertEquals("Hello World", GreetingController.helloPost(""));
+    }
 }
@@ -3,6 +3,12 @@ package co.edu.escuelaing.microspringboot.examples;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 public class TestMathController {
 
     @Test
@@ -18,20 +24,78 @@ public class TestMathController {
     }
 
     @Test
-    public void shouldReturnFactorsOfNumber() {
+    public void shouldReturnFactorsOfNumber() throws Exception {
         String result = MathController.factors("12");
         assertTrue(result.contains("Factores primos de 12 = [2, 2, 3]"));
     }
 
     @Test
-    public void shouldReturnErrorForNonIntegerFactors() {
+    public void shouldReturnFactorsAsynchronously() throws Exception {
+        String result = MathController.factorsAsync("84").get(5, TimeUnit.SECONDS);
+        assertEquals("Factores primos de 84 = [2, 2, 3, 7]", result);
+    }
+
+    @Test
+    public void shouldReturnErrorForNonIntegerFactors() throws Exception {
         String result = MathController.factors("xyz");
         assertTrue(result.contains("Error"));
     }
 
     @Test
-    public void shouldReturnErrorForFactorsLessThanOrEqualToOne() {
+    public void shouldReturnErrorForFactorsLessThanOrEqualToOne() throws Exception {
         String result = MathController.factors("1");
         assertTrue(result.contains("El número debe ser mayor que 1."));
     }
+
+    @Test
+    public void shouldFactorLargePrimesAndNumbersBeyondAnInt() throws Exception {
+        assertEquals("Factores primos de 2147483647 = [2147483647]", MathController.factors("2147483647"));
+        assertEquals("Factores primos de 4611685975477714963 = [2147483629, 2147483647]",
+                MathController.factors("4611685975477714963"));
+    }
+
+    @Test
+    public void shouldRejectNumbersThatAreTooLong() throws Exception {
+        String result = MathController.factors("1" + "0".repeat(MathController.MAX_DIGITS));
+        assertTrue(result.contains("Error"));
+    }
+
+    private static List<String> collect(Stream<String> lines) {
+        try (lines) {
+            return lines.collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void shouldFactorABatchInOrder() {
+        List<String> lines = collect(MathController.factorsBatch("12, 2147483647,abc,97", "", ""));
+        assertEquals(Arrays.asList("Factores primos de 12 = [2, 2, 3]",
+                "Factores primos de 2147483647 = [2147483647]",
+                "Error: el parámetro 'n' debe ser un número entero.",
+                "Factores primos de 97 = [97]"), lines);
+    }
+
+    @Test
+    public void shouldSquareARange() {
+        List<String> lines = collect(MathController.squareBatch("", "1", "300"));
+        assertEquals(300, lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals(MathController.square(String.valueOf(i + 1)), lines.get(i));
+        }
+    }
+
+    @Test
+    public void shouldRejectBatchesOverTheLimit() {
+        List<String> lines = collect(MathController.squareBatch("", "0", String.valueOf(MathController.MAX_BATCH)));
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).startsWith("Error"));
+        StringBuilder list = new StringBuilder("1");
+        for (int i = 0; i < MathController.MAX_BATCH; i++) {
+            list.append(",1");
+        }
+        assertTrue(collect(MathController.factorsBatch(list.toString(), "", "")).get(0).startsWith("Error"));
+        assertTrue(collect(MathController.factorsBatch("", "5", "x")).get(0).startsWith("Error"));
+        assertTrue(collect(MathController.factorsBatch("", String.valueOf(Long.MIN_VALUE),
+                String.valueOf(Long.MAX_VALUE))).get(0).startsWith("Error"));
+    }
 }
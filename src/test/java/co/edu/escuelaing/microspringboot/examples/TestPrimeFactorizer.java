@@ -0,0 +1,130 @@
+package co.edu.escuelaing.microspringboot.examples;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.concurrent.TimeoutException;
+
+public class TestPrimeFactorizer {
+
+    private static final long BUDGET = 10_000;
+
+    private static List<Long> naive(long n) {
+        List<Long> factors = new ArrayList<>();
+        for (long d = 2; d * d <= n; d++) {
+            while (n % d == 0) {
+                factors.add(d);
+                n /= d;
+            }
+        }
+        if (n > 1) {
+            factors.add(n);
+        }
+        return factors;
+    }
+
+    private static void assertProduct(BigInteger n, List<BigInteger> factors) {
+        BigInteger product = BigInteger.ONE;
+        for (BigInteger factor : factors) {
+            assertTrue(factor + " is not prime", factor.isProbablePrime(64));
+            product = product.multiply(factor);
+        }
+        assertEquals(n, product);
+    }
+
+    @Test
+    public void shouldMatchTrialDivisionForSmallNumbers() throws Exception {
+        for (long n = 2; n < 20_000; n++) {
+            assertEquals(naive(n), PrimeFactorizer.factor(n, BUDGET));
+        }
+    }
+
+    @Test
+    public void shouldFactorLargeThirtyTwoBitPrimesQuickly() throws Exception {
+        long start = System.nanoTime();
+        assertEquals(Arrays.asList(2147483647L), PrimeFactorizer.factor(2147483647L, BUDGET));
+        assertEquals(Arrays.asList(4294967291L), PrimeFactorizer.factor(4294967291L, BUDGET));
+        assertTrue(System.nanoTime() - start < 1_000_000_000L);
+    }
+
+    @Test
+    public void shouldSplitSixtyFourBitSemiprimes() throws Exception {
+        assertEquals(Arrays.asList(2147483629L, 2147483647L),
+                PrimeFactorizer.factor(2147483629L * 2147483647L, BUDGET));
+        assertEquals(Arrays.asList(7L, 7L, 73L, 127L, 337L, 92737L, 649657L),
+                PrimeFactorizer.factor(Long.MAX_VALUE, BUDGET));
+        assertEquals(Arrays.asList(3037000493L, 3037000493L), PrimeFactorizer.factor(3037000493L * 3037000493L,
+                BUDGET));
+    }
+
+    @Test
+    public void shouldAgreeWithBigIntegerOnPrimality() {
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            long n = random.nextLong() >>> 1 | 1;
+            assertEquals(Long.toString(n), BigInteger.valueOf(n).isProbablePrime(64), PrimeFactorizer.isPrime(n));
+        }
+        assertFalse(PrimeFactorizer.isPrime(3215031751L));
+        assertTrue(PrimeFactorizer.isPrime(Long.MAX_VALUE - 24));
+    }
+
+    @Test
+    public void shouldFactorRandomLongs() throws Exception {
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            long n = (random.nextLong() >>> 1) + 2;
+            List<BigInteger> factors = new ArrayList<>();
+            for (long factor : PrimeFactorizer.factor(n, BUDGET)) {
+                factors.add(BigInteger.valueOf(factor));
+            }
+            assertProduct(BigInteger.valueOf(n), factors);
+        }
+    }
+
+    @Test
+    public void shouldFactorNumbersBeyondALong() throws Exception {
+        BigInteger p = new BigInteger("1000000007");
+        BigInteger q = new BigInteger("1000000009");
+        BigInteger n = p.multiply(q).multiply(BigInteger.valueOf(12));
+        List<BigInteger> factors = PrimeFactorizer.factor(n, BUDGET);
+        assertEquals(Arrays.asList(BigInteger.TWO, BigInteger.TWO, BigInteger.valueOf(3), p, q), factors);
+        BigInteger prime = BigInteger.ONE.shiftLeft(127).subtract(BigInteger.ONE);
+        assertEquals(Arrays.asList(prime), PrimeFactorizer.factor(prime, BUDGET));
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void shouldStopWhenTheBudgetIsSpent() throws Exception {
+        BigInteger p = BigInteger.ONE.shiftLeft(89).subtract(BigInteger.ONE);
+        BigInteger q = BigInteger.ONE.shiftLeft(107).subtract(BigInteger.ONE);
+        PrimeFactorizer.factor(p.multiply(q), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNumbersBelowTwo() throws Exception {
+        PrimeFactorizer.factor(1, BUDGET);
+    }
+
+    @Test
+    public void shouldListPrimesAcrossSegments() {
+        PrimitiveIterator.OfLong primes = PrimeFactorizer.primesUpTo(3L * PrimeFactorizer.SIEVE_LIMIT + 7);
+        long previous = 1;
+        int count = 0;
+        while (primes.hasNext()) {
+            long p = primes.nextLong();
+            for (long n = previous + 1; n < p; n++) {
+                assertFalse(n + " was skipped", PrimeFactorizer.isPrime(n));
+            }
+            assertTrue(PrimeFactorizer.isPrime(p));
+            previous = p;
+            count++;
+        }
+        assertEquals(17_705, count);
+        assertFalse(PrimeFactorizer.primesUpTo(1).hasNext());
+    }
+}
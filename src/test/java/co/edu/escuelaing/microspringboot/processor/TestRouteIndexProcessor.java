@@ -0,0 +1,207 @@
+package co.edu.escuelaing.microspringboot.processor;
+
+import co.edu.escuelaing.httpserver.RouteMatch;
+import co.edu.escuelaing.httpserver.RouteRegistry;
+import co.edu.escuelaing.httpserver.Router;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ServiceLoader;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+public class TestRouteIndexProcessor {
+
+    private static final String HEADER = "package sample;\n"
+            + "import co.edu.escuelaing.microspringboot.annotations.*;\n";
+
+    private static boolean compile(Path dir, String source, DiagnosticCollector<JavaFileObject> diagnostics)
+            throws Exception {
+        Path src = dir.resolve("src/sample/SampleController.java");
+        Files.createDirectories(src.getParent());
+        Files.write(src, source.getBytes(StandardCharsets.UTF_8));
+        Path out = dir.resolve("classes");
+        Files.createDirectories(out);
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager files = compiler.getStandardFileManager(diagnostics, null, null)) {
+            List<String> options = Arrays.asList("-d", out.toString(), "-s", out.toString(),
+                    "-classpath", System.getProperty("java.class.path"),
+                    "-processor", RouteIndexProcessor.class.getName());
+            return compiler.getTask(null, files, diagnostics, options, null,
+                    files.getJavaFileObjects(src.toFile())).call();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void shouldGenerateARegistryForTheControllers() throws Exception {
+        Path dir = Files.createTempDirectory("routes");
+        try {
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            boolean ok = compile(dir, HEADER
+                    + "@RestController\n"
+                    + "public class SampleController {\n"
+                    + "    @GetMapping(\"/items/{id}\")\n"
+                    + "    public String item(@PathVariable(\"id\") int id, @RequestParam(\"q\") String q) {\n"
+                    + "        return id + q;\n"
+                    + "    }\n"
+                    + "    @GetMapping(\"/ping\")\n"
+                    + "    public static void ping() {\n"
+                    + "    }\n"
+                    + "    @GetMapping(\"/later\")\n"
+                    + "    @AsyncTimeout(millis = 250)\n"
+                    + "    public static java.util.concurrent.CompletableFuture<String> later() {\n"
+                    + "        return java.util.concurrent.CompletableFuture.completedFuture(\"later\");\n"
+                    + "    }\n"
+                    + "}\n", diagnostics);
+            assertTrue(diagnostics.getDiagnostics().toString(), ok);
+
+            Path classes = dir.resolve("classes");
+            String index = new String(Files.readAllBytes(classes.resolve(
+                    "META-INF/services/co.edu.escuelaing.httpserver.RouteRegistry")), StandardCharsets.UTF_8);
+            assertEquals("sample.GeneratedRoutes", index.trim());
+
+            try (URLClassLoader loader = new URLClassLoader(new URL[] { classes.toUri().toURL() },
+                    TestRouteIndexProcessor.class.getClassLoader())) {
+                Router.Builder builder = Router.builder();
+                for (RouteRegistry registry : ServiceLoader.load(RouteRegistry.class, loader)) {
+                    if (registry.getClass().getClassLoader() == loader) {
+                        registry.register(builder);
+                    }
+                }
+                Router router = builder.build();
+                RouteMatch match = router.find("GET", "/items/7", 0, new RouteMatch());
+                assertEquals(RouteMatch.FOUND, match.getStatus());
+                assertEquals("7", match.getVariable("id"));
+                assertEquals(RouteMatch.FOUND, router.find("GET", "/ping", 0, new RouteMatch()).getStatus());
+                assertEquals(250, router.find("GET", "/later", 0, new RouteMatch()).getRoute().getTimeoutMillis());
+            }
+        } finally {
+            delete(dir.toFile());
+        }
+    }
+
+    @Test
+    public void shouldReportUnmappedParametersAsErrors() throws Exception {
+        Path dir = Files.createTempDirectory("routes");
+        try {
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            boolean ok = compile(dir, HEADER
+                    + "@RestController\n"
+                    + "public class SampleController {\n"
+                    + "    @GetMapping(\"/a\")\n"
+                    + "    public static String a(String value) {\n"
+                    + "        return value;\n"
+                    + "    }\n"
+                    + "    @GetMapping(\"/a\")\n"
+                    + "    public static String b() {\n"
+                    + "        return \"b\";\n"
+                    + "    }\n"
+                    + "}\n", diagnostics);
+            assertFalse(ok);
+            String errors = diagnostics.getDiagnostics().stream()
+                    .filter(d -> d.getKind() == Diagnostic.Kind.ERROR)
+                    .map(d -> d.getMessage(null))
+                    .reduce("", String::concat);
+            assertTrue(errors, errors.contains("need @RequestParam, @PathVariable or @RequestBody"));
+            assertTrue(errors, errors.contains("Duplicate @GetMapping \"/a\""));
+        } finally {
+            delete(dir.toFile());
+        }
+    }
+
+    @Test
+    public void shouldReportCacheableSingleUseResultsAsErrors() throws Exception {
+        Path dir = Files.createTempDirectory("routes");
+        try {
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            boolean ok = compile(dir, HEADER
+                    + "@RestController\n"
+                    + "public class SampleController {\n"
+                    + "    @Cacheable\n"
+                    + "    @GetMapping(\"/later\")\n"
+                    + "    public static java.util.concurrent.CompletableFuture<String> later() {\n"
+                    + "        return java.util.concurrent.CompletableFuture.completedFuture(\"later\");\n"
+                    + "    }\n"
+                    + "    @Cacheable\n"
+                    + "    @GetMapping(\"/items\")\n"
+                    + "    public static java.util.stream.Stream<String> items() {\n"
+                    + "        return java.util.stream.Stream.of(\"a\");\n"
+                    + "    }\n"
+                    + "}\n", diagnostics);
+            assertFalse(ok);
+            long errors = diagnostics.getDiagnostics().stream()
+                    .filter(d -> d.getKind() == Diagnostic.Kind.ERROR)
+                    .filter(d -> d.getMessage(null).contains("@Cacheable methods cannot return"))
+                    .count();
+            assertEquals(diagnostics.getDiagnostics().toString(), 2, errors);
+        } finally {
+            delete(dir.toFile());
+        }
+    }
+
+    @Test
+    public void shouldRegisterPostMappingsWithTheirBody() throws Exception {
+        Path dir = Files.createTempDirectory("routes");
+        try {
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            boolean ok = compile(dir, HEADER
+                    + "@RestController\n"
+                    + "public class SampleController {\n"
+                    + "    @GetMapping(\"/items\")\n"
+                    + "    public static String list() {\n"
+                    + "        return \"[]\";\n"
+                    + "    }\n"
+                    + "    @PostMapping(\"/items\")\n"
+                    + "    public static int add(@RequestBody byte[] item) {\n"
+                    + "        return item.length;\n"
+                    + "    }\n"
+                    + "    @PostMapping(\"/upload\")\n"
+                    + "    public static long upload(@RequestBody java.io.InputStream in) throws java.io.IOException {\n"
+                    + "        return in.transferTo(java.io.OutputStream.nullOutputStream());\n"
+                    + "    }\n"
+                    + "}\n", diagnostics);
+            assertTrue(diagnostics.getDiagnostics().toString(), ok);
+
+            Path classes = dir.resolve("classes");
+            try (URLClassLoader loader = new URLClassLoader(new URL[] { classes.toUri().toURL() },
+                    TestRouteIndexProcessor.class.getClassLoader())) {
+                Router.Builder builder = Router.builder();
+                for (RouteRegistry registry : ServiceLoader.load(RouteRegistry.class, loader)) {
+                    if (registry.getClass().getClassLoader() == loader) {
+                        registry.register(builder);
+                    }
+                }
+                Router router = builder.build();
+                assertEquals(RouteMatch.FOUND, router.find("POST", "/items", 0, new RouteMatch()).getStatus());
+                assertEquals(RouteMatch.FOUND, router.find("GET", "/items", 0, new RouteMatch()).getStatus());
+                RouteMatch match = router.find("GET", "/upload", 0, new RouteMatch());
+                assertEquals(RouteMatch.METHOD_NOT_ALLOWED, match.getStatus());
+                assertEquals("POST", match.getAllow());
+            }
+        } finally {
+            delete(dir.toFile());
+        }
+    }
+}